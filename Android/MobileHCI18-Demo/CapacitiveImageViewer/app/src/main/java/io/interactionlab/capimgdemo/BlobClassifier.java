@@ -1,8 +1,13 @@
 package io.interactionlab.capimgdemo;
 
 import android.content.Context;
+import android.util.Log;
 
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.interactionlab.capimgdemo.demo.ModelDescription;
 
@@ -11,43 +16,181 @@ import io.interactionlab.capimgdemo.demo.ModelDescription;
  */
 
 public class BlobClassifier {
-    private static TensorFlowInferenceInterface inferenceInterface;
-    private Context context;
-    private ModelDescription modelDescription;
+    private static final String TAG = BlobClassifier.class.getSimpleName();
+
+    private final ModelRegistry registry;
+    private final AtomicReference<ModelSession> session = new AtomicReference<ModelSession>();
+    private float[] outputs = new float[0];
+
+    // Background loading, see setModelAsync().
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    // Guards the swap of the session against close().
+    private final Object lock = new Object();
+    private boolean closed;
+    private volatile long startupNanos = -1;
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private boolean firstClassificationReported;
 
     public BlobClassifier(Context context) {
-        // Loading model from assets folder.
-        this.context = context;
+        // Models are loaded from the assets folder and shared through the registry.
+        this.registry = ModelRegistry.getInstance(context);
     }
 
+    /**
+     * Switches to the given model. Its session is acquired (and loaded if necessary) first and
+     * then replaces the current session in a single atomic swap, so frames that are classified
+     * in the meantime keep using the previous model.
+     */
     public void setModel(ModelDescription modelDescription) {
-        this.modelDescription = modelDescription;
-        inferenceInterface = new TensorFlowInferenceInterface(context.getAssets(), modelDescription.modelPath);
+        ModelSession next = registry.acquire(modelDescription);
+        swap(next);
+    }
+
+    /**
+     * Acquires the given model on a background thread and runs one blob through it, so that
+     * the first frame does not pay for initializing the graph, then swaps it in like
+     * setModel(). Requests are handled in order, so the model that was picked last wins.
+     * isReady() returns false until the first model is in place. The load time, the warm-up
+     * time and the time to the first classification are logged.
+     *
+     * Does nothing after close().
+     *
+     * @param onReady Called on the background thread once the model is in use, may be null.
+     */
+    public void setModelAsync(final ModelDescription modelDescription, final Runnable onReady) {
+        final long requested = System.nanoTime();
+        if (startupNanos < 0) {
+            startupNanos = requested;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ModelSession next = registry.acquire(modelDescription);
+                    long loaded = System.nanoTime();
+                    next.run(new float[(int) modelDescription.inputDimensions[1]], 1, new float[modelDescription.labels.length]);
+                    long warmedUp = System.nanoTime();
+
+                    if (!swap(next)) {
+                        return;
+                    }
+                    Log.i(TAG, String.format(Locale.US, "%s: load %.1f ms, warm-up %.1f ms",
+                            modelDescription.modelName, (loaded - requested) / 1e6, (warmedUp - loaded) / 1e6));
+
+                    if (onReady != null) {
+                        onReady.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Puts the session in place and releases the previous one, unless the classifier has been
+     * closed in the meantime. In that case the session itself is released.
+     *
+     * @return False if the classifier is closed.
+     */
+    private boolean swap(ModelSession next) {
+        synchronized (lock) {
+            if (closed) {
+                registry.release(next);
+                return false;
+            }
+            registry.release(session.getAndSet(next));
+            return true;
+        }
+    }
+
+    /**
+     * @return True once a model is in place, see setModelAsync().
+     */
+    public boolean isReady() {
+        return session.get() != null;
     }
 
+    /**
+     * Counts a frame that was dropped because the classifier was not ready yet.
+     */
+    public void frameDropped() {
+        droppedFrames.incrementAndGet();
+    }
+
+    private void reportFirstClassification() {
+        if (!firstClassificationReported && startupNanos >= 0) {
+            firstClassificationReported = true;
+            Log.i(TAG, String.format(Locale.US, "First classification %.1f ms after loading started, %d frames dropped",
+                    (System.nanoTime() - startupNanos) / 1e6, droppedFrames.get()));
+        }
+    }
+
+    /**
+     * Releases the current model. A model that is still loading is released once it is
+     * loaded. The classifier must not be used afterwards.
+     */
+    public void close() {
+        ModelSession current;
+        synchronized (lock) {
+            closed = true;
+            current = session.getAndSet(null);
+        }
+        loader.shutdownNow();
+        registry.release(current);
+    }
 
     public ClassificationResult classify(float[] pixels) {
-        // Node Names
-        String inputName = modelDescription.inputNode;
-        String outputName = modelDescription.outputNode;
+        return classifyBatch(pixels, 1)[0];
+    }
 
+    /**
+     * Classifies several blob images with a single run of the graph. The images are stored
+     * one after another in pixels, i.e. image i starts at i * 405 for the PalmTouch model.
+     *
+     * @param count Number of images in pixels.
+     * @return One result per image.
+     */
+    public ClassificationResult[] classifyBatch(float[] pixels, int count) {
+        ClassificationResult[] results = new ClassificationResult[count];
+        if (count == 0) {
+            return results;
+        }
 
-        // Define output nodes
-        String[] outputNodes = new String[]{outputName};
-        float[] outputs = new float[modelDescription.labels.length];
+        // Feed images into the model and fetch the results. A session is only closed after it
+        // has been swapped out, in that case the run is repeated with the new one.
+        ModelSession current;
+        int numLabels;
+        do {
+            current = session.get();
+            if (current == null) {
+                throw new IllegalStateException("No model has been set.");
+            }
 
-        // Feed image into the model and fetch the results.
-        inferenceInterface.feed(inputName, pixels, modelDescription.inputDimensions);
-        inferenceInterface.run(outputNodes, true);
-        inferenceInterface.fetch(outputName, outputs);
+            numLabels = current.getModelDescription().labels.length;
+            if (outputs.length < count * numLabels) {
+                outputs = new float[count * numLabels];
+            }
+        } while (!current.run(pixels, count, outputs));
 
+        ModelDescription modelDescription = current.getModelDescription();
+        for (int i = 0; i < count; i++) {
+            results[i] = toClassificationResult(modelDescription, outputs, i * numLabels);
+        }
+
+        reportFirstClassification();
+        return results;
+    }
 
+    private ClassificationResult toClassificationResult(ModelDescription modelDescription, float[] outputs, int offset) {
         // Convert one-hot encoded result to an int (= detected class)
         float maxConf = Float.MIN_VALUE;
         int idx = -1;
-        for (int i = 0; i < outputs.length; i++) {
-            if (outputs[i] > maxConf) {
-                maxConf = outputs[i];
+        for (int i = 0; i < modelDescription.labels.length; i++) {
+            if (outputs[offset + i] > maxConf) {
+                maxConf = outputs[offset + i];
                 idx = i;
             }
         }
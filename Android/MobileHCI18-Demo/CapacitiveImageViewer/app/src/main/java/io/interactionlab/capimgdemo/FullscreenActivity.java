@@ -77,12 +77,18 @@ public class FullscreenActivity extends AppCompatActivity {
     private DrawView drawView;
     private TextView textViewMode;
 
+    private LocalDeviceHandler localDeviceHandler;
     private BlobClassifier blobClassifier;
     private ModelDescription currentModel;
 
+    // Size of a flattened 27x15 blob image
+    private static final int BLOB_SIZE = 405;
+    private float[] blobImages = new float[BLOB_SIZE];
+
     private void setModel(ModelDescription modelDescription) {
         currentModel = modelDescription;
-        blobClassifier.setModel(currentModel);
+        // Frames keep using the previous model until the new one is loaded.
+        blobClassifier.setModelAsync(currentModel, null);
         textViewMode.setText(Html.fromHtml("<html>Model: <b>" + modelDescription.modelName + "</b></html>"));
     }
 
@@ -94,25 +100,34 @@ public class FullscreenActivity extends AppCompatActivity {
         movableWindow = (RelativeLayout) findViewById(R.id.movableScreen);
         blobClassifier = new BlobClassifier(this);
 
-        LocalDeviceHandler localDeviceHandler = new LocalDeviceHandler();
+        localDeviceHandler = new LocalDeviceHandler();
         localDeviceHandler.setLocalCapImgListener(new LocalCapImgListener() {
             @Override
             public void onLocalCapImg(final CapacitiveImageTS capImg) { // called approximately every 50ms
+                if (!blobClassifier.isReady()) {
+                    // Still loading, the frame would be stale by the time the model is ready.
+                    blobClassifier.frameDropped();
+                    return;
+                }
+
                 final List<BlobBoundingBox> blobBoundingBoxes = capImg.getBlobBoundaries();
                 final List<String> labelNames = new ArrayList<String>();
                 final List<Integer> colors = new ArrayList<Integer>();
 
-                List<float[]> flattenedBlobs = new ArrayList<float[]>();
                 int[][] matrix = capImg.getMatrix();
 
-                for (BlobBoundingBox bbb : blobBoundingBoxes) {
-                    flattenedBlobs.add(
-                            MatrixUtils.flattenClipAndNormalizeMatrixFloat(
-                                    BlobDetector.getBlobContentIn27x15(matrix, bbb), 0, 268, 268));
+                int blobCount = blobBoundingBoxes.size();
+                if (blobImages.length < blobCount * BLOB_SIZE) {
+                    blobImages = new float[blobCount * BLOB_SIZE];
+                }
+
+                for (int i = 0; i < blobCount; i++) {
+                    float[] blobImage = MatrixUtils.flattenClipAndNormalizeMatrixFloat(
+                            BlobDetector.getBlobContentIn27x15(matrix, blobBoundingBoxes.get(i)), 0, 268, 268);
+                    System.arraycopy(blobImage, 0, blobImages, i * BLOB_SIZE, BLOB_SIZE);
                 }
 
-                for (int i = 0; i < flattenedBlobs.size(); i++) {
-                    ClassificationResult cr = blobClassifier.classify(flattenedBlobs.get(i));
+                for (ClassificationResult cr : blobClassifier.classifyBatch(blobImages, blobCount)) {
                     labelNames.add(cr.label + " (" + ((int) Math.round(cr.confidence * 100)) + "%)");
                     colors.add(cr.color);
                 }
@@ -125,7 +140,6 @@ public class FullscreenActivity extends AppCompatActivity {
                 });
             }
         });
-        localDeviceHandler.startHandler();
 
         // fill the whole screen.
         RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
@@ -168,7 +182,22 @@ public class FullscreenActivity extends AppCompatActivity {
             }
         });
 
-        setModel(DemoSettings.models[0]);
+        // The frame listener goes live once the model is loaded and warmed up.
+        currentModel = DemoSettings.models[0];
+        textViewMode.setText(Html.fromHtml("<html>Model: <b>" + currentModel.modelName + "</b></html>"));
+        blobClassifier.setModelAsync(currentModel, new Runnable() {
+            @Override
+            public void run() {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed()) {
+                            localDeviceHandler.startHandler();
+                        }
+                    }
+                });
+            }
+        });
     }
 
 
@@ -192,6 +221,15 @@ public class FullscreenActivity extends AppCompatActivity {
         delayedHide(100);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        localDeviceHandler.stopHandler();
+        blobClassifier.close();
+        ModelRegistry.getInstance(this).evictUnused();
+    }
+
     private void hide() {
         // Hide UI first
         ActionBar actionBar = getSupportActionBar();
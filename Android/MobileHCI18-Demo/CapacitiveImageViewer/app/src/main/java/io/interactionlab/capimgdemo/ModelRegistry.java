@@ -0,0 +1,120 @@
+package io.interactionlab.capimgdemo;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.interactionlab.capimgdemo.demo.ModelDescription;
+
+/**
+ * Loads every model (i.e. every entry of DemoSettings.models) only once and shares the
+ * sessions between classifiers.
+ *
+ * acquire() loads the graph if needed and increments the reference count of the session,
+ * release() decrements it. Sessions without references stay loaded, so switching back to a
+ * model is instant, until they are evicted with evict() or evictUnused().
+ */
+public class ModelRegistry {
+    private static ModelRegistry instance;
+
+    private final AssetManager assets;
+    private final Map<ModelDescription, ModelSession> sessions = new HashMap<ModelDescription, ModelSession>();
+
+    private ModelRegistry(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    public static synchronized ModelRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new ModelRegistry(context.getApplicationContext().getAssets());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the session of the given model, loading the graph if it is not cached. Loading
+     * takes a while, so this should not be called on the thread that delivers the frames.
+     */
+    public ModelSession acquire(ModelDescription modelDescription) {
+        synchronized (this) {
+            ModelSession session = sessions.get(modelDescription);
+            if (session != null) {
+                session.refCount++;
+                return session;
+            }
+        }
+
+        // Load without holding the lock so that other models stay available meanwhile.
+        ModelSession loaded = new ModelSession(new TensorFlowInferenceInterface(assets, modelDescription.modelPath), modelDescription);
+
+        synchronized (this) {
+            ModelSession session = sessions.get(modelDescription);
+            if (session == null) {
+                session = loaded;
+                sessions.put(modelDescription, session);
+            } else {
+                // Another thread loaded the same model in the meantime.
+                loaded.close();
+            }
+            session.refCount++;
+            return session;
+        }
+    }
+
+    public synchronized void release(ModelSession session) {
+        if (session != null && session.refCount > 0) {
+            session.refCount--;
+        }
+    }
+
+    /**
+     * Closes the session of the given model if it is not in use.
+     *
+     * @return True if the model is not loaded anymore.
+     */
+    public boolean evict(ModelDescription modelDescription) {
+        ModelSession session;
+        synchronized (this) {
+            session = sessions.get(modelDescription);
+            if (session == null) {
+                return true;
+            }
+            if (session.refCount > 0) {
+                return false;
+            }
+            sessions.remove(modelDescription);
+        }
+
+        session.close();
+        return true;
+    }
+
+    /**
+     * Closes all sessions that are not in use.
+     */
+    public void evictUnused() {
+        List<ModelSession> unused = new ArrayList<ModelSession>();
+        synchronized (this) {
+            for (ModelSession session : sessions.values()) {
+                if (session.refCount == 0) {
+                    unused.add(session);
+                }
+            }
+            sessions.values().removeAll(unused);
+        }
+
+        for (ModelSession session : unused) {
+            session.close();
+        }
+    }
+
+    public synchronized boolean isLoaded(ModelDescription modelDescription) {
+        return sessions.containsKey(modelDescription);
+    }
+}
@@ -0,0 +1,66 @@
+package io.interactionlab.capimgdemo;
+
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.nio.FloatBuffer;
+
+import io.interactionlab.capimgdemo.demo.ModelDescription;
+
+/**
+ * A loaded graph of a ModelDescription, handed out by the ModelRegistry. Runs are
+ * serialized, so a session can be shared by several classifiers. Once the registry has
+ * closed the session, run() returns false and the caller has to acquire a new one.
+ */
+public class ModelSession {
+    private final ModelDescription modelDescription;
+    private final String[] outputNodes;
+    private TensorFlowInferenceInterface inferenceInterface;
+
+    // Guarded by the registry.
+    int refCount;
+
+    ModelSession(TensorFlowInferenceInterface inferenceInterface, ModelDescription modelDescription) {
+        this.inferenceInterface = inferenceInterface;
+        this.modelDescription = modelDescription;
+        this.outputNodes = new String[]{modelDescription.outputNode};
+    }
+
+    public ModelDescription getModelDescription() {
+        return modelDescription;
+    }
+
+    /**
+     * Runs the graph on count images stored one after another in input.
+     *
+     * @param output Receives count * (number of labels) values.
+     * @return False if the session has been closed.
+     */
+    public synchronized boolean run(float[] input, int count, float[] output) {
+        if (inferenceInterface == null) {
+            return false;
+        }
+
+        // The first input dimension is the batch size.
+        long[] dimensions = modelDescription.inputDimensions.clone();
+        dimensions[0] = count;
+        int inputSize = 1;
+        for (long d : dimensions) {
+            inputSize *= d;
+        }
+
+        inferenceInterface.feed(modelDescription.inputNode, FloatBuffer.wrap(input, 0, inputSize), dimensions);
+        inferenceInterface.run(outputNodes, true);
+        inferenceInterface.fetch(modelDescription.outputNode, FloatBuffer.wrap(output, 0, count * modelDescription.labels.length));
+        return true;
+    }
+
+    /**
+     * Waits for a running inference and releases the native resources of the graph.
+     */
+    synchronized void close() {
+        if (inferenceInterface != null) {
+            inferenceInterface.close();
+            inferenceInterface = null;
+        }
+    }
+}
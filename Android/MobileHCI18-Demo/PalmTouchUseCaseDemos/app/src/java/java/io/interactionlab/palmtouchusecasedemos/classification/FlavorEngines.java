@@ -0,0 +1,14 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import android.content.res.AssetManager;
+
+/**
+ * Engines and models of the java flavor: none beyond the Java engines every flavor has.
+ */
+class FlavorEngines {
+    static final ModelDescription[] MODELS = new ModelDescription[0];
+
+    static InferenceEngine create(AssetManager assets, ModelDescription modelDescription) {
+        throw new IllegalArgumentException("Unknown engine " + modelDescription.engine + " of " + modelDescription.modelName);
+    }
+}
@@ -0,0 +1,192 @@
+package io.interactionlab.palmtouchusecasedemos;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyHistogram;
+
+/**
+ * Keeps the visible application of a ProcessManager in a cache, so a palm touch does not have
+ * to wait for a scan of /proc.
+ *
+ * A cached answer is used for ttlMillis after its scan started. refreshAsync() starts a scan
+ * on a background thread, e.g. as soon as a palm touch becomes likely; a lookup that finds
+ * such a scan still running waits for it instead of starting its own. Only lookups without a
+ * fresh answer and without a running scan scan synchronously.
+ *
+ * getVisibleApplication() records its latency in a single-writer LatencyHistogram and must
+ * therefore always be called from the same thread; refreshAsync() may be called from any
+ * thread.
+ */
+public class ForegroundAppTracker {
+    public static final long DEFAULT_TTL_MILLIS = 1000;
+    // Speculative refreshes of a younger answer are dropped.
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 250;
+
+    private final ProcessManager processManager;
+    private final long ttlNanos;
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor();
+    private final LatencyHistogram resolveLatency = new LatencyHistogram("resolve");
+
+    // Guarded by this
+    private String cachedApp;
+    private long cachedAt;
+    private boolean cached;
+    private Future<String> pendingRefresh;
+    private boolean closed;
+
+    private long requests;
+    private long hits;
+    private long waits;
+    private long misses;
+    private long speculativeRefreshes;
+
+    public ForegroundAppTracker(ProcessManager processManager) {
+        this(processManager, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param ttlMillis Time for which a scan is used, from its start.
+     */
+    public ForegroundAppTracker(ProcessManager processManager, long ttlMillis) {
+        this.processManager = processManager;
+        this.ttlNanos = ttlMillis * 1000000L;
+    }
+
+    /**
+     * @return See ProcessManager.getVisibleApplication(), as of at most ttlMillis ago.
+     */
+    public String getVisibleApplication() {
+        long start = System.nanoTime();
+        Future<String> pending = null;
+        synchronized (this) {
+            requests++;
+            if (isFresh(start, ttlNanos)) {
+                hits++;
+                resolveLatency.recordNanos(System.nanoTime() - start);
+                return cachedApp;
+            }
+            if (pendingRefresh != null && !pendingRefresh.isDone()) {
+                pending = pendingRefresh;
+                waits++;
+            } else {
+                misses++;
+            }
+        }
+
+        String app;
+        if (pending != null) {
+            try {
+                app = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                app = refresh();
+            } catch (ExecutionException e) {
+                app = refresh();
+            }
+        } else {
+            app = refresh();
+        }
+        resolveLatency.recordNanos(System.nanoTime() - start);
+        return app;
+    }
+
+    /**
+     * Starts a scan in the background unless one is running or the cached answer is recent.
+     */
+    public synchronized void refreshAsync() {
+        if (closed || (pendingRefresh != null && !pendingRefresh.isDone())
+                || isFresh(System.nanoTime(), MIN_REFRESH_INTERVAL_MILLIS * 1000000L)) {
+            return;
+        }
+
+        try {
+            pendingRefresh = refresher.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return refresh();
+                }
+            });
+            speculativeRefreshes++;
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime
+        }
+    }
+
+    private boolean isFresh(long now, long maxAge) {
+        return cached && now - cachedAt < maxAge;
+    }
+
+    private String refresh() {
+        long start = System.nanoTime();
+        String app = processManager.getVisibleApplication();
+        synchronized (this) {
+            // A slower scan that started earlier must not replace a newer answer.
+            if (!cached || start - cachedAt > 0) {
+                cachedApp = app;
+                cachedAt = start;
+                cached = true;
+            }
+        }
+        return app;
+    }
+
+    /**
+     * Stops the background thread, a running scan is finished.
+     */
+    public synchronized void close() {
+        closed = true;
+        refresher.shutdown();
+    }
+
+    /**
+     * @return Time of getVisibleApplication().
+     */
+    public LatencyHistogram getResolveLatency() {
+        return resolveLatency;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return Number of requests answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of requests that waited for a running speculative scan.
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return Number of requests that had to scan themselves.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        // Read before taking the lock, the ProcessManager is busy while it scans.
+        long scans = processManager.getScanCount();
+        long nameReads = processManager.getNameReads();
+        synchronized (this) {
+            return String.format(Locale.US, "ForegroundAppTracker: %d requests, %d hits, %d waits, %d misses%s, "
+                            + "%d speculative refreshes, %d scans, %d names read",
+                    requests, hits, waits, misses,
+                    requests > 0 ? " (" + (100 * hits / requests) + "% hit rate)" : "",
+                    speculativeRefreshes, scans, nameReads);
+        }
+    }
+}
@@ -18,45 +18,109 @@ import android.util.Log;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.Toast;
 
 import org.hcilab.libftsp.LocalDeviceHandler;
-import org.hcilab.libftsp.capacitivematrix.MatrixUtils;
-import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobBoundingBox;
-import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobDetector;
 import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
 import org.hcilab.libftsp.listeners.LocalCapImgListener;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import io.interactionlab.palmtouchusecasedemos.classification.BlobClassifier;
-import io.interactionlab.palmtouchusecasedemos.classification.ClassificationResult;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+import io.interactionlab.palmtouchusecasedemos.classification.ClassificationCache;
 import io.interactionlab.palmtouchusecasedemos.classification.DemoSettings;
 import io.interactionlab.palmtouchusecasedemos.classification.ModelDescription;
+import io.interactionlab.palmtouchusecasedemos.classification.ModelRegistry;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobDetectionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobExtractionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobTrackingStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.ClassificationStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FramePipeline;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FrameRingBuffer;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FrameSkipController;
+import io.interactionlab.palmtouchusecasedemos.pipeline.IdleCheckStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyHistogram;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyReporter;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmDecisionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmEvidenceStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.RecordingStage;
+import io.interactionlab.palmtouchusecasedemos.recording.SessionRecorder;
 
 public class PalmTouchService extends Service implements View.OnTouchListener, View.OnClickListener {
-    private final static int CONSECUTIVE_PALMS = 2;
+    // Evidence in log-odds for a palm touch, see PalmEvidenceStage
+    private final static double PALM_EVIDENCE_BOUND = PalmEvidenceStage.DEFAULT_BOUND;
     private final static int VIBRATION_DURATION = 10;
+    private final static int FRAME_QUEUE_CAPACITY = 4;
+    private final static int PROCESSING_JOIN_TIMEOUT = 500;
+    private final static int LATENCY_REPORT_INTERVAL = 60000;
+    private final static String LATENCY_DUMP_FILE = "latency.txt";
+    private final static String SESSION_DIRECTORY = "sessions";
     private final static String TAG = PalmTouchService.class.getSimpleName();
+    // Apps of the first three pie menu buttons: Email, Browser, Google Maps
+    private final static String[] PIE_MENU_APPS = {
+            "com.android.mms",
+            "com.android.browser", // vllt. zu chrome machen
+            "com.google.android.apps.maps"
+    };
 
     private BlobClassifier blobClassifier;
     private ModelDescription currentModel;
 
-    private int consecPalmCounter = 0;
+    // Frames from the libftsp listener to the pipeline, the newest frames win.
+    private final FrameRingBuffer frameRing = new FrameRingBuffer(FRAME_QUEUE_CAPACITY, FrameRingBuffer.DROP_OLDEST);
+    private FramePipeline framePipeline;
+    private final RecordingStage recordingStage = new RecordingStage();
+    // Starts and stops recordings in order, off the main thread: creating a recorder recovers
+    // the segments left over by earlier sessions and preallocates a segment.
+    private final ExecutorService recordingControl = Executors.newSingleThreadExecutor();
+    // Short-circuits frames without touches and repeated frames.
+    private final IdleCheckStage idleCheckStage = new IdleCheckStage();
+    private final BlobTrackingStage blobTrackingStage = new BlobTrackingStage();
+    private ClassificationStage classificationStage;
+    // Skips classifications when the device cannot keep up with the sensor.
+    private final FrameSkipController frameSkipController = new FrameSkipController();
+
+    // Capture of the frame until the palm touch action has been triggered
+    private final LatencyHistogram actionLatency = new LatencyHistogram("action");
+    // Palm touch until the pie menu is drawn, recorded on the main thread
+    private final LatencyHistogram menuLatency = new LatencyHistogram("menu");
+    private LatencyReporter latencyReporter;
+    private final Runnable latencyReport = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, latencyReporter.summary());
+            handler.postDelayed(this, LATENCY_REPORT_INTERVAL);
+        }
+    };
 
     private WindowManager wm;
-    private ProcessManager processManager;
+    // Visible application for the palm touch action, refreshed when a palm touch is likely
+    private ForegroundAppTracker foregroundAppTracker;
     private Handler handler;
     private NotificationManager notificationManager;
 
     private LocalDeviceHandler localDeviceHandler;
+    private boolean destroyed;
 
-    private List<View> visibleViews = new ArrayList<View>();
+    // Buttons of the pie menu, created on the first palm touch that shows it and only shown and
+    // hidden afterwards. Only buttons that were added to the window manager. Main thread.
+    private final List<View> pieMenuViews = new ArrayList<View>();
+    private boolean pieMenuVisible;
+    private long pieMenuTriggeredAt;
+    private final ExecutorService appLauncher = Executors.newSingleThreadExecutor();
 
     private int palmTouchAction = 0;
 
@@ -81,10 +145,14 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
 
         this.palmTouchAction = 0;
 
+        wm = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
+
         blobClassifier = new BlobClassifier(this);
         currentModel = DemoSettings.models[0];
-        blobClassifier.setModel(currentModel);
-        processManager = new ProcessManager(getApplicationContext());
+        // The FeatureGate is left off: its bands have only been checked on the blobs it was
+        // fitted on.
+        blobClassifier.setClassificationCache(new ClassificationCache());
+        foregroundAppTracker = new ForegroundAppTracker(new ProcessManager(getApplicationContext()));
 
         testTimestamp = System.currentTimeMillis();
 
@@ -92,30 +160,72 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
         localDeviceHandler.setLocalCapImgListener(new LocalCapImgListener() {
             @Override
             public void onLocalCapImg(final CapacitiveImageTS capImg) { // called approximately every 50ms
-                final List<BlobBoundingBox> blobBoundingBoxes = capImg.getBlobBoundaries();
-
-                List<float[]> flattenedBlobs = new ArrayList<float[]>();
-                int[][] matrix = capImg.getMatrix();
-
-                for (BlobBoundingBox bbb : blobBoundingBoxes) {
-                    flattenedBlobs.add(
-                            MatrixUtils.flattenClipAndNormalizeMatrixFloat(
-                                    BlobDetector.getBlobContentIn27x15(matrix, bbb), 0, 268, 268));
+                if (!blobClassifier.isReady()) {
+                    // Still loading, the frame would be stale by the time the model is ready.
+                    blobClassifier.frameDropped();
+                    return;
                 }
 
-                boolean palmFound = false;
-                for (int i = 0; i < flattenedBlobs.size(); i++) {
-                    ClassificationResult cr = blobClassifier.classify(flattenedBlobs.get(i));
+                // Hand the frame over to the processing thread.
+                Frame frame = frameRing.claim();
+                if (frame != null) {
+                    frame.set(capImg, System.nanoTime());
+                    frameRing.publish();
+                }
+            }
+        });
 
-                    if (cr.index == 1) {
-                        palmFound = true;
+        // idle -> detect -> track -> extract -> classify -> decide -> record, every stage on its
+        // own thread.
+        classificationStage = new ClassificationStage(blobClassifier, frameSkipController);
+        framePipeline = new FramePipeline(frameRing,
+                idleCheckStage,
+                new BlobDetectionStage(),
+                blobTrackingStage,
+                new BlobExtractionStage(new BlobExtractor(0, 268, 268)),
+                classificationStage,
+                new PalmEvidenceStage(PALM_EVIDENCE_BOUND, new PalmDecisionStage.Listener() {
+                    @Override
+                    public void onPalmTouch(Frame frame) {
+                        handlePalmTouch(System.nanoTime());
+                        actionLatency.recordNanos(frame.nanosSinceCapture(System.nanoTime()));
                     }
-                }
 
-                handlePalmDetection(palmFound);
+                    @Override
+                    public void onPalmSuspected(Frame frame) {
+                        // The action may need the visible application, look it up before the
+                        // palm touch is confirmed.
+                        if (palmTouchAction == 0) {
+                            foregroundAppTracker.refreshAsync();
+                        }
+                    }
+                }),
+                recordingStage);
+        framePipeline.start(true);
+
+        LatencyHistogram[] pipelineLatencies = framePipeline.getLatencyHistograms();
+        LatencyHistogram[] latencies = new LatencyHistogram[pipelineLatencies.length + 3];
+        System.arraycopy(pipelineLatencies, 0, latencies, 0, pipelineLatencies.length);
+        latencies[pipelineLatencies.length] = actionLatency;
+        latencies[pipelineLatencies.length + 1] = foregroundAppTracker.getResolveLatency();
+        latencies[pipelineLatencies.length + 2] = menuLatency;
+        latencyReporter = new LatencyReporter(latencies);
+        handler.postDelayed(latencyReport, LATENCY_REPORT_INTERVAL);
+
+        // The frame listener goes live once the model is loaded and warmed up.
+        blobClassifier.setModelAsync(currentModel, new Runnable() {
+            @Override
+            public void run() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!destroyed) {
+                            localDeviceHandler.startHandler();
+                        }
+                    }
+                });
             }
         });
-        localDeviceHandler.startHandler();
 
         showNotificationIcon();
     }
@@ -150,6 +260,11 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
         if (intent != null) {
             this.palmTouchAction = intent.getIntExtra("action", 0);
             System.out.println("PalmTouch Action: " + this.palmTouchAction);
+
+            // adb shell am startservice -n <package>/.PalmTouchService --ez record true
+            if (intent.hasExtra("record")) {
+                setRecording(intent.getBooleanExtra("record", false));
+            }
         }
 
         System.out.println("onStartCommand!");
@@ -157,8 +272,41 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
         return Service.START_STICKY;
     }
 
+    /**
+     * Starts or stops recording the frames into the sessions directory of the app, on the
+     * external storage if available so the sessions can be pulled with adb.
+     */
+    private void setRecording(final boolean record) {
+        recordingControl.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!record) {
+                    recordingStage.stopRecording();
+                    return;
+                }
+                if (recordingStage.isRecording()) {
+                    return;
+                }
+
+                File directory = getExternalFilesDir(SESSION_DIRECTORY);
+                if (directory == null) {
+                    directory = new File(getFilesDir(), SESSION_DIRECTORY);
+                }
+                try {
+                    SessionRecorder recorder = new SessionRecorder(directory);
+                    Log.i(TAG, "Recording " + recorder.getSessionName() + " to " + directory + ", "
+                            + recorder.getRecoveredSegments() + " segments recovered");
+                    recordingStage.startRecording(recorder);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not start recording.", e);
+                }
+            }
+        });
+    }
+
     @Override
     public void onDestroy() {
+        destroyed = true;
         handler.post(new Runnable() {
             @Override
             public void run() {
@@ -167,135 +315,190 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
         });
 
         localDeviceHandler.stopHandler();
+        // Let the current frames finish before the model is released.
+        framePipeline.stop(PROCESSING_JOIN_TIMEOUT);
+        // A recording that is still being started is stopped right after. If that takes too
+        // long, its segment is left open and recovered with the next recording.
+        recordingControl.shutdown();
+        try {
+            recordingControl.awaitTermination(PROCESSING_JOIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recordingStage.stopRecording();
+        if (recordingStage.getError() != null) {
+            Log.e(TAG, "Recording failed.", recordingStage.getError());
+        }
+        Log.i(TAG, frameRing.toString());
+        Log.i(TAG, framePipeline.toString());
+        Log.i(TAG, idleCheckStage.toString());
+        Log.i(TAG, blobTrackingStage.toString());
+        Log.i(TAG, classificationStage.toString());
+        Log.i(TAG, frameSkipController.toString());
+        Log.i(TAG, foregroundAppTracker.toString());
+        foregroundAppTracker.close();
+        handler.removeCallbacks(latencyReport);
+        Log.i(TAG, latencyReporter.summary());
+        try {
+            latencyReporter.dump(new File(getFilesDir(), LATENCY_DUMP_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the latency histograms.", e);
+        }
+        Log.i(TAG, blobClassifier.getClassificationCache().toString());
+        blobClassifier.close();
+        ModelRegistry.getInstance(this).evictUnused();
+        removePieMenu();
+        appLauncher.shutdown();
         removeNotification(notificationManager);
     }
 
-    private void handlePalmDetection(boolean palmAvailable) {
-        if (palmAvailable) {
-            consecPalmCounter++;
-        } else {
-            consecPalmCounter = 0;
-        }
-
-        if (consecPalmCounter == CONSECUTIVE_PALMS) {
-            int idx = palmTouchAction;
+    /**
+     * @param triggeredAt System.nanoTime() of the palm touch.
+     */
+    private void handlePalmTouch(long triggeredAt) {
+        int idx = palmTouchAction;
 
-            vibrate();
+        vibrate();
 
-            switch (idx) {
-                case 0:
-                    if (processManager != null) {
-                        String app = processManager.getVisibleApplication();
-                        if (app != null && app.equals("com.cyanogenmod.trebuchet")) {
-                            openNotificationBar();
-                        } else {
-                            showPieMenu();
-                        }
+        switch (idx) {
+            case 0:
+                if (foregroundAppTracker != null) {
+                    String app = foregroundAppTracker.getVisibleApplication();
+                    if (app != null && app.equals("com.cyanogenmod.trebuchet")) {
+                        openNotificationBar();
                     } else {
-                        System.out.println("ProcessManager is null.");
+                        showPieMenu(triggeredAt);
                     }
-                    break;
-                case 1:
-                    // Pie Menu
-                    showPieMenu();
-                    break;
-                case 2:
-                    // Trigger notification bar
-                    openNotificationBar();
-                    break;
-                default:
-                    break;
+                } else {
+                    Log.w(TAG, "ForegroundAppTracker is null.");
+                }
+                break;
+            case 1:
+                // Pie Menu
+                showPieMenu(triggeredAt);
+                break;
+            case 2:
+                // Trigger notification bar
+                openNotificationBar();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Creates the buttons of the pie menu and adds them to the window manager, hidden, so later
+     * palm touches only have to make them visible. Called on the main thread.
+     *
+     * @return False if the overlay windows cannot be added, e.g. without the permission to
+     * draw over other apps. There is no menu then.
+     */
+    private boolean createPieMenu() {
+        View btnClose;
+        try {
+            addPieMenuButton(R.mipmap.piemenu_1, 0, 1150);
+            addPieMenuButton(R.mipmap.piemenu_2, 160, 850);
+            addPieMenuButton(R.mipmap.piemenu_3, 450, 700);
+            btnClose = addPieMenuButton(R.mipmap.piemenu_close, 450, 1150);
+        } catch (WindowManager.BadTokenException e) {
+            Log.w(TAG, "Cannot show the pie menu.", e);
+            removePieMenu();
+            return false;
+        }
+
+        // All buttons are shown in the same frame, the close button stands for the menu.
+        btnClose.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (pieMenuTriggeredAt != 0) {
+                    menuLatency.recordNanos(System.nanoTime() - pieMenuTriggeredAt);
+                    pieMenuTriggeredAt = 0;
+                }
+                return true;
             }
+        });
+        return true;
+    }
+
+    private void removePieMenu() {
+        for (View v : pieMenuViews) {
+            wm.removeView(v);
         }
+        pieMenuViews.clear();
+    }
+
+    private View addPieMenuButton(int resource, int x, int y) {
+        ImageView btn = new ImageView(PalmTouchService.this);
+        btn.setImageResource(resource);
+        btn.setMinimumHeight(Constants.PIE_MENU_BTN_SIZE);
+        btn.setMaxHeight(Constants.PIE_MENU_BTN_SIZE);
+        btn.setMinimumWidth(Constants.PIE_MENU_BTN_SIZE);
+        btn.setMaxWidth(Constants.PIE_MENU_BTN_SIZE);
+        btn.setOnTouchListener(PalmTouchService.this);
+        btn.setOnClickListener(PalmTouchService.this);
+        // A window whose view is gone is not shown and gets no touches.
+        btn.setVisibility(View.GONE);
+
+        // Apps targeting O and later cannot add TYPE_SYSTEM_ALERT windows anymore.
+        int type = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY : WindowManager.LayoutParams.TYPE_SYSTEM_ALERT;
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT, type, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.LEFT | Gravity.TOP;
+        params.x = x;
+        params.y = y;
+        wm.addView(btn, params);
+        pieMenuViews.add(btn);
+        return btn;
     }
 
-    private void showPieMenu() {
+    /**
+     * @param triggeredAt System.nanoTime() of the palm touch, for the menu latency.
+     */
+    private void showPieMenu(final long triggeredAt) {
         handler.post(new Runnable() {
             @Override
             public void run() {
-                wm = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
-
-                if (visibleViews.size() > 0) {
+                if (pieMenuVisible || destroyed) {
+                    return;
+                }
+                // Tried again on every palm touch, the permission may have been granted meanwhile.
+                if (pieMenuViews.isEmpty() && !createPieMenu()) {
                     return;
                 }
 
-                ImageView btn1 = new ImageView(PalmTouchService.this);
-                btn1.setImageResource(R.mipmap.piemenu_1);
-                btn1.setMinimumHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn1.setMaxHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn1.setMinimumWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn1.setMaxWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn1.setOnTouchListener(PalmTouchService.this);
-                btn1.setOnClickListener(PalmTouchService.this);
-
-                WindowManager.LayoutParams params1 = new WindowManager.LayoutParams(WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.TYPE_SYSTEM_ALERT, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
-                params1.gravity = Gravity.LEFT | Gravity.TOP;
-                params1.x = 0;
-                params1.y = 1150;
-                wm.addView(btn1, params1);
-                visibleViews.add(btn1);
-
-                // ---------------------
-
-                ImageView btn2 = new ImageView(PalmTouchService.this);
-                btn2.setImageResource(R.mipmap.piemenu_2);
-                btn2.setMinimumHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn2.setMaxHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn2.setMinimumWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn2.setMaxWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn2.setOnTouchListener(PalmTouchService.this);
-                btn2.setOnClickListener(PalmTouchService.this);
-
-                WindowManager.LayoutParams params2 = new WindowManager.LayoutParams(WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.TYPE_SYSTEM_ALERT, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
-                params2.gravity = Gravity.LEFT | Gravity.TOP;
-                params2.x = 160;
-                params2.y = 850;
-                wm.addView(btn2, params2);
-                visibleViews.add(btn2);
-
-                // ---------------------
-
-                ImageView btn3 = new ImageView(PalmTouchService.this);
-                btn3.setImageResource(R.mipmap.piemenu_3);
-                btn3.setMinimumHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn3.setMaxHeight(Constants.PIE_MENU_BTN_SIZE);
-                btn3.setMinimumWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn3.setMaxWidth(Constants.PIE_MENU_BTN_SIZE);
-                btn3.setOnTouchListener(PalmTouchService.this);
-                btn3.setOnClickListener(PalmTouchService.this);
-
-                WindowManager.LayoutParams params3 = new WindowManager.LayoutParams(WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.TYPE_SYSTEM_ALERT, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
-                params3.gravity = Gravity.LEFT | Gravity.TOP;
-                params3.x = 450;
-                params3.y = 700;
-                wm.addView(btn3, params3);
-                visibleViews.add(btn3);
-
-                // ---------------------
-
-                ImageView btnClose = new ImageView(PalmTouchService.this);
-                btnClose.setImageResource(R.mipmap.piemenu_close);
-                btnClose.setMinimumHeight(Constants.PIE_MENU_BTN_SIZE);
-                btnClose.setMaxHeight(Constants.PIE_MENU_BTN_SIZE);
-                btnClose.setMinimumWidth(Constants.PIE_MENU_BTN_SIZE);
-                btnClose.setMaxWidth(Constants.PIE_MENU_BTN_SIZE);
-                btnClose.setOnTouchListener(PalmTouchService.this);
-                btnClose.setOnClickListener(PalmTouchService.this);
-
-                WindowManager.LayoutParams params4 = new WindowManager.LayoutParams(WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.WRAP_CONTENT, WindowManager.LayoutParams.TYPE_SYSTEM_ALERT, WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL, PixelFormat.TRANSLUCENT);
-                params4.gravity = Gravity.LEFT | Gravity.TOP;
-                params4.x = 450;
-                params4.y = 1150;
-                wm.addView(btnClose, params4);
-                visibleViews.add(btnClose);
-
+                pieMenuVisible = true;
+                pieMenuTriggeredAt = triggeredAt;
+                setPieMenuVisibility(View.VISIBLE);
             }
         });
     }
 
-    private void openApp(String packageName) {
-        Intent launchIntent = getPackageManager().getLaunchIntentForPackage(packageName);
-        startActivity(launchIntent);
+    private void hidePieMenu() {
+        pieMenuVisible = false;
+        pieMenuTriggeredAt = 0;
+        setPieMenuVisibility(View.GONE);
+    }
+
+    private void setPieMenuVisibility(int visibility) {
+        for (View v : pieMenuViews) {
+            v.setVisibility(visibility);
+        }
+    }
+
+    /**
+     * Looks up and starts the app on the background thread, both are calls to the system.
+     */
+    private void openApp(final String packageName) {
+        appLauncher.execute(new Runnable() {
+            @Override
+            public void run() {
+                Intent launchIntent = getPackageManager().getLaunchIntentForPackage(packageName);
+                if (launchIntent == null) {
+                    Log.w(TAG, packageName + " is not installed.");
+                    return;
+                }
+                startActivity(launchIntent);
+            }
+        });
     }
 
     private void openNotificationBar() {
@@ -334,34 +537,17 @@ public class PalmTouchService extends Service implements View.OnTouchListener, V
     @Override
     public void onClick(View v) {
         // Determine which button it is
-        Log.i(TAG, "Button " + visibleViews.indexOf(v) + " pressed.");
+        int index = pieMenuViews.indexOf(v);
+        Log.i(TAG, "Button " + index + " pressed.");
 
-        switch (visibleViews.indexOf(v)) {
-            case 0:
-                // Email
-                openApp("com.android.mms");
-                break;
-            case 1:
-                // Browser
-                openApp("com.android.browser"); // vllt. zu chrome machen
-                break;
-            case 2:
-                // Google Maps
-                openApp("com.google.android.apps.maps");
-                break;
-            default:
-                break;
+        // Hide button afterwards, before the app is started
+        hidePieMenu();
+
+        if (index >= 0 && index < PIE_MENU_APPS.length) {
+            openApp(PIE_MENU_APPS[index]);
         }
 
         vibrate();
-
-        // Hide button afterwards
-        for (View vv : visibleViews) {
-            if (vv.getWindowToken() != null) {
-                wm.removeView(vv);
-            }
-        }
-        visibleViews.clear();
     }
 
     @Override
@@ -2,30 +2,72 @@ package io.interactionlab.palmtouchusecasedemos;
 
 import android.content.Context;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Huy on 21/06/2017.
+ *
+ * Finds the application in the foreground by reading /proc directly instead of running ps:
+ * - /proc/<pid>/oom_score_adj is 0 only for processes in the foreground, system processes
+ *   have negative values, background apps positive ones,
+ * - /proc/<pid>/stat gives the user time, the busiest foreground process wins like before,
+ * - /proc/<pid>/cmdline gives the process name, i.e. the package name.
+ * All files are read into one reusable buffer and parsed by hand. Like ps, this only sees
+ * the processes of other apps if /proc is not mounted with hidepid.
+ *
+ * Scans are incremental: the names of processes are kept from one scan to the next and
+ * only read for PIDs that appeared, processes that disappeared are forgotten. Kernel threads
+ * are skipped entirely after the first scan. As apps move between foreground and background
+ * without starting or ending processes, oom_score_adj is still read for every process; a
+ * cached name is only used if the start time in stat still matches, in case the PID was
+ * reused.
  */
 
 public class ProcessManager {
+    private static final int FOREGROUND_ADJ = 0;
+    // Field of the user time in /proc/<pid>/stat, counted from 1 like in proc(5)
+    private static final int STAT_FLAGS = 9;
+    private static final int STAT_UTIME = 14;
+    private static final int STAT_STARTTIME = 22;
+    // PF_KTHREAD in the flags of the process
+    private static final long KERNEL_THREAD_FLAG = 0x00200000;
 
-    Context mContext;
-    List<String> mKnownPackages;
-    List<String> mLaunchers;
+    private final String mPackageName;
+    private final File mProcRoot;
+    private final Set<String> mKnownPackages = new HashSet<String>();
+    private final Set<String> mLaunchers = new HashSet<String>();
+
+    private final byte[] mBuffer = new byte[4096];
+    private int mLength;
+
+    // Processes of the last scan by PID
+    private final Map<Integer, ProcessInfo> mProcesses = new HashMap<Integer, ProcessInfo>();
+    private long mScanCount;
+    private long mNameReads;
 
     public ProcessManager(Context context) {
-        mContext = context;
+        this(context.getPackageName(), new File("/proc"));
+    }
+
+    /**
+     * @param packageName Package of the calling application, which is never returned.
+     * @param procRoot    Directory to read instead of /proc, e.g. a fake tree for tests.
+     */
+    public ProcessManager(String packageName, File procRoot) {
+        mPackageName = packageName;
+        mProcRoot = procRoot;
         initialize();
     }
 
     private void initialize() {
         // Add known system applications with no UI
-        mKnownPackages = new ArrayList<String>();
         mKnownPackages.add("com.android.systemui");
         mKnownPackages.add("org.cyanogenmod.audiofx");
         mKnownPackages.add("com.android.incallui");
@@ -36,134 +78,245 @@ public class ProcessManager {
         mKnownPackages.add("com.google.android.gms");
 
         // Add known launchers
-        mLaunchers = new ArrayList<String>();
         mLaunchers.add("com.s7.galaxy.launcher");
         mLaunchers.add("com.android.launcher");
     }
 
     /**
      * Returns visible application except the calling application.
-     * @return
+     * @return Package name, or null if a launcher is in the foreground or no application was
+     * found.
      */
     public synchronized String getVisibleApplication() {
-        //StringBuffer output = new StringBuffer();
-        String packageName = mContext.getPackageName();
+        String[] entries = mProcRoot.list();
+        if (entries == null) {
+            return null;
+        }
+
+        mScanCount++;
         String result = null;
-        try {
-            Process process = Runtime.getRuntime().exec("/system/bin/toolbox ps -p -P -x -c");
-            //Process process = Runtime.getRuntime().exec("/system/bin/toolbox ps -p -P -x -c |grep -E 'u0.*fg'");
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            List<String> alllines = new ArrayList<String>();
-            List<PkgInfo> packageInfoList = new ArrayList<PkgInfo>();
-            String line = "";
-
-            while ((line = reader.readLine()) != null) {
-                alllines.add(line);
-            }
-
-            // Waits for the command to finish.
-            process.waitFor();
-
-            //1. grep -E 'u0.*fg',
-            //2. remove processes WCHAN values != '00000000'
-
-            for (String string : alllines) {
-                if(string.startsWith("u0") && string.contains(" fg ")) {
-                    try {
-                        String[] arr = string.split("\\s+", 13);
-                        String s = arr[12];
-                        if(s != null) {
-                            String[] arr2 = s.split("\\s+");
-                            String pkg = arr2[2];
-                            if(pkg.contains(".")) {
-                                PkgInfo pi = new PkgInfo();
-                                pi.setName(pkg);
-                                packageInfoList.add(pi);
-
-                                String info = arr2[3];
-                                if(info != null) {
-                                    String i_arr[] = info.split(":", 2);
-                                    if(i_arr[1] != null) {
-                                        String[] u_arr = i_arr[1].split(",");
-                                        if(u_arr[0] != null) {
-                                            try {
-                                                int processU = Integer.valueOf(u_arr[0]);
-                                                pi.setU(processU);
-                                            }
-                                            catch(NumberFormatException nfe) {
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    catch(Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+        long resultTime = 0;
+        boolean foundLauncher = false;
+        for (String entry : entries) {
+            int pid = parsePid(entry);
+            if (pid < 0) {
+                continue;
             }
 
-            // if launcher presents -> no visible app
-            // else find highest `u` in process info
-            // ignore known packages with higher `u` values
+            ProcessInfo info = mProcesses.get(pid);
+            if (info == null) {
+                info = new ProcessInfo();
+                mProcesses.put(pid, info);
+            }
+            info.scan = mScanCount;
+            if (info.kernelThread || foundLauncher) {
+                continue;
+            }
 
-            boolean foundLauncher = false;
+            // Processes may end at any time, skip the ones that are gone.
+            File directory = new File(mProcRoot, entry);
+            if (!read(new File(directory, "oom_score_adj")) || parseInt(0) != FOREGROUND_ADJ) {
+                continue;
+            }
+            if (!read(new File(directory, "stat"))) {
+                continue;
+            }
+            long flags = parseStatField(STAT_FLAGS);
+            if (flags > 0 && (flags & KERNEL_THREAD_FLAG) != 0) {
+                info.kernelThread = true;
+                continue;
+            }
+            long userTime = parseStatField(STAT_UTIME);
+            long startTime = parseStatField(STAT_STARTTIME);
+            if (userTime < 0) {
+                continue;
+            }
 
-            for (PkgInfo pkgInfo : packageInfoList) {
-                if(mLaunchers.contains(pkgInfo.name)) {
-                    foundLauncher = true;
-                    break;
+            if (info.name == null || info.startTime != startTime) {
+                if (!read(new File(directory, "cmdline"))) {
+                    continue;
+                }
+                mNameReads++;
+                info.name = parseCmdline();
+                info.startTime = startTime;
+                if (info.name == null) {
+                    continue;
                 }
             }
 
-            int pos = -1;
-            int value = 0;
-            if(!foundLauncher) {
-                for (int i=0; i<packageInfoList.size(); i++) {
-                    PkgInfo pkgInfo = packageInfoList.get(i);
-                    if(!packageName.equals(pkgInfo.getName())
-                            && !mKnownPackages.contains(pkgInfo.getName())
-                            && pkgInfo.getU() > value) {
+            String name = info.name;
+            if (name.indexOf('.') < 0) {
+                // Not a package, or an app process that has not been renamed yet, read again
+                // next time.
+                info.name = null;
+                continue;
+            }
+            if (mLaunchers.contains(name)) {
+                // if launcher presents -> no visible app
+                foundLauncher = true;
+            } else if (!name.equals(mPackageName) && !mKnownPackages.contains(name)
+                    && userTime > resultTime) {
+                result = name;
+                resultTime = userTime;
+            }
+        }
 
-                        value = pkgInfo.getU();
-                        pos = i;
-                    }
-                }
+        // Forget the processes that are gone.
+        Iterator<ProcessInfo> iterator = mProcesses.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().scan != mScanCount) {
+                iterator.remove();
             }
+        }
+
+        return foundLauncher ? null : result;
+    }
 
-            if(pos >= 0) {
-                PkgInfo pkg = packageInfoList.get(pos);
-                result = pkg.getName();
+    /**
+     * @return Number of process names read from cmdline, i.e. of processes that were new
+     * to a scan.
+     */
+    public synchronized long getNameReads() {
+        return mNameReads;
+    }
+
+    public synchronized long getScanCount() {
+        return mScanCount;
+    }
+
+    /**
+     * @return The PID if the name consists of digits only, otherwise -1.
+     */
+    static int parsePid(String name) {
+        int length = name.length();
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+
+        int pid = 0;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            pid = pid * 10 + (c - '0');
         }
-        catch(InterruptedException ie) {
-            ie.printStackTrace();
+        return pid;
+    }
+
+    /**
+     * Reads the file into mBuffer, as much as fits.
+     *
+     * @return False if the file could not be read.
+     */
+    private boolean read(File file) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            mLength = 0;
+            int n;
+            while (mLength < mBuffer.length && (n = in.read(mBuffer, mLength, mBuffer.length - mLength)) > 0) {
+                mLength += n;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing written
+                }
+            }
         }
-        catch (IOException e) {
-            e.printStackTrace();
+    }
+
+    /**
+     * @return The decimal number at mBuffer[pos], optionally negative, or Integer.MIN_VALUE if
+     * there is none.
+     */
+    private int parseInt(int pos) {
+        boolean negative = pos < mLength && mBuffer[pos] == '-';
+        if (negative) {
+            pos++;
         }
 
-        return result;
+        int start = pos;
+        int value = 0;
+        while (pos < mLength && mBuffer[pos] >= '0' && mBuffer[pos] <= '9') {
+            value = value * 10 + (mBuffer[pos++] - '0');
+        }
+        if (pos == start) {
+            return Integer.MIN_VALUE;
+        }
+        return negative ? -value : value;
     }
 
-    private class PkgInfo {
-        private String name;
-        private int u;
+    /**
+     * @param field Field of /proc/<pid>/stat in mBuffer, counted from 1, at least 3.
+     * @return The value of the field, or -1 if it is missing or not a number.
+     */
+    private long parseStatField(int field) {
+        // The name in field 2 is in parentheses and may contain spaces and parentheses
+        // itself, so fields are counted from the last ')'.
+        int pos = mLength - 1;
+        while (pos >= 0 && mBuffer[pos] != ')') {
+            pos--;
+        }
+        if (pos < 0) {
+            return -1;
+        }
+        pos++;
 
-        public String getName() {
-            return name;
+        for (int current = 2; current < field; current++) {
+            // Skip the separator and the current field.
+            while (pos < mLength && mBuffer[pos] == ' ') {
+                pos++;
+            }
+            if (current + 1 == field) {
+                break;
+            }
+            while (pos < mLength && mBuffer[pos] != ' ') {
+                pos++;
+            }
         }
-        public void setName(String name) {
-            this.name = name;
+
+        long value = 0;
+        int start = pos;
+        while (pos < mLength && mBuffer[pos] >= '0' && mBuffer[pos] <= '9') {
+            value = value * 10 + (mBuffer[pos++] - '0');
         }
-        public int getU() {
-            return u;
+        return pos > start ? value : -1;
+    }
+
+    /**
+     * @return The first argument in /proc/<pid>/cmdline in mBuffer, or null for kernel
+     * threads and zombies, which have none.
+     */
+    private String parseCmdline() {
+        int end = 0;
+        while (end < mLength && mBuffer[end] != 0) {
+            end++;
         }
-        public void setU(int u) {
-            this.u = u;
+        if (end == 0) {
+            return null;
         }
+
+        // Process names are ASCII, no need for a decoder.
+        char[] chars = new char[end];
+        for (int i = 0; i < end; i++) {
+            chars[i] = (char) (mBuffer[i] & 0xff);
+        }
+        return new String(chars);
     }
 
-}
\ No newline at end of file
+    private static class ProcessInfo {
+        // Process name, null if it has to be read
+        String name;
+        long startTime;
+        boolean kernelThread;
+        // Last scan that saw the process
+        long scan;
+    }
+}
@@ -1,51 +1,334 @@
 package io.interactionlab.palmtouchusecasedemos.classification;
 
 import android.content.Context;
+import android.util.Log;
 
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by Huy on 05/09/2017.
  */
 
 public class BlobClassifier {
-    private static TensorFlowInferenceInterface inferenceInterface;
-    private Context context;
-    private ModelDescription modelDescription;
+    private static final String TAG = BlobClassifier.class.getSimpleName();
+
+    private final ModelRegistry registry;
+    private final AtomicReference<ModelSession> session = new AtomicReference<ModelSession>();
+    private float[] outputs = new float[0];
+
+    // Background loading, see setModelAsync().
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    // Guards the swap of the session against close().
+    private final Object lock = new Object();
+    private boolean closed;
+    private volatile long startupNanos = -1;
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private boolean firstClassificationReported;
+
+    private FeatureGate featureGate;
+    private ClassificationCache cache;
+    // Model the cached results belong to
+    private ModelDescription cacheModel;
+    private float[] undecidedPixels = new float[0];
+    private int[] undecidedIndices = new int[0];
 
     public BlobClassifier(Context context) {
-        // Loading model from assets folder.
-        this.context = context;
+        // Models are loaded from the assets folder and shared through the registry.
+        this.registry = ModelRegistry.getInstance(context);
+    }
+
+    /**
+     * Classifies with the given engine instead of models from the registry, e.g. to replay
+     * sessions on a desktop JVM (see ReplayHarness). The model cannot be switched.
+     */
+    public BlobClassifier(InferenceEngine engine, ModelDescription modelDescription) {
+        this.registry = null;
+        session.set(new ModelSession(engine, modelDescription));
     }
 
+    /**
+     * Switches to the given model. Its session is acquired (and loaded if necessary) first and
+     * then replaces the current session in a single atomic swap, so frames that are classified
+     * in the meantime keep using the previous model.
+     */
     public void setModel(ModelDescription modelDescription) {
-        this.modelDescription = modelDescription;
-        inferenceInterface = new TensorFlowInferenceInterface(context.getAssets(), modelDescription.modelPath);
+        checkRegistry();
+        ModelSession next = registry.acquire(modelDescription);
+        swap(next);
+    }
+
+    /**
+     * Acquires the given model on a background thread and runs one blob through it, so that
+     * the first frame does not pay for initializing the engine, then swaps it in like
+     * setModel(). isReady() returns false until then. The load time, the warm-up time and the
+     * time to the first classification are logged.
+     *
+     * Does nothing after close().
+     *
+     * @param onReady Called on the background thread once the model is in use, may be null.
+     */
+    public void setModelAsync(final ModelDescription modelDescription, final Runnable onReady) {
+        checkRegistry();
+        final long requested = System.nanoTime();
+        if (startupNanos < 0) {
+            startupNanos = requested;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ModelSession next = registry.acquire(modelDescription);
+                    long loaded = System.nanoTime();
+                    next.run(new float[BlobExtractor.BLOB_SIZE], 1, new float[modelDescription.labels.length]);
+                    long warmedUp = System.nanoTime();
+
+                    if (!swap(next)) {
+                        return;
+                    }
+                    Log.i(TAG, String.format(Locale.US, "%s: load %.1f ms, warm-up %.1f ms",
+                            modelDescription.modelName, (loaded - requested) / 1e6, (warmedUp - loaded) / 1e6));
+
+                    if (onReady != null) {
+                        onReady.run();
+                    }
+                }
+            });
+        }
     }
 
+    /**
+     * Puts the session in place and releases the previous one, unless the classifier has been
+     * closed in the meantime. In that case the session itself is released.
+     *
+     * @return False if the classifier is closed.
+     */
+    private boolean swap(ModelSession next) {
+        synchronized (lock) {
+            if (closed) {
+                registry.release(next);
+                return false;
+            }
+            registry.release(session.getAndSet(next));
+            return true;
+        }
+    }
+
+    private void checkRegistry() {
+        if (registry == null) {
+            throw new IllegalStateException("The model of a classifier with a fixed engine cannot be switched.");
+        }
+    }
+
+    /**
+     * @return True once a model is in place, see setModelAsync().
+     */
+    public boolean isReady() {
+        return session.get() != null;
+    }
+
+    /**
+     * Counts a frame that was dropped because the classifier was not ready yet.
+     */
+    public void frameDropped() {
+        droppedFrames.incrementAndGet();
+    }
+
+    private void reportFirstClassification() {
+        if (!firstClassificationReported && startupNanos >= 0) {
+            firstClassificationReported = true;
+            Log.i(TAG, String.format(Locale.US, "First classification %.1f ms after loading started, %d frames dropped",
+                    (System.nanoTime() - startupNanos) / 1e6, droppedFrames.get()));
+        }
+    }
+
+    /**
+     * Releases the current model. A model that is still loading is released once it is
+     * loaded. The classifier must not be used afterwards.
+     */
+    public void close() {
+        ModelSession current;
+        synchronized (lock) {
+            closed = true;
+            current = session.getAndSet(null);
+        }
+        loader.shutdownNow();
+        if (registry != null) {
+            registry.release(current);
+        } else if (current != null) {
+            current.close();
+        }
+    }
+
+    private ModelSession currentSession() {
+        ModelSession current = session.get();
+        if (current == null) {
+            throw new IllegalStateException("No model has been set.");
+        }
+        return current;
+    }
 
     public ClassificationResult classify(float[] pixels) {
-        // Node Names
-        String inputName = modelDescription.inputNode;
-        String outputName = modelDescription.outputNode;
+        return classifyBatch(pixels, 1)[0];
+    }
 
+    /**
+     * Classifies several blob images with a single run of the graph. The images are stored
+     * one after another in pixels, i.e. image i starts at i * 405 for the PalmTouch model.
+     *
+     * @param count Number of images in pixels.
+     * @return One result per image.
+     */
+    public ClassificationResult[] classifyBatch(float[] pixels, int count) {
+        if (count == 0) {
+            return new ClassificationResult[0];
+        }
 
-        // Define output nodes
-        String[] outputNodes = new String[]{outputName};
-        float[] outputs = new float[modelDescription.labels.length];
+        // A session is only closed after it has been swapped out, in that case the blobs are
+        // classified again with the new one.
+        ClassificationResult[] results;
+        do {
+            results = classifyBatch(currentSession(), pixels, count);
+        } while (results == null);
 
-        // Feed image into the model and fetch the results.
-        inferenceInterface.feed(inputName, pixels, modelDescription.inputDimensions);
-        inferenceInterface.run(outputNodes, true);
-        inferenceInterface.fetch(outputName, outputs);
+        reportFirstClassification();
+        return results;
+    }
+
+    /**
+     * @return One result per image, or null if the session has been closed.
+     */
+    private ClassificationResult[] classifyBatch(ModelSession current, float[] pixels, int count) {
+        ClassificationResult[] results = new ClassificationResult[count];
+        if (count == 0) {
+            return results;
+        }
+
+        // Feed images into the model and fetch the results.
+        ModelDescription modelDescription = current.getModelDescription();
+        int numLabels = modelDescription.labels.length;
+        if (outputs.length < count * numLabels) {
+            outputs = new float[count * numLabels];
+        }
+        if (!current.run(pixels, count, outputs)) {
+            return null;
+        }
+
+        for (int i = 0; i < count; i++) {
+            results[i] = toClassificationResult(modelDescription, outputs, i * numLabels);
+        }
+        return results;
+    }
+
+    /**
+     * Same as classifyBatch(pixels, count), but blobs that the feature gate can decide from
+     * their features alone or that are found in the cache are not passed to the model.
+     * Without gate and cache all blobs go to the model.
+     *
+     * @param features Features of the blobs, see BlobExtractor.
+     */
+    public ClassificationResult[] classifyBatch(float[] pixels, BlobFeatures[] features, int count) {
+        if (featureGate == null && cache == null) {
+            return classifyBatch(pixels, count);
+        }
+
+        // Gate and cache decide once per blob, so that their counters see every blob once.
+        ModelDescription modelDescription = currentSession().getModelDescription();
+        if (cache != null && cacheModel != modelDescription) {
+            // Cached results belong to the previous model.
+            cache.invalidate();
+            cacheModel = modelDescription;
+        }
+
+        ClassificationResult[] results = new ClassificationResult[count];
+        int imageSize = (int) modelDescription.inputDimensions[1];
+        if (undecidedIndices.length < count) {
+            undecidedIndices = new int[count];
+            undecidedPixels = new float[count * imageSize];
+        }
+
+        int undecided = 0;
+        for (int i = 0; i < count; i++) {
+            if (featureGate != null) {
+                int decision = featureGate.decide(features[i]);
+                if (decision != FeatureGate.UNDECIDED) {
+                    float palmProbability = featureGate.getLastProbability();
+                    ClassificationResult cr = new ClassificationResult();
+                    cr.index = decision;
+                    cr.label = modelDescription.labels[decision];
+                    cr.confidence = decision == FeatureGate.PALM ? palmProbability : 1 - palmProbability;
+                    cr.color = modelDescription.labelColor[decision];
+                    results[i] = cr;
+                    continue;
+                }
+            }
 
+            if (cache != null) {
+                results[i] = cache.get(pixels, i * imageSize, imageSize, features[i].x, features[i].y);
+                if (results[i] != null) {
+                    continue;
+                }
+            }
+
+            System.arraycopy(pixels, i * imageSize, undecidedPixels, undecided * imageSize, imageSize);
+            undecidedIndices[undecided++] = i;
+        }
+
+        // Only the model run is repeated if the session is swapped out in the meantime. The
+        // cache is invalidated on the next frame in that case.
+        ClassificationResult[] modelResults;
+        do {
+            modelResults = classifyBatch(currentSession(), undecidedPixels, undecided);
+        } while (modelResults == null);
+
+        for (int i = 0; i < undecided; i++) {
+            int blob = undecidedIndices[i];
+            results[blob] = modelResults[i];
+            if (cache != null) {
+                cache.put(undecidedPixels, i * imageSize, imageSize, features[blob].x, features[blob].y, modelResults[i]);
+            }
+        }
+
+        reportFirstClassification();
+        return results;
+    }
+
+    /**
+     * @param featureGate Gate that is asked before the model, or null to always use the model.
+     */
+    public void setFeatureGate(FeatureGate featureGate) {
+        this.featureGate = featureGate;
+    }
+
+    public FeatureGate getFeatureGate() {
+        return featureGate;
+    }
+
+    /**
+     * @param cache Cache for the results of the model, or null to run the model for every blob.
+     */
+    public void setClassificationCache(ClassificationCache cache) {
+        this.cache = cache;
+    }
+
+    public ClassificationCache getClassificationCache() {
+        return cache;
+    }
 
+    private ClassificationResult toClassificationResult(ModelDescription modelDescription, float[] outputs, int offset) {
         // Convert one-hot encoded result to an int (= detected class)
         float maxConf = Float.MIN_VALUE;
         int idx = -1;
-        for (int i = 0; i < outputs.length; i++) {
-            if (outputs[i] > maxConf) {
-                maxConf = outputs[i];
+        for (int i = 0; i < modelDescription.labels.length; i++) {
+            if (outputs[offset + i] > maxConf) {
+                maxConf = outputs[offset + i];
                 idx = i;
             }
         }
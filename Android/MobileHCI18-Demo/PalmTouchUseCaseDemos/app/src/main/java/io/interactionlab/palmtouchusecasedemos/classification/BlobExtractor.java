@@ -0,0 +1,131 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobBoundingBox;
+
+/**
+ * Crops a blob out of the capacitive matrix and writes it clipped, normalized and flattened
+ * into a 27x15 float image, i.e. what MatrixUtils.flattenClipAndNormalizeMatrixFloat(
+ * BlobDetector.getBlobContentIn27x15(matrix, bbb), min, max, normalization) returns, but in
+ * a single pass into a caller-supplied buffer. Clipping and normalization are looked up in a
+ * table that is computed once.
+ */
+public class BlobExtractor {
+    public static final int BLOB_HEIGHT = 27;
+    public static final int BLOB_WIDTH = 15;
+    public static final int BLOB_SIZE = BLOB_HEIGHT * BLOB_WIDTH;
+    // Same threshold as the blob detection
+    public static final int TOUCH_THRESHOLD = 30;
+
+    private final int clipMin;
+    private final int clipMax;
+    private final float[] lookupTable;
+    private final float padValue;
+
+    public BlobExtractor(int clipMin, int clipMax, float normalization) {
+        this.clipMin = clipMin;
+        this.clipMax = clipMax;
+
+        lookupTable = new float[clipMax - clipMin + 1];
+        for (int v = clipMin; v <= clipMax; v++) {
+            lookupTable[v - clipMin] = v / normalization;
+        }
+
+        // The area around the blob is padded with zeros before clipping and normalizing.
+        padValue = lookupTable[Math.min(clipMax, Math.max(clipMin, 0)) - clipMin];
+    }
+
+    /**
+     * Writes the blob image of the given bounding box to dst[offset] ... dst[offset + 404].
+     * Parts of the bounding box that do not fit into 27x15 or lie outside of the matrix are
+     * ignored.
+     */
+    public void extract(int[][] matrix, BlobBoundingBox bbb, float[] dst, int offset) {
+        extract(matrix, bbb, dst, offset, null);
+    }
+
+    /**
+     * Same as extract(matrix, bbb, dst, offset), additionally computes the features of the
+     * blob in the same pass if features is not null.
+     */
+    public void extract(int[][] matrix, BlobBoundingBox bbb, float[] dst, int offset, BlobFeatures features) {
+        extract(matrix, null, matrix.length, 0, bbb.x1, bbb.y1, bbb.x2, bbb.y2, dst, offset, features);
+    }
+
+    /**
+     * Same as extract(matrix, bbb, dst, offset, features) for a flat, row-major matrix with
+     * the given number of rows and columns and the bounding box (x1, y1, x2, y2).
+     */
+    public void extract(int[] matrix, int rows, int columns, int x1, int y1, int x2, int y2,
+                        float[] dst, int offset, BlobFeatures features) {
+        extract(null, matrix, rows, columns, x1, y1, x2, y2, dst, offset, features);
+    }
+
+    /**
+     * Reads the rows from rowMatrix if it is not null, otherwise from flatMatrix.
+     */
+    private void extract(int[][] rowMatrix, int[] flatMatrix, int rows, int columns,
+                         int x1, int y1, int x2, int y2, float[] dst, int offset, BlobFeatures features) {
+        for (int i = offset; i < offset + BLOB_SIZE; i++) {
+            dst[i] = padValue;
+        }
+
+        int area = 0;
+        int sum = 0;
+        int peak = 0;
+        int rowMask = 0;
+        int columnMask = 0;
+
+        int yStart = Math.max(y1, 0);
+        int yEnd = Math.min(Math.min(y2, y1 + BLOB_HEIGHT), rows);
+        for (int y = yStart; y < yEnd; y++) {
+            int[] row;
+            int rowStart;
+            int rowLength;
+            if (rowMatrix != null) {
+                row = rowMatrix[y];
+                rowStart = 0;
+                rowLength = row.length;
+            } else {
+                row = flatMatrix;
+                rowStart = y * columns;
+                rowLength = columns;
+            }
+
+            int xStart = Math.max(x1, 0);
+            int xEnd = Math.min(Math.min(x2, x1 + BLOB_WIDTH), rowLength);
+            int i = offset + (y - y1) * BLOB_WIDTH + (xStart - x1);
+            for (int x = xStart; x < xEnd; x++) {
+                int v = row[rowStart + x];
+
+                if (v > TOUCH_THRESHOLD) {
+                    area++;
+                    rowMask |= 1 << (y - y1);
+                    columnMask |= 1 << (x - x1);
+                }
+                if (v > 0) {
+                    sum += v;
+                }
+                if (v > peak) {
+                    peak = v;
+                }
+
+                if (v < clipMin) {
+                    v = clipMin;
+                } else if (v > clipMax) {
+                    v = clipMax;
+                }
+                dst[i++] = lookupTable[v - clipMin];
+            }
+        }
+
+        if (features != null) {
+            features.x = x1;
+            features.y = y1;
+            features.area = area;
+            features.sum = sum;
+            features.peak = peak;
+            features.height = Integer.bitCount(rowMask);
+            features.width = Integer.bitCount(columnMask);
+        }
+    }
+}
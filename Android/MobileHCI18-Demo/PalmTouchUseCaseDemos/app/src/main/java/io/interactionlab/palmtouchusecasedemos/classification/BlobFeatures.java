@@ -0,0 +1,20 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+/**
+ * Cheap statistics of a blob, computed by BlobExtractor while cropping the blob image.
+ * All values refer to the raw capacitive values of the (at most 27x15) cropped area.
+ */
+public class BlobFeatures {
+    // Top left corner of the bounding box
+    public int x;
+    public int y;
+    // Number of cells above the touch threshold
+    public int area;
+    // Sum of all positive values
+    public int sum;
+    // Largest value
+    public int peak;
+    // Number of rows and columns that contain a cell above the touch threshold
+    public int height;
+    public int width;
+}
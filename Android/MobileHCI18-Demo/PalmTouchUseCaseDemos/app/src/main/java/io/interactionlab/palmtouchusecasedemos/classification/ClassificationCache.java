@@ -0,0 +1,154 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of classification results for blobs that barely change between frames, e.g. a
+ * palm resting on the screen.
+ *
+ * The normalized blob image is quantized to 0..255. The key is a hash of the image in coarse
+ * buckets of twice the tolerance together with the position of the bounding box. A cached
+ * result is only returned if every value of the stored image differs by at most the tolerance,
+ * which also guards against hash collisions. An instance is not thread-safe.
+ */
+public class ClassificationCache {
+    public static final int DEFAULT_CAPACITY = 64;
+    // In units of the quantized image, i.e. 1/255 of the normalization range.
+    public static final int DEFAULT_TOLERANCE = 6;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int tolerance;
+    private final int bucketSize;
+    private final Map<Long, CacheEntry> entries;
+
+    private byte[] quantized = new byte[0];
+
+    private long hits;
+    private long misses;
+
+    public ClassificationCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TOLERANCE);
+    }
+
+    public ClassificationCache(final int capacity, int tolerance) {
+        this.tolerance = tolerance;
+        this.bucketSize = Math.max(1, 2 * tolerance);
+        this.entries = new LinkedHashMap<Long, CacheEntry>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up the blob image pixels[offset] ... pixels[offset + length - 1] of a blob whose
+     * bounding box starts at (x, y).
+     *
+     * @return The cached result or null.
+     */
+    public ClassificationResult get(float[] pixels, int offset, int length, int x, int y) {
+        long key = quantize(pixels, offset, length, x, y);
+
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.x == x && entry.y == y && withinTolerance(entry.image)) {
+            hits++;
+            return entry.result;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores the result for the given blob, see get().
+     */
+    public void put(float[] pixels, int offset, int length, int x, int y, ClassificationResult result) {
+        long key = quantize(pixels, offset, length, x, y);
+
+        CacheEntry entry = new CacheEntry();
+        entry.x = x;
+        entry.y = y;
+        entry.image = quantized.clone();
+        entry.result = result;
+        entries.put(key, entry);
+    }
+
+    /**
+     * Quantizes the image into the quantized buffer.
+     *
+     * @return Key of the blob.
+     */
+    private long quantize(float[] pixels, int offset, int length, int x, int y) {
+        if (quantized.length != length) {
+            quantized = new byte[length];
+        }
+
+        long hash = FNV_OFFSET;
+        hash = (hash ^ x) * FNV_PRIME;
+        hash = (hash ^ y) * FNV_PRIME;
+        for (int i = 0; i < length; i++) {
+            int q = (int) (pixels[offset + i] * 255 + 0.5f);
+            q = q < 0 ? 0 : (q > 255 ? 255 : q);
+            quantized[i] = (byte) q;
+            hash = (hash ^ (q / bucketSize)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private boolean withinTolerance(byte[] image) {
+        if (image.length != quantized.length) {
+            return false;
+        }
+
+        for (int i = 0; i < image.length; i++) {
+            int d = (image[i] & 0xFF) - (quantized[i] & 0xFF);
+            if (d > tolerance || d < -tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops all cached results, e.g. because the model changed.
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public String toString() {
+        long lookups = hits + misses;
+        return "ClassificationCache: " + hits + " hits, " + misses + " misses"
+                + (lookups > 0 ? " (" + (100 * hits / lookups) + "% hit rate)" : "")
+                + ", " + entries.size() + " entries";
+    }
+
+    private static class CacheEntry {
+        int x;
+        int y;
+        byte[] image;
+        ClassificationResult result;
+    }
+}
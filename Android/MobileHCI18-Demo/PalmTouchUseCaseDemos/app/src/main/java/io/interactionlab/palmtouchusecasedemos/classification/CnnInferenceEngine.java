@@ -0,0 +1,351 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java forward pass of the PalmTouch CNN (see Model/TensorFlow_CNN-PalmTouch.ipynb):
+ *
+ * conv 7x7 (SAME) -> 2x2 max-pool (SAME) -> ReLU -> conv 7x7 (SAME) -> 2x2 max-pool (SAME) -> ReLU
+ * -> fully connected + softplus -> fully connected -> softmax
+ *
+ * Layer sizes are taken from the weights, so the engine works for every network trained with
+ * the notebook. All activations are kept in buffers that are allocated once. Tensors use the
+ * TensorFlow layout: activations are HWC, conv kernels HWIO and dense weights [in][out], so that
+ * the innermost loops run over consecutive output channels of both weights and activations.
+ * Weights are read through FloatBuffers, so they can stay in a memory-mapped WeightFile.
+ */
+public class CnnInferenceEngine implements InferenceEngine {
+    private static final int POOL_SIZE = 2;
+
+    // Read by QuantizedCnnInferenceEngine
+    final int height;
+    final int width;
+
+    final int kernel1;
+    final int filters1;
+    final int pooledHeight1;
+    final int pooledWidth1;
+
+    final int kernel2;
+    final int filters2;
+    final int pooledHeight2;
+    final int pooledWidth2;
+
+    final int hidden;
+    final int classes;
+
+    final FloatBuffer weights0;
+    final FloatBuffer bias0;
+    final FloatBuffer weights1;
+    final FloatBuffer bias1;
+    final FloatBuffer weights2;
+    final FloatBuffer bias2;
+    final FloatBuffer weights3;
+    final FloatBuffer bias3;
+
+    // Activation buffers
+    private final float[] conv1;
+    private final float[] pool1;
+    private final float[] conv2;
+    private final float[] pool2;
+    private final float[] fc1;
+
+    /**
+     * Same as the FloatBuffer constructor for weights in Java arrays.
+     */
+    public CnnInferenceEngine(int height, int width, float[][] weights, int[][] shapes, float[][] biases) {
+        this(height, width, wrap(weights), shapes, wrap(biases));
+    }
+
+    /**
+     * @param height   Height of the input image (27).
+     * @param width    Width of the input image (15).
+     * @param weights  Weights of the four layers in TensorFlow layout.
+     * @param shapes   Shapes of the weights of the four layers.
+     * @param biases   Biases of the four layers.
+     */
+    public CnnInferenceEngine(int height, int width, FloatBuffer[] weights, int[][] shapes, FloatBuffer[] biases) {
+        this.height = height;
+        this.width = width;
+
+        kernel1 = shapes[0][0];
+        filters1 = shapes[0][3];
+        pooledHeight1 = (height + POOL_SIZE - 1) / POOL_SIZE;
+        pooledWidth1 = (width + POOL_SIZE - 1) / POOL_SIZE;
+
+        kernel2 = shapes[1][0];
+        filters2 = shapes[1][3];
+        pooledHeight2 = (pooledHeight1 + POOL_SIZE - 1) / POOL_SIZE;
+        pooledWidth2 = (pooledWidth1 + POOL_SIZE - 1) / POOL_SIZE;
+
+        hidden = shapes[2][1];
+        classes = shapes[3][1];
+
+        checkShape(shapes[0], kernel1, kernel1, 1, filters1);
+        checkShape(shapes[1], kernel2, kernel2, filters1, filters2);
+        checkShape(shapes[2], pooledHeight2 * pooledWidth2 * filters2, hidden);
+        checkShape(shapes[3], hidden, classes);
+
+        weights0 = weights[0];
+        bias0 = biases[0];
+        weights1 = weights[1];
+        bias1 = biases[1];
+        weights2 = weights[2];
+        bias2 = biases[2];
+        weights3 = weights[3];
+        bias3 = biases[3];
+
+        conv1 = new float[height * width * filters1];
+        pool1 = new float[pooledHeight1 * pooledWidth1 * filters1];
+        conv2 = new float[pooledHeight1 * pooledWidth1 * filters2];
+        pool2 = new float[pooledHeight2 * pooledWidth2 * filters2];
+        fc1 = new float[hidden];
+    }
+
+    /**
+     * Reads the weights from a frozen graph created with the notebook, e.g. palmtouch.pb.
+     */
+    public static CnnInferenceEngine fromGraphDef(InputStream in) throws IOException {
+        GraphDefReader graph = new GraphDefReader(in);
+
+        // [-1, height, width, 1]
+        int[] inputShape = graph.getIntTensor("Reshape/shape");
+
+        float[][] weights = new float[4][];
+        int[][] shapes = new int[4][];
+        float[][] biases = new float[4][];
+        for (int i = 0; i < 4; i++) {
+            weights[i] = graph.getFloatTensor("weights" + i);
+            shapes[i] = graph.getShape("weights" + i);
+            biases[i] = graph.getFloatTensor("bias" + i);
+        }
+
+        return new CnnInferenceEngine(inputShape[1], inputShape[2], weights, shapes, biases);
+    }
+
+    /**
+     * Uses the weights of a WeightFile (see WeightFileConverter) without copying them.
+     */
+    public static CnnInferenceEngine fromWeightFile(WeightFile file) {
+        FloatBuffer[] weights = new FloatBuffer[4];
+        int[][] shapes = new int[4][];
+        FloatBuffer[] biases = new FloatBuffer[4];
+        for (int i = 0; i < 4; i++) {
+            weights[i] = file.getTensor("weights" + i);
+            shapes[i] = file.getShape("weights" + i);
+            biases[i] = file.getTensor("bias" + i);
+        }
+
+        return new CnnInferenceEngine(file.getInputHeight(), file.getInputWidth(), weights, shapes, biases);
+    }
+
+    private static FloatBuffer[] wrap(float[][] arrays) {
+        FloatBuffer[] buffers = new FloatBuffer[arrays.length];
+        for (int i = 0; i < arrays.length; i++) {
+            buffers[i] = FloatBuffer.wrap(arrays[i]);
+        }
+        return buffers;
+    }
+
+    private static void checkShape(int[] shape, int... expected) {
+        boolean matches = shape.length == expected.length;
+        for (int i = 0; matches && i < shape.length; i++) {
+            matches = shape[i] == expected[i];
+        }
+
+        if (!matches) {
+            throw new IllegalArgumentException("Unexpected weight shape " + Arrays.toString(shape)
+                    + ", expected " + Arrays.toString(expected) + ".");
+        }
+    }
+
+    public int getInputSize() {
+        return height * width;
+    }
+
+    public int getNumClasses() {
+        return classes;
+    }
+
+    @Override
+    public void run(float[] input, int count, float[] output) {
+        for (int n = 0; n < count; n++) {
+            forward(input, n * height * width, output, n * classes);
+        }
+    }
+
+    /**
+     * Runs the network on count images and raises ranges[i] to the largest value seen in the
+     * input (0), the output of both pooling layers (1, 2) and the fully connected layer (3).
+     * These are the activations that QuantizedCnnInferenceEngine stores as int8.
+     */
+    void updateActivationRanges(float[] input, int count, float[] ranges) {
+        float[] output = new float[classes];
+        for (int n = 0; n < count; n++) {
+            int offset = n * height * width;
+            forward(input, offset, output, 0);
+            ranges[0] = Math.max(ranges[0], max(input, offset, height * width));
+            ranges[1] = Math.max(ranges[1], max(pool1, 0, pool1.length));
+            ranges[2] = Math.max(ranges[2], max(pool2, 0, pool2.length));
+            ranges[3] = Math.max(ranges[3], max(fc1, 0, fc1.length));
+        }
+    }
+
+    private static float max(float[] values, int offset, int length) {
+        float max = values[offset];
+        for (int i = 1; i < length; i++) {
+            max = Math.max(max, values[offset + i]);
+        }
+        return max;
+    }
+
+    private void forward(float[] input, int inputOffset, float[] output, int outputOffset) {
+        conv2dSame(input, inputOffset, height, width, 1, weights0, bias0, kernel1, filters1, conv1);
+        maxPoolRelu(conv1, height, width, filters1, pool1);
+
+        conv2dSame(pool1, 0, pooledHeight1, pooledWidth1, filters1, weights1, bias1, kernel2, filters2, conv2);
+        maxPoolRelu(conv2, pooledHeight1, pooledWidth1, filters2, pool2);
+
+        dense(pool2, pool2.length, weights2, bias2, hidden, fc1, 0);
+        for (int i = 0; i < hidden; i++) {
+            fc1[i] = softplus(fc1[i]);
+        }
+
+        dense(fc1, hidden, weights3, bias3, classes, output, outputOffset);
+        softmax(output, outputOffset, classes);
+    }
+
+    /**
+     * 2D convolution with stride 1 and zero padding so that the output has the size of the input.
+     */
+    private static void conv2dSame(float[] in, int inOffset, int h, int w, int inChannels,
+                                   FloatBuffer kernel, FloatBuffer bias, int k, int outChannels, float[] out) {
+        int pad = (k - 1) / 2;
+        int kernelRow = inChannels * outChannels;
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int o = (y * w + x) * outChannels;
+                for (int oc = 0; oc < outChannels; oc++) {
+                    out[o + oc] = bias.get(oc);
+                }
+
+                for (int ky = 0; ky < k; ky++) {
+                    int iy = y + ky - pad;
+                    if (iy < 0 || iy >= h) {
+                        continue;
+                    }
+
+                    for (int kx = 0; kx < k; kx++) {
+                        int ix = x + kx - pad;
+                        if (ix < 0 || ix >= w) {
+                            continue;
+                        }
+
+                        int i = inOffset + (iy * w + ix) * inChannels;
+                        int wi = (ky * k + kx) * kernelRow;
+                        for (int c = 0; c < inChannels; c++, wi += outChannels) {
+                            float v = in[i + c];
+                            // Blob images are mostly empty and ReLU zeroes many activations.
+                            if (v == 0) {
+                                continue;
+                            }
+
+                            for (int oc = 0; oc < outChannels; oc++) {
+                                out[o + oc] += v * kernel.get(wi + oc);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 2x2 max-pooling with stride 2 and SAME padding followed by ReLU.
+     */
+    static void maxPoolRelu(float[] in, int h, int w, int channels, float[] out) {
+        int outH = (h + POOL_SIZE - 1) / POOL_SIZE;
+        int outW = (w + POOL_SIZE - 1) / POOL_SIZE;
+        // TensorFlow puts the odd padding cell at the bottom/right.
+        int padTop = Math.max((outH - 1) * POOL_SIZE + POOL_SIZE - h, 0) / 2;
+        int padLeft = Math.max((outW - 1) * POOL_SIZE + POOL_SIZE - w, 0) / 2;
+
+        for (int oy = 0; oy < outH; oy++) {
+            int yStart = Math.max(oy * POOL_SIZE - padTop, 0);
+            int yEnd = Math.min(oy * POOL_SIZE - padTop + POOL_SIZE, h);
+            for (int ox = 0; ox < outW; ox++) {
+                int xStart = Math.max(ox * POOL_SIZE - padLeft, 0);
+                int xEnd = Math.min(ox * POOL_SIZE - padLeft + POOL_SIZE, w);
+                int o = (oy * outW + ox) * channels;
+
+                for (int c = 0; c < channels; c++) {
+                    out[o + c] = 0;
+                }
+
+                for (int y = yStart; y < yEnd; y++) {
+                    for (int x = xStart; x < xEnd; x++) {
+                        int i = (y * w + x) * channels;
+                        for (int c = 0; c < channels; c++) {
+                            if (in[i + c] > out[o + c]) {
+                                out[o + c] = in[i + c];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void dense(float[] in, int inSize, FloatBuffer weights, FloatBuffer bias, int outSize,
+                              float[] out, int outOffset) {
+        for (int o = 0; o < outSize; o++) {
+            out[outOffset + o] = bias.get(o);
+        }
+
+        for (int i = 0; i < inSize; i++) {
+            float v = in[i];
+            if (v == 0) {
+                continue;
+            }
+
+            int wi = i * outSize;
+            for (int o = 0; o < outSize; o++) {
+                out[outOffset + o] += v * weights.get(wi + o);
+            }
+        }
+    }
+
+    static float softplus(float x) {
+        // log(1 + e^x) without overflowing for large x
+        if (x > 20) {
+            return x;
+        }
+        return (float) Math.log1p(Math.exp(x));
+    }
+
+    static void softmax(float[] values, int offset, int length) {
+        float max = values[offset];
+        for (int i = 1; i < length; i++) {
+            max = Math.max(max, values[offset + i]);
+        }
+
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = (float) Math.exp(values[offset + i] - max);
+            sum += values[offset + i];
+        }
+
+        for (int i = 0; i < length; i++) {
+            values[offset + i] /= sum;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, a mapped WeightFile is unmapped by the garbage collector.
+    }
+}
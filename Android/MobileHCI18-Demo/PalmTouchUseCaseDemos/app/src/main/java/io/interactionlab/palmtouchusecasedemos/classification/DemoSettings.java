@@ -7,16 +7,32 @@ import android.graphics.Color;
  */
 
 public class DemoSettings {
-    public static ModelDescription[] models = new ModelDescription[]{
-            new ModelDescription(
-                    "PalmTouch",
-                    "file:///android_asset/palmtouch.pb",
-                    "input_tensor",
-                    "output_tensor",
-                    new long[]{1, 405},
-                    new String[]{"Finger", "Palm"},
-                    new int[]{Color.GREEN, Color.YELLOW})
-    };
-};
+    private static final ModelDescription JAVA = new ModelDescription(
+            "PalmTouch (Java)",
+            "file:///android_asset/palmtouch.ptw",
+            "input_tensor",
+            "output_tensor",
+            new long[]{1, 405},
+            new String[]{"Finger", "Palm"},
+            new int[]{Color.GREEN, Color.YELLOW},
+            ModelDescription.ENGINE_JAVA);
+    private static final ModelDescription INT8 = new ModelDescription(
+            "PalmTouch (int8)",
+            "file:///android_asset/palmtouch.ptw",
+            "input_tensor",
+            "output_tensor",
+            new long[]{1, 405},
+            new String[]{"Finger", "Palm"},
+            new int[]{Color.GREEN, Color.YELLOW},
+            ModelDescription.ENGINE_JAVA_INT8);
 
+    // The first model is the default. Flavors can add models, see FlavorEngines.
+    public static ModelDescription[] models = withFlavorModels(JAVA, INT8);
 
+    private static ModelDescription[] withFlavorModels(ModelDescription... models) {
+        ModelDescription[] all = new ModelDescription[models.length + FlavorEngines.MODELS.length];
+        System.arraycopy(models, 0, all, 0, models.length);
+        System.arraycopy(FlavorEngines.MODELS, 0, all, models.length, FlavorEngines.MODELS.length);
+        return all;
+    }
+};
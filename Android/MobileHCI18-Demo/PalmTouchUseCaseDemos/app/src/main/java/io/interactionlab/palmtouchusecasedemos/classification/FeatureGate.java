@@ -0,0 +1,121 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+/**
+ * First stage of the classification cascade. A logistic model over the BlobFeatures decides
+ * the obvious blobs (small fingertips, large palms) so that only the ambiguous ones have to
+ * go through the CNN.
+ *
+ * A blob whose palm probability is at most fingerBand is a finger, one with at least palmBand
+ * is a palm, everything in between is left to the CNN. Wider bands resolve fewer blobs here
+ * but make fewer mistakes.
+ *
+ * The weights and the default bands have only been checked on the blobs they were fitted on,
+ * so PalmTouchService does not use the gate (see ReplayHarness --feature-gate).
+ */
+public class FeatureGate {
+    public static final int FINGER = 0;
+    public static final int PALM = 1;
+    public static final int UNDECIDED = -1;
+
+    public static final float DEFAULT_FINGER_BAND = 0.02f;
+    public static final float DEFAULT_PALM_BAND = 0.98f;
+
+    // Fitted on the blobs of p21_blobimages.pkl (sum and peak in units of 100).
+    private static final float W_AREA = 0.1972f;
+    private static final float W_SUM = 0.1689f;
+    private static final float W_PEAK = -3.1828f;
+    private static final float W_HEIGHT = 0.9772f;
+    private static final float W_WIDTH = -1.6209f;
+    private static final float BIAS = -0.7929f;
+
+    private final float fingerLogit;
+    private final float palmLogit;
+
+    private float lastProbability;
+
+    private long fingerCount;
+    private long palmCount;
+    private long undecidedCount;
+
+    public FeatureGate() {
+        this(DEFAULT_FINGER_BAND, DEFAULT_PALM_BAND);
+    }
+
+    /**
+     * @param fingerBand Largest palm probability that is still decided as finger.
+     * @param palmBand   Smallest palm probability that is decided as palm.
+     */
+    public FeatureGate(float fingerBand, float palmBand) {
+        if (fingerBand < 0 || palmBand > 1 || fingerBand >= palmBand) {
+            throw new IllegalArgumentException("Bands must satisfy 0 <= fingerBand < palmBand <= 1.");
+        }
+
+        // Compare logits instead of probabilities to save the exp() for undecided blobs.
+        fingerLogit = logit(fingerBand);
+        palmLogit = logit(palmBand);
+    }
+
+    private static float logit(float p) {
+        return (float) Math.log(p / (1 - p));
+    }
+
+    /**
+     * @return FINGER, PALM or UNDECIDED.
+     */
+    public int decide(BlobFeatures features) {
+        float score = BIAS
+                + W_AREA * features.area
+                + W_SUM * features.sum / 100f
+                + W_PEAK * features.peak / 100f
+                + W_HEIGHT * features.height
+                + W_WIDTH * features.width;
+
+        if (score <= fingerLogit) {
+            fingerCount++;
+            lastProbability = (float) (1 / (1 + Math.exp(-score)));
+            return FINGER;
+        } else if (score >= palmLogit) {
+            palmCount++;
+            lastProbability = (float) (1 / (1 + Math.exp(-score)));
+            return PALM;
+        }
+
+        undecidedCount++;
+        return UNDECIDED;
+    }
+
+    /**
+     * @return Palm probability of the last decided blob.
+     */
+    public float getLastProbability() {
+        return lastProbability;
+    }
+
+    public long getFingerCount() {
+        return fingerCount;
+    }
+
+    public long getPalmCount() {
+        return palmCount;
+    }
+
+    /**
+     * @return Number of blobs that were passed on to the CNN.
+     */
+    public long getUndecidedCount() {
+        return undecidedCount;
+    }
+
+    public void resetCounters() {
+        fingerCount = 0;
+        palmCount = 0;
+        undecidedCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        long total = fingerCount + palmCount + undecidedCount;
+        return "FeatureGate: " + total + " blobs, " + fingerCount + " fingers and " + palmCount
+                + " palms decided, " + undecidedCount + " passed to the CNN";
+    }
+}
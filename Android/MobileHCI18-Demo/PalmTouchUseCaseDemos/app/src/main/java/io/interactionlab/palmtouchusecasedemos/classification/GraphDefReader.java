@@ -0,0 +1,338 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the constant tensors (i.e. the trained weights) of a frozen TensorFlow graph.
+ *
+ * Only the few protobuf fields needed for this are decoded, so neither TensorFlow nor a
+ * protobuf library is required:
+ * GraphDef.node (1) -> NodeDef.name (1), NodeDef.op (2), NodeDef.attr (5) -> "value" ->
+ * AttrValue.tensor (8) -> TensorProto.dtype (1), tensor_shape (2), tensor_content (4),
+ * float_val (5), int_val (7).
+ */
+public class GraphDefReader {
+    private static final int DT_FLOAT = 1;
+    private static final int DT_INT32 = 3;
+
+    private final Map<String, int[]> shapes = new HashMap<String, int[]>();
+    private final Map<String, float[]> floatTensors = new HashMap<String, float[]>();
+    private final Map<String, int[]> intTensors = new HashMap<String, int[]>();
+
+    private final byte[] data;
+    private int pos;
+
+    public GraphDefReader(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16384];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bos.write(buffer, 0, read);
+        }
+        data = bos.toByteArray();
+
+        parseGraphDef();
+    }
+
+    public boolean hasTensor(String nodeName) {
+        return shapes.containsKey(nodeName);
+    }
+
+    public int[] getShape(String nodeName) throws IOException {
+        int[] shape = shapes.get(nodeName);
+        if (shape == null) {
+            throw new IOException("The graph has no constant named " + nodeName + ".");
+        }
+        return shape;
+    }
+
+    public float[] getFloatTensor(String nodeName) throws IOException {
+        float[] tensor = floatTensors.get(nodeName);
+        if (tensor == null) {
+            throw new IOException("The graph has no float constant named " + nodeName + ".");
+        }
+        return tensor;
+    }
+
+    public int[] getIntTensor(String nodeName) throws IOException {
+        int[] tensor = intTensors.get(nodeName);
+        if (tensor == null) {
+            throw new IOException("The graph has no int32 constant named " + nodeName + ".");
+        }
+        return tensor;
+    }
+
+    private void parseGraphDef() throws IOException {
+        pos = 0;
+        while (pos < data.length) {
+            long key = readVarint();
+            if ((key >>> 3) == 1 && (key & 7) == 2) {
+                int end = readEnd();
+                parseNodeDef(end);
+                pos = end;
+            } else {
+                skip(key);
+            }
+        }
+    }
+
+    private void parseNodeDef(int end) throws IOException {
+        String name = null;
+        String op = null;
+        int valueStart = -1;
+        int valueEnd = -1;
+
+        while (pos < end) {
+            long key = readVarint();
+            int field = (int) (key >>> 3);
+            if (field == 1 && (key & 7) == 2) {
+                name = readString();
+            } else if (field == 2 && (key & 7) == 2) {
+                op = readString();
+            } else if (field == 5 && (key & 7) == 2) {
+                // map<string, AttrValue> entry
+                int entryEnd = readEnd();
+                String attrName = null;
+                int attrStart = -1;
+                int attrEnd = -1;
+                while (pos < entryEnd) {
+                    long entryKey = readVarint();
+                    if ((entryKey >>> 3) == 1 && (entryKey & 7) == 2) {
+                        attrName = readString();
+                    } else if ((entryKey >>> 3) == 2 && (entryKey & 7) == 2) {
+                        int length = (int) readVarint();
+                        attrStart = pos;
+                        attrEnd = pos + length;
+                        pos = attrEnd;
+                    } else {
+                        skip(entryKey);
+                    }
+                }
+                if ("value".equals(attrName)) {
+                    valueStart = attrStart;
+                    valueEnd = attrEnd;
+                }
+                pos = entryEnd;
+            } else {
+                skip(key);
+            }
+        }
+
+        if ("Const".equals(op) && name != null && valueStart >= 0) {
+            int nodeEnd = pos;
+            pos = valueStart;
+            parseAttrValue(name, valueEnd);
+            pos = nodeEnd;
+        }
+    }
+
+    private void parseAttrValue(String name, int end) throws IOException {
+        while (pos < end) {
+            long key = readVarint();
+            if ((key >>> 3) == 8 && (key & 7) == 2) {
+                parseTensorProto(name, readEnd());
+                return;
+            } else {
+                skip(key);
+            }
+        }
+    }
+
+    private void parseTensorProto(String name, int end) throws IOException {
+        int dtype = 0;
+        int[] shape = new int[0];
+        int contentStart = -1;
+        int contentLength = 0;
+        FloatList floatValues = new FloatList();
+        IntList intValues = new IntList();
+
+        while (pos < end) {
+            long key = readVarint();
+            int field = (int) (key >>> 3);
+            int wireType = (int) (key & 7);
+            if (field == 1 && wireType == 0) {
+                dtype = (int) readVarint();
+            } else if (field == 2 && wireType == 2) {
+                shape = parseTensorShape(readEnd());
+            } else if (field == 4 && wireType == 2) {
+                contentLength = (int) readVarint();
+                contentStart = pos;
+                pos += contentLength;
+            } else if (field == 5 && wireType == 2) {
+                int packedEnd = readEnd();
+                while (pos < packedEnd) {
+                    floatValues.add(Float.intBitsToFloat(readFixed32()));
+                }
+            } else if (field == 5 && wireType == 5) {
+                floatValues.add(Float.intBitsToFloat(readFixed32()));
+            } else if (field == 7 && wireType == 2) {
+                int packedEnd = readEnd();
+                while (pos < packedEnd) {
+                    intValues.add((int) readVarint());
+                }
+            } else if (field == 7 && wireType == 0) {
+                intValues.add((int) readVarint());
+            } else {
+                skip(key);
+            }
+        }
+
+        int elements = 1;
+        for (int d : shape) {
+            elements *= d;
+        }
+
+        ByteBuffer content = null;
+        if (contentStart >= 0) {
+            content = ByteBuffer.wrap(data, contentStart, contentLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (dtype == DT_FLOAT) {
+            float[] values = new float[elements];
+            if (content != null) {
+                content.asFloatBuffer().get(values);
+            } else {
+                // A single value is broadcast to the whole tensor.
+                for (int i = 0; i < elements && floatValues.size > 0; i++) {
+                    values[i] = floatValues.values[Math.min(i, floatValues.size - 1)];
+                }
+            }
+            floatTensors.put(name, values);
+            shapes.put(name, shape);
+        } else if (dtype == DT_INT32) {
+            int[] values = new int[elements];
+            if (content != null) {
+                content.asIntBuffer().get(values);
+            } else {
+                for (int i = 0; i < elements && intValues.size > 0; i++) {
+                    values[i] = intValues.values[Math.min(i, intValues.size - 1)];
+                }
+            }
+            intTensors.put(name, values);
+            shapes.put(name, shape);
+        }
+    }
+
+    private int[] parseTensorShape(int end) throws IOException {
+        IntList dims = new IntList();
+        while (pos < end) {
+            long key = readVarint();
+            if ((key >>> 3) == 2 && (key & 7) == 2) {
+                int dimEnd = readEnd();
+                int size = 0;
+                while (pos < dimEnd) {
+                    long dimKey = readVarint();
+                    if ((dimKey >>> 3) == 1 && (dimKey & 7) == 0) {
+                        size = (int) readVarint();
+                    } else {
+                        skip(dimKey);
+                    }
+                }
+                dims.add(size);
+            } else {
+                skip(key);
+            }
+        }
+
+        int[] shape = new int[dims.size];
+        System.arraycopy(dims.values, 0, shape, 0, dims.size);
+        return shape;
+    }
+
+    private long readVarint() throws IOException {
+        long result = 0;
+        int shift = 0;
+        while (shift < 64) {
+            if (pos >= data.length) {
+                throw new IOException("Unexpected end of the graph definition.");
+            }
+            byte b = data[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IOException("Malformed varint in the graph definition.");
+    }
+
+    /**
+     * Reads the length of a length-delimited field.
+     *
+     * @return Position right after the field.
+     */
+    private int readEnd() throws IOException {
+        int length = (int) readVarint();
+        return pos + length;
+    }
+
+    private int readFixed32() {
+        int value = (data[pos] & 0xFF)
+                | (data[pos + 1] & 0xFF) << 8
+                | (data[pos + 2] & 0xFF) << 16
+                | (data[pos + 3] & 0xFF) << 24;
+        pos += 4;
+        return value;
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarint();
+        String s = new String(data, pos, length, "UTF-8");
+        pos += length;
+        return s;
+    }
+
+    private void skip(long key) throws IOException {
+        switch ((int) (key & 7)) {
+            case 0:
+                readVarint();
+                break;
+            case 1:
+                pos += 8;
+                break;
+            case 2:
+                int length = (int) readVarint();
+                pos += length;
+                break;
+            case 5:
+                pos += 4;
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + (key & 7) + " in the graph definition.");
+        }
+    }
+
+    private static class FloatList {
+        float[] values = new float[16];
+        int size;
+
+        void add(float v) {
+            if (size == values.length) {
+                float[] grown = new float[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = v;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = v;
+        }
+    }
+}
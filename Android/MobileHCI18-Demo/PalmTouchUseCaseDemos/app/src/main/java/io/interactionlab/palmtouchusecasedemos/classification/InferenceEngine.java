@@ -0,0 +1,19 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+/**
+ * Runs the forward pass of a model. Implementations keep their buffers between calls and
+ * are not thread-safe.
+ */
+public interface InferenceEngine {
+    /**
+     * @param input  count images stored one after another.
+     * @param count  Number of images in input.
+     * @param output Receives count * (number of labels) class probabilities.
+     */
+    void run(float[] input, int count, float[] output);
+
+    /**
+     * Releases the resources of the engine. The engine must not be used afterwards.
+     */
+    void close();
+}
@@ -5,6 +5,10 @@ package io.interactionlab.palmtouchusecasedemos.classification;
  */
 
 public class ModelDescription {
+    public static final int ENGINE_TENSORFLOW = 0;
+    public static final int ENGINE_JAVA = 1;
+    public static final int ENGINE_JAVA_INT8 = 2;
+
     public String modelPath;
     public String modelName;
     public String inputNode;
@@ -12,6 +16,7 @@ public class ModelDescription {
     public long[] inputDimensions;
     public String[] labels;
     public int[] labelColor;
+    public int engine = ENGINE_TENSORFLOW;
 
     public ModelDescription(String modelName, String modelPath, String inputNode, String outputNode, long[] inputDimensions, String[] labels, int[] labelColor) {
         this.modelName = modelName;
@@ -22,4 +27,9 @@ public class ModelDescription {
         this.labels = labels;
         this.labelColor = labelColor;
     }
+
+    public ModelDescription(String modelName, String modelPath, String inputNode, String outputNode, long[] inputDimensions, String[] labels, int[] labelColor, int engine) {
+        this(modelName, modelPath, inputNode, outputNode, inputDimensions, labels, labelColor);
+        this.engine = engine;
+    }
 }
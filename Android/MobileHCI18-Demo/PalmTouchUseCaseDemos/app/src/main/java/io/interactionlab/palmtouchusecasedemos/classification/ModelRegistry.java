@@ -0,0 +1,179 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads every model (i.e. every entry of DemoSettings.models) only once and shares the
+ * sessions between classifiers.
+ *
+ * acquire() loads the model if needed and increments the reference count of the session,
+ * release() decrements it. Sessions without references stay loaded, so switching back to a
+ * model is instant, until they are evicted with evict() or evictUnused().
+ */
+public class ModelRegistry {
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+    // Memory-mapped weights, see WeightFile. Everything else is read as frozen graph.
+    private static final String WEIGHT_FILE_SUFFIX = ".ptw";
+
+    private static ModelRegistry instance;
+
+    private final AssetManager assets;
+    private final Map<ModelDescription, ModelSession> sessions = new HashMap<ModelDescription, ModelSession>();
+
+    private ModelRegistry(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    public static synchronized ModelRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new ModelRegistry(context.getApplicationContext().getAssets());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the session of the given model, loading it if it is not cached. Loading
+     * takes a while, so this should not be called on the thread that delivers the frames.
+     */
+    public ModelSession acquire(ModelDescription modelDescription) {
+        synchronized (this) {
+            ModelSession session = sessions.get(modelDescription);
+            if (session != null) {
+                session.refCount++;
+                return session;
+            }
+        }
+
+        // Load without holding the lock so that other models stay available meanwhile.
+        ModelSession loaded = new ModelSession(createEngine(modelDescription), modelDescription);
+
+        synchronized (this) {
+            ModelSession session = sessions.get(modelDescription);
+            if (session == null) {
+                session = loaded;
+                sessions.put(modelDescription, session);
+            } else {
+                // Another thread loaded the same model in the meantime.
+                loaded.close();
+            }
+            session.refCount++;
+            return session;
+        }
+    }
+
+    private InferenceEngine createEngine(ModelDescription modelDescription) {
+        switch (modelDescription.engine) {
+            case ModelDescription.ENGINE_JAVA:
+                return loadCnn(modelDescription);
+            case ModelDescription.ENGINE_JAVA_INT8:
+                // The activation ranges are only stored in weight files.
+                try {
+                    return QuantizedCnnInferenceEngine.fromWeightFile(mapWeightFile(modelDescription));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to load model from " + modelDescription.modelPath, e);
+                }
+            default:
+                return FlavorEngines.create(assets, modelDescription);
+        }
+    }
+
+    private static String getAssetName(ModelDescription modelDescription) {
+        String assetName = modelDescription.modelPath;
+        if (assetName.startsWith(ASSET_PREFIX)) {
+            assetName = assetName.substring(ASSET_PREFIX.length());
+        }
+        return assetName;
+    }
+
+    private WeightFile mapWeightFile(ModelDescription modelDescription) throws IOException {
+        WeightFile file = WeightFile.map(assets, getAssetName(modelDescription));
+        file.checkInputDimensions(modelDescription.inputDimensions);
+        return file;
+    }
+
+    private CnnInferenceEngine loadCnn(ModelDescription modelDescription) {
+        String assetName = getAssetName(modelDescription);
+        if (assetName.endsWith(WEIGHT_FILE_SUFFIX)) {
+            try {
+                return CnnInferenceEngine.fromWeightFile(mapWeightFile(modelDescription));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load model from " + modelDescription.modelPath, e);
+            }
+        }
+
+        InputStream in = null;
+        try {
+            in = assets.open(assetName);
+            return CnnInferenceEngine.fromGraphDef(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load model from " + modelDescription.modelPath, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public synchronized void release(ModelSession session) {
+        if (session != null && session.refCount > 0) {
+            session.refCount--;
+        }
+    }
+
+    /**
+     * Closes the session of the given model if it is not in use.
+     *
+     * @return True if the model is not loaded anymore.
+     */
+    public boolean evict(ModelDescription modelDescription) {
+        ModelSession session;
+        synchronized (this) {
+            session = sessions.get(modelDescription);
+            if (session == null) {
+                return true;
+            }
+            if (session.refCount > 0) {
+                return false;
+            }
+            sessions.remove(modelDescription);
+        }
+
+        session.close();
+        return true;
+    }
+
+    /**
+     * Closes all sessions that are not in use.
+     */
+    public void evictUnused() {
+        List<ModelSession> unused = new ArrayList<ModelSession>();
+        synchronized (this) {
+            for (ModelSession session : sessions.values()) {
+                if (session.refCount == 0) {
+                    unused.add(session);
+                }
+            }
+            sessions.values().removeAll(unused);
+        }
+
+        for (ModelSession session : unused) {
+            session.close();
+        }
+    }
+
+    public synchronized boolean isLoaded(ModelDescription modelDescription) {
+        return sessions.containsKey(modelDescription);
+    }
+}
@@ -0,0 +1,48 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+/**
+ * A loaded model of a ModelDescription, handed out by the ModelRegistry. Runs are
+ * serialized, so a session can be shared by several classifiers. Once the registry has
+ * closed the session, run() returns false and the caller has to acquire a new one.
+ */
+public class ModelSession {
+    private final ModelDescription modelDescription;
+    private InferenceEngine engine;
+
+    // Guarded by the registry.
+    int refCount;
+
+    ModelSession(InferenceEngine engine, ModelDescription modelDescription) {
+        this.engine = engine;
+        this.modelDescription = modelDescription;
+    }
+
+    public ModelDescription getModelDescription() {
+        return modelDescription;
+    }
+
+    /**
+     * Runs the model on count images stored one after another in input.
+     *
+     * @param output Receives count * (number of labels) class probabilities.
+     * @return False if the session has been closed.
+     */
+    public synchronized boolean run(float[] input, int count, float[] output) {
+        if (engine == null) {
+            return false;
+        }
+
+        engine.run(input, count, output);
+        return true;
+    }
+
+    /**
+     * Waits for a running inference and releases the engine.
+     */
+    synchronized void close() {
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+}
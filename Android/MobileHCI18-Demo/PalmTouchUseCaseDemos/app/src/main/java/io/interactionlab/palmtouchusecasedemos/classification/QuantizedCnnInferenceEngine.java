@@ -0,0 +1,291 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Post-training int8 variant of CnnInferenceEngine.
+ *
+ * Weights are quantized symmetrically with one scale per output channel. The inputs of the
+ * conv and dense layers (the blob image, both pooling outputs and the softplus output) are
+ * never negative and are quantized to [0, 127] with one scale per layer, derived from the
+ * largest values seen on a calibration set (see calibrate()), which are stored in the
+ * WeightFile.
+ * Conv and dense layers accumulate in int; pooling, softplus and softmax run on the
+ * dequantized float values.
+ */
+public class QuantizedCnnInferenceEngine implements InferenceEngine {
+    private static final int QMAX = 127;
+
+    private final int height;
+    private final int width;
+
+    private final int kernel1;
+    private final int filters1;
+    private final int pooledHeight1;
+    private final int pooledWidth1;
+
+    private final int kernel2;
+    private final int filters2;
+
+    private final int hidden;
+    private final int classes;
+
+    private final byte[] weights0;
+    private final byte[] weights1;
+    private final byte[] weights2;
+    private final byte[] weights3;
+
+    // Dequantization factor per output channel, i.e. input scale * weight scale.
+    private final float[] multiplier0;
+    private final float[] multiplier1;
+    private final float[] multiplier2;
+    private final float[] multiplier3;
+
+    private final float[] bias0;
+    private final float[] bias1;
+    private final float[] bias2;
+    private final float[] bias3;
+
+    // 1 / scale of the quantized inputs of the four layers
+    private final float[] inverseInputScales = new float[4];
+
+    // Activation buffers
+    private final byte[] input;
+    private final float[] conv1;
+    private final float[] pool1;
+    private final byte[] quantizedPool1;
+    private final float[] conv2;
+    private final float[] pool2;
+    private final byte[] quantizedPool2;
+    private final float[] fc1;
+    private final byte[] quantizedFc1;
+    private final int[] accumulator;
+
+    /**
+     * @param source           Float network to quantize.
+     * @param activationRanges Largest value of the input of each layer, see calibrate().
+     */
+    public QuantizedCnnInferenceEngine(CnnInferenceEngine source, float[] activationRanges) {
+        if (activationRanges == null || activationRanges.length != 4) {
+            throw new IllegalArgumentException("Four activation ranges are required.");
+        }
+
+        height = source.height;
+        width = source.width;
+        kernel1 = source.kernel1;
+        filters1 = source.filters1;
+        pooledHeight1 = source.pooledHeight1;
+        pooledWidth1 = source.pooledWidth1;
+        kernel2 = source.kernel2;
+        filters2 = source.filters2;
+        hidden = source.hidden;
+        classes = source.classes;
+
+        float[] inputScales = new float[4];
+        for (int i = 0; i < 4; i++) {
+            // An activation that never fired would give a zero scale.
+            inputScales[i] = Math.max(activationRanges[i], 1e-6f) / QMAX;
+            inverseInputScales[i] = 1 / inputScales[i];
+        }
+
+        weights0 = new byte[source.weights0.capacity()];
+        multiplier0 = quantizePerChannel(source.weights0, filters1, inputScales[0], weights0);
+        weights1 = new byte[source.weights1.capacity()];
+        multiplier1 = quantizePerChannel(source.weights1, filters2, inputScales[1], weights1);
+        weights2 = new byte[source.weights2.capacity()];
+        multiplier2 = quantizePerChannel(source.weights2, hidden, inputScales[2], weights2);
+        weights3 = new byte[source.weights3.capacity()];
+        multiplier3 = quantizePerChannel(source.weights3, classes, inputScales[3], weights3);
+
+        bias0 = toArray(source.bias0);
+        bias1 = toArray(source.bias1);
+        bias2 = toArray(source.bias2);
+        bias3 = toArray(source.bias3);
+
+        int pooledHeight2 = source.pooledHeight2;
+        int pooledWidth2 = source.pooledWidth2;
+
+        input = new byte[height * width];
+        conv1 = new float[height * width * filters1];
+        pool1 = new float[pooledHeight1 * pooledWidth1 * filters1];
+        quantizedPool1 = new byte[pool1.length];
+        conv2 = new float[pooledHeight1 * pooledWidth1 * filters2];
+        pool2 = new float[pooledHeight2 * pooledWidth2 * filters2];
+        quantizedPool2 = new byte[pool2.length];
+        fc1 = new float[hidden];
+        quantizedFc1 = new byte[hidden];
+        accumulator = new int[Math.max(Math.max(filters1, filters2), Math.max(hidden, classes))];
+    }
+
+    /**
+     * Quantizes the network of a WeightFile with the activation ranges stored in it.
+     */
+    public static QuantizedCnnInferenceEngine fromWeightFile(WeightFile file) {
+        return new QuantizedCnnInferenceEngine(CnnInferenceEngine.fromWeightFile(file), file.getActivationRanges());
+    }
+
+    /**
+     * Runs the float network on the calibration samples and returns the activation ranges
+     * for the constructor.
+     *
+     * @param samples count normalized blob images stored one after another.
+     */
+    public static float[] calibrate(CnnInferenceEngine source, float[] samples, int count) {
+        float[] ranges = new float[4];
+        source.updateActivationRanges(samples, count, ranges);
+        return ranges;
+    }
+
+    /**
+     * Quantizes weights whose innermost dimension is the output channel to [-127, 127] with
+     * one scale per output channel.
+     *
+     * @return inputScale * weight scale for every output channel.
+     */
+    private static float[] quantizePerChannel(FloatBuffer weights, int outChannels, float inputScale, byte[] quantized) {
+        float[] maxAbs = new float[outChannels];
+        for (int i = 0; i < quantized.length; i++) {
+            int oc = i % outChannels;
+            maxAbs[oc] = Math.max(maxAbs[oc], Math.abs(weights.get(i)));
+        }
+
+        float[] multiplier = new float[outChannels];
+        float[] inverseScale = new float[outChannels];
+        for (int oc = 0; oc < outChannels; oc++) {
+            float scale = maxAbs[oc] > 0 ? maxAbs[oc] / QMAX : 1;
+            inverseScale[oc] = 1 / scale;
+            multiplier[oc] = inputScale * scale;
+        }
+
+        for (int i = 0; i < quantized.length; i++) {
+            quantized[i] = (byte) Math.round(weights.get(i) * inverseScale[i % outChannels]);
+        }
+
+        return multiplier;
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.capacity()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = buffer.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public void run(float[] input, int count, float[] output) {
+        for (int n = 0; n < count; n++) {
+            forward(input, n * height * width, output, n * classes);
+        }
+    }
+
+    private void forward(float[] image, int imageOffset, float[] output, int outputOffset) {
+        quantize(image, imageOffset, height * width, inverseInputScales[0], input);
+        conv2dSame(input, height, width, 1, weights0, multiplier0, bias0, kernel1, filters1, conv1);
+        CnnInferenceEngine.maxPoolRelu(conv1, height, width, filters1, pool1);
+        quantize(pool1, 0, pool1.length, inverseInputScales[1], quantizedPool1);
+
+        conv2dSame(quantizedPool1, pooledHeight1, pooledWidth1, filters1, weights1, multiplier1, bias1, kernel2, filters2, conv2);
+        CnnInferenceEngine.maxPoolRelu(conv2, pooledHeight1, pooledWidth1, filters2, pool2);
+        quantize(pool2, 0, pool2.length, inverseInputScales[2], quantizedPool2);
+
+        dense(quantizedPool2, weights2, multiplier2, bias2, hidden, fc1, 0);
+        for (int i = 0; i < hidden; i++) {
+            fc1[i] = CnnInferenceEngine.softplus(fc1[i]);
+        }
+        quantize(fc1, 0, hidden, inverseInputScales[3], quantizedFc1);
+
+        dense(quantizedFc1, weights3, multiplier3, bias3, classes, output, outputOffset);
+        CnnInferenceEngine.softmax(output, outputOffset, classes);
+    }
+
+    /**
+     * Maps non-negative values to [0, 127], saturating above the calibrated range.
+     */
+    private static void quantize(float[] values, int offset, int length, float inverseScale, byte[] quantized) {
+        for (int i = 0; i < length; i++) {
+            int q = (int) (values[offset + i] * inverseScale + 0.5f);
+            quantized[i] = (byte) (q < 0 ? 0 : (q > QMAX ? QMAX : q));
+        }
+    }
+
+    /**
+     * Same as CnnInferenceEngine.conv2dSame with int8 inputs and weights. Each output pixel is
+     * accumulated in int and dequantized once.
+     */
+    private void conv2dSame(byte[] in, int h, int w, int inChannels, byte[] kernel, float[] multiplier,
+                            float[] bias, int k, int outChannels, float[] out) {
+        int pad = (k - 1) / 2;
+        int kernelRow = inChannels * outChannels;
+        int[] acc = accumulator;
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                for (int oc = 0; oc < outChannels; oc++) {
+                    acc[oc] = 0;
+                }
+
+                for (int ky = 0; ky < k; ky++) {
+                    int iy = y + ky - pad;
+                    if (iy < 0 || iy >= h) {
+                        continue;
+                    }
+
+                    for (int kx = 0; kx < k; kx++) {
+                        int ix = x + kx - pad;
+                        if (ix < 0 || ix >= w) {
+                            continue;
+                        }
+
+                        int i = (iy * w + ix) * inChannels;
+                        int wi = (ky * k + kx) * kernelRow;
+                        for (int c = 0; c < inChannels; c++, wi += outChannels) {
+                            int v = in[i + c];
+                            if (v == 0) {
+                                continue;
+                            }
+
+                            for (int oc = 0; oc < outChannels; oc++) {
+                                acc[oc] += v * kernel[wi + oc];
+                            }
+                        }
+                    }
+                }
+
+                int o = (y * w + x) * outChannels;
+                for (int oc = 0; oc < outChannels; oc++) {
+                    out[o + oc] = acc[oc] * multiplier[oc] + bias[oc];
+                }
+            }
+        }
+    }
+
+    private void dense(byte[] in, byte[] weights, float[] multiplier, float[] bias, int outSize,
+                       float[] out, int outOffset) {
+        int[] acc = accumulator;
+        for (int o = 0; o < outSize; o++) {
+            acc[o] = 0;
+        }
+
+        for (int i = 0; i < in.length; i++) {
+            int v = in[i];
+            if (v == 0) {
+                continue;
+            }
+
+            int wi = i * outSize;
+            for (int o = 0; o < outSize; o++) {
+                acc[o] += v * weights[wi + o];
+            }
+        }
+
+        for (int o = 0; o < outSize; o++) {
+            out[outOffset + o] = acc[o] * multiplier[o] + bias[o];
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the weights are regular Java arrays.
+    }
+}
@@ -0,0 +1,284 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Flat binary file with the weights of the PalmTouch CNN, written by WeightFileConverter.
+ * In contrast to the frozen graph it needs no parsing: the file is memory-mapped and the
+ * tensors are handed out as FloatBuffer views of the mapping, so the weights are neither
+ * copied nor kept on the Java heap.
+ *
+ * Layout (little endian):
+ *
+ * 0   magic "PTWF"
+ * 4   int version
+ * 8   int input height, width and channels
+ * 20  int number of tensors
+ * 24  int offset of the tensor data
+ * 28  int CRC32 of everything after the header, i.e. the tensor table and the data
+ * 32  tensor table, per tensor: int rank, int[MAX_RANK] shape, int offset, int length
+ * ... tensor data, each tensor starts at a multiple of ALIGNMENT
+ *
+ * The tensors are stored in the order of TENSOR_NAMES. The last one, activation_ranges, holds
+ * the largest input of each of the four layers for the int8 engine, calibrated by
+ * WeightFileConverter (see QuantizedCnnInferenceEngine.calibrate()).
+ */
+public class WeightFile {
+    public static final int VERSION = 2;
+    public static final int ALIGNMENT = 64;
+    public static final int MAX_RANK = 4;
+    public static final String[] TENSOR_NAMES = {
+            "weights0", "bias0", "weights1", "bias1", "weights2", "bias2", "weights3", "bias3", "activation_ranges"};
+
+    private static final byte[] MAGIC = {'P', 'T', 'W', 'F'};
+    private static final int HEADER_SIZE = 32;
+    private static final int TABLE_ENTRY_SIZE = (MAX_RANK + 3) * 4;
+    private static final int CHECKSUM_CHUNK = 8192;
+
+    private final ByteBuffer buffer;
+    private final int inputHeight;
+    private final int inputWidth;
+    private final int inputChannels;
+    private final int[][] shapes;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    /**
+     * Parses and validates the header of the file in the given buffer.
+     *
+     * @throws IOException If the buffer does not contain a valid weight file.
+     */
+    public WeightFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("Weight file is truncated.");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                throw new IOException("Not a weight file.");
+            }
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported weight file version " + version + ", expected " + VERSION + ".");
+        }
+
+        inputHeight = buffer.getInt(8);
+        inputWidth = buffer.getInt(12);
+        inputChannels = buffer.getInt(16);
+        int tensorCount = buffer.getInt(20);
+        int dataOffset = buffer.getInt(24);
+        int checksum = buffer.getInt(28);
+
+        if (tensorCount != TENSOR_NAMES.length || dataOffset < HEADER_SIZE + tensorCount * TABLE_ENTRY_SIZE
+                || dataOffset > buffer.capacity()) {
+            throw new IOException("Corrupt weight file header.");
+        }
+        if (checksum != checksum(buffer, HEADER_SIZE, buffer.capacity())) {
+            throw new IOException("Weight file checksum mismatch.");
+        }
+
+        shapes = new int[tensorCount][];
+        offsets = new int[tensorCount];
+        lengths = new int[tensorCount];
+        for (int t = 0; t < tensorCount; t++) {
+            int entry = HEADER_SIZE + t * TABLE_ENTRY_SIZE;
+            int rank = buffer.getInt(entry);
+            if (rank < 1 || rank > MAX_RANK) {
+                throw new IOException("Tensor " + TENSOR_NAMES[t] + " has invalid rank " + rank + ".");
+            }
+
+            long elements = 1;
+            shapes[t] = new int[rank];
+            for (int d = 0; d < rank; d++) {
+                shapes[t][d] = buffer.getInt(entry + 4 + 4 * d);
+                elements *= shapes[t][d];
+            }
+            offsets[t] = buffer.getInt(entry + 4 + 4 * MAX_RANK);
+            lengths[t] = buffer.getInt(entry + 8 + 4 * MAX_RANK);
+
+            if (elements != lengths[t] || offsets[t] < dataOffset || offsets[t] % ALIGNMENT != 0
+                    || (long) offsets[t] + 4L * lengths[t] > buffer.capacity()) {
+                throw new IOException("Tensor " + TENSOR_NAMES[t] + " lies outside of the weight file.");
+            }
+        }
+    }
+
+    /**
+     * Maps a weight file from the assets. The asset must be stored uncompressed in the APK
+     * (see aaptOptions in build.gradle), otherwise it cannot be mapped.
+     */
+    public static WeightFile map(AssetManager assets, String assetName) throws IOException {
+        AssetFileDescriptor fd = assets.openFd(assetName);
+        try {
+            FileInputStream in = fd.createInputStream();
+            try {
+                return new WeightFile(in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+            } finally {
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    public static WeightFile map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return new WeightFile(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        } finally {
+            // The mapping stays valid after the file is closed.
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a weight file.
+     *
+     * @param tensors Tensors in the order of TENSOR_NAMES.
+     * @param shapes  Shapes of the tensors.
+     */
+    public static void write(OutputStream out, int inputHeight, int inputWidth, int inputChannels,
+                             float[][] tensors, int[][] shapes) throws IOException {
+        if (tensors.length != TENSOR_NAMES.length || shapes.length != TENSOR_NAMES.length) {
+            throw new IllegalArgumentException("Expected " + TENSOR_NAMES.length + " tensors.");
+        }
+
+        int dataOffset = align(HEADER_SIZE + TENSOR_NAMES.length * TABLE_ENTRY_SIZE);
+        int size = dataOffset;
+        int[] offsets = new int[tensors.length];
+        for (int t = 0; t < tensors.length; t++) {
+            offsets[t] = size;
+            size = align(size + 4 * tensors[t].length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(inputHeight);
+        buffer.putInt(inputWidth);
+        buffer.putInt(inputChannels);
+        buffer.putInt(tensors.length);
+        buffer.putInt(dataOffset);
+        buffer.putInt(0); // checksum, filled in below
+
+        for (int t = 0; t < tensors.length; t++) {
+            if (shapes[t].length < 1 || shapes[t].length > MAX_RANK) {
+                throw new IllegalArgumentException("Tensor " + TENSOR_NAMES[t] + " has unsupported rank " + shapes[t].length + ".");
+            }
+
+            buffer.putInt(shapes[t].length);
+            for (int d = 0; d < MAX_RANK; d++) {
+                buffer.putInt(d < shapes[t].length ? shapes[t][d] : 0);
+            }
+            buffer.putInt(offsets[t]);
+            buffer.putInt(tensors[t].length);
+        }
+
+        for (int t = 0; t < tensors.length; t++) {
+            buffer.position(offsets[t]);
+            buffer.asFloatBuffer().put(tensors[t]);
+        }
+
+        buffer.putInt(28, checksum(buffer, HEADER_SIZE, size));
+        out.write(buffer.array());
+    }
+
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int checksum(ByteBuffer buffer, int start, int end) {
+        // CRC32.update(ByteBuffer) needs API level 26, so go through a small chunk instead.
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CHECKSUM_CHUNK];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.limit(end);
+        while (view.hasRemaining()) {
+            int length = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks that the model takes input of the given dimensions, e.g.
+     * ModelDescription.inputDimensions. The first dimension is the batch size, the remaining
+     * ones have to hold height * width * channels values.
+     *
+     * @throws IOException If the dimensions do not match.
+     */
+    public void checkInputDimensions(long[] dimensions) throws IOException {
+        long size = 1;
+        for (int i = 1; i < dimensions.length; i++) {
+            size *= dimensions[i];
+        }
+
+        if (dimensions.length < 2 || size != (long) inputHeight * inputWidth * inputChannels) {
+            throw new IOException("Weight file is for " + inputHeight + "x" + inputWidth + "x" + inputChannels
+                    + " images, which does not match the input dimensions of the model.");
+        }
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    public int getInputChannels() {
+        return inputChannels;
+    }
+
+    private int indexOf(String name) {
+        for (int t = 0; t < TENSOR_NAMES.length; t++) {
+            if (TENSOR_NAMES[t].equals(name)) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException("Unknown tensor " + name);
+    }
+
+    public int[] getShape(String name) {
+        return shapes[indexOf(name)].clone();
+    }
+
+    /**
+     * @return A view of the tensor, positioned at its first value.
+     */
+    public FloatBuffer getTensor(String name) {
+        int t = indexOf(name);
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offsets[t]);
+        view.limit(offsets[t] + 4 * lengths[t]);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * @return Largest input of each layer on the calibration set, see
+     * QuantizedCnnInferenceEngine.calibrate().
+     */
+    public float[] getActivationRanges() {
+        FloatBuffer tensor = getTensor("activation_ranges");
+        float[] ranges = new float[tensor.remaining()];
+        tensor.get(ranges);
+        return ranges;
+    }
+}
@@ -0,0 +1,82 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+/**
+ * Finds the blobs of a frame and writes their bounding boxes to Frame.blobBounds.
+ *
+ * The result is the same as libftsp's BlobDetector.getBlobBoundaries(): pixels above the
+ * touch threshold are grouped with 4-connectivity, ignoring the first row and column, blobs
+ * are reported in the order of their first pixel (row by row) with the bounding box grown by
+ * one in every direction, and blobs whose box is too small or identical to an earlier one are
+ * skipped. The components are found by a BlobMask instead of a recursive fill that collects
+ * coordinate objects, so nothing is allocated per frame.
+ *
+ * Frames marked by an IdleCheckStage are not searched: an empty frame has no blobs, an
+ * unchanged frame the blobs of the previous frame.
+ */
+public class BlobDetectionStage implements Stage {
+    private final BlobMask mask = new BlobMask();
+
+    // Blobs of the previous frame
+    private int[] previousBounds = new int[0];
+    private int previousCount;
+
+    @Override
+    public String getName() {
+        return "detect";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        if (frame.unchanged) {
+            frame.ensureBlobCapacity(previousCount);
+            System.arraycopy(previousBounds, 0, frame.blobBounds, 0, 4 * previousCount);
+            frame.blobCount = previousCount;
+            return;
+        }
+        if (frame.empty) {
+            frame.blobCount = 0;
+            previousCount = 0;
+            return;
+        }
+
+        mask.build(frame.matrix);
+        int detected = mask.detect();
+
+        int blobCount = 0;
+        for (int i = 0; i < detected; i++) {
+            int minX = mask.getMinX(i);
+            int minY = mask.getMinY(i);
+            int maxX = mask.getMaxX(i);
+            int maxY = mask.getMaxY(i);
+            if ((maxX - minX) * (maxY - minY) <= 1
+                    || contains(frame.blobBounds, blobCount, minX - 1, minY - 1, maxX + 1, maxY + 1)) {
+                continue;
+            }
+
+            frame.ensureBlobCapacity(blobCount + 1);
+            int b = 4 * blobCount;
+            frame.blobBounds[b] = minX - 1;
+            frame.blobBounds[b + 1] = minY - 1;
+            frame.blobBounds[b + 2] = maxX + 1;
+            frame.blobBounds[b + 3] = maxY + 1;
+            blobCount++;
+        }
+
+        frame.blobCount = blobCount;
+
+        if (previousBounds.length < 4 * blobCount) {
+            previousBounds = new int[frame.blobBounds.length];
+        }
+        System.arraycopy(frame.blobBounds, 0, previousBounds, 0, 4 * blobCount);
+        previousCount = blobCount;
+    }
+
+    private static boolean contains(int[] bounds, int count, int x1, int y1, int x2, int y2) {
+        for (int b = 0; b < 4 * count; b += 4) {
+            if (bounds[b] == x1 && bounds[b + 1] == y1 && bounds[b + 2] == x2 && bounds[b + 3] == y2) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
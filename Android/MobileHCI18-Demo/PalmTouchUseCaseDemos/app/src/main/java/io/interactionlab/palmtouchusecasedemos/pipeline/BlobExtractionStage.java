@@ -0,0 +1,31 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+
+/**
+ * Crops, clips and normalizes every detected blob into Frame.blobImages and computes its
+ * BlobFeatures, see BlobExtractor.
+ */
+public class BlobExtractionStage implements Stage {
+    private final BlobExtractor blobExtractor;
+
+    public BlobExtractionStage(BlobExtractor blobExtractor) {
+        this.blobExtractor = blobExtractor;
+    }
+
+    @Override
+    public String getName() {
+        return "extract";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        frame.ensureBlobCapacity(frame.blobCount);
+        for (int i = 0; i < frame.blobCount; i++) {
+            int b = 4 * i;
+            blobExtractor.extract(frame.matrix, Frame.ROWS, Frame.COLUMNS,
+                    frame.blobBounds[b], frame.blobBounds[b + 1], frame.blobBounds[b + 2], frame.blobBounds[b + 3],
+                    frame.blobImages, i * BlobExtractor.BLOB_SIZE, frame.blobFeatures[i]);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+
+/**
+ * Bit-packed occupancy mask of a frame with a run-based blob detection, the same algorithm
+ * as the BlobMask of the PalmTouchDemo, on the flat matrix of a Frame.
+ *
+ * build() thresholds the matrix into one int per row (bit x set if cell x is active).
+ * detect() extracts the runs of consecutive active cells of each row with bit tricks and
+ * merges runs of neighbouring rows that overlap (4-connectivity) in a union-find forest.
+ *
+ * Like libftsp's recursive flood fill, cells in the first row and the first column are never
+ * part of a blob. An instance is not thread-safe.
+ */
+public class BlobMask {
+    // A row of width w holds at most (w + 1) / 2 runs.
+    private static final int MAX_RUNS = Frame.ROWS * ((Frame.COLUMNS + 1) / 2);
+
+    private final int[] rows = new int[Frame.ROWS];
+    private int activeCells;
+
+    // Runs in scan order; runStart[y] is the index of the first run of row y.
+    private final int[] runBits = new int[MAX_RUNS];
+    private final int[] runRow = new int[MAX_RUNS];
+    private final int[] runParent = new int[MAX_RUNS];
+    private final int[] runStart = new int[Frame.ROWS + 1];
+    private int runCount;
+
+    private final int[] blobOfRoot = new int[MAX_RUNS];
+    private final int[] minX = new int[MAX_RUNS];
+    private final int[] minY = new int[MAX_RUNS];
+    private final int[] maxX = new int[MAX_RUNS];
+    private final int[] maxY = new int[MAX_RUNS];
+    private int blobCount;
+
+    /**
+     * Thresholds the matrix (see Frame.matrix) into the row masks.
+     *
+     * @return Number of active cells.
+     */
+    public int build(int[] matrix) {
+        activeCells = 0;
+        rows[0] = 0;
+        for (int y = 1; y < Frame.ROWS; y++) {
+            int offset = y * Frame.COLUMNS;
+            int bits = 0;
+            for (int x = 1; x < Frame.COLUMNS; x++) {
+                if (matrix[offset + x] > BlobExtractor.TOUCH_THRESHOLD) {
+                    bits |= 1 << x;
+                }
+            }
+            rows[y] = bits;
+            activeCells += Integer.bitCount(bits);
+        }
+
+        blobCount = 0;
+        return activeCells;
+    }
+
+    /**
+     * Finds the connected components of the last built mask. Blobs are numbered in the
+     * order in which their first cell appears in a row-major scan, as in the flood fill.
+     *
+     * @return Number of blobs found.
+     */
+    public int detect() {
+        blobCount = 0;
+        runCount = 0;
+        if (activeCells == 0) {
+            return 0;
+        }
+
+        // Extract the runs of each row and merge them with overlapping runs of the row above.
+        for (int y = 0; y < Frame.ROWS; y++) {
+            runStart[y] = runCount;
+
+            int bits = rows[y];
+            while (bits != 0) {
+                int lowest = bits & -bits;
+                int run = bits & ~(bits + lowest);
+                bits &= ~run;
+
+                int r = runCount++;
+                runBits[r] = run;
+                runRow[r] = y;
+                runParent[r] = r;
+
+                if (y > 0) {
+                    for (int p = runStart[y - 1]; p < runStart[y]; p++) {
+                        if ((runBits[p] & run) != 0) {
+                            union(p, r);
+                        }
+                    }
+                }
+            }
+        }
+        runStart[Frame.ROWS] = runCount;
+
+        for (int r = 0; r < runCount; r++) {
+            blobOfRoot[r] = -1;
+        }
+
+        // Collect the bounding boxes per component.
+        for (int r = 0; r < runCount; r++) {
+            int root = find(r);
+            int run = runBits[r];
+            int x1 = Integer.numberOfTrailingZeros(run);
+            int x2 = 31 - Integer.numberOfLeadingZeros(run);
+            int y = runRow[r];
+
+            int b = blobOfRoot[root];
+            if (b < 0) {
+                b = blobCount++;
+                blobOfRoot[root] = b;
+                minX[b] = x1;
+                maxX[b] = x2;
+                minY[b] = y;
+                maxY[b] = y;
+            }
+
+            if (x1 < minX[b]) {
+                minX[b] = x1;
+            }
+            if (x2 > maxX[b]) {
+                maxX[b] = x2;
+            }
+            maxY[b] = y;
+        }
+
+        return blobCount;
+    }
+
+    private int find(int r) {
+        while (runParent[r] != r) {
+            runParent[r] = runParent[runParent[r]];
+            r = runParent[r];
+        }
+        return r;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra < rb) {
+            runParent[rb] = ra;
+        } else if (rb < ra) {
+            runParent[ra] = rb;
+        }
+    }
+
+    public int getBlobCount() {
+        return blobCount;
+    }
+
+    public int getMinX(int blob) {
+        return minX[blob];
+    }
+
+    public int getMinY(int blob) {
+        return minY[blob];
+    }
+
+    public int getMaxX(int blob) {
+        return maxX[blob];
+    }
+
+    public int getMaxY(int blob) {
+        return maxY[blob];
+    }
+}
@@ -0,0 +1,187 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Follows blobs from frame to frame and writes the ID of the track of every blob to
+ * Frame.blobTracks, so later stages can keep state per touch instead of per frame.
+ *
+ * A blob continues the track whose bounding box in the previous frame overlaps it the most,
+ * relative to the union of both boxes; blobs that overlap none continue the track with the
+ * nearest center within MAX_DISTANCE cells. Pairs are taken best first, so every track gets
+ * at most one blob. Blobs left over start new tracks, tracks left over are kept for
+ * MAX_MISSED_FRAMES frames in case the touch only dropped below the threshold for a moment.
+ *
+ * The tracks are kept in a table of primitive arrays with room for MAX_TRACKS tracks; blobs
+ * that do not fit get track -1 and no state.
+ */
+public class BlobTrackingStage implements Stage {
+    public static final int MAX_TRACKS = 32;
+    // Largest distance of the centers of two boxes that do not overlap, in cells
+    private static final int MAX_DISTANCE = 3;
+    private static final int MAX_MISSED_FRAMES = 2;
+
+    // Track table, entries 0 ... trackCount - 1 are in use.
+    private int trackCount;
+    private final int[] ids = new int[MAX_TRACKS];
+    // x1, y1, x2, y2 of the last blob of every track
+    private final int[] bounds = new int[4 * MAX_TRACKS];
+    private final int[] missedFrames = new int[MAX_TRACKS];
+    private int nextId;
+
+    // Scratch space for the matching
+    private final boolean[] trackMatched = new boolean[MAX_TRACKS];
+    private boolean[] blobMatched = new boolean[0];
+    // scores[t * blobCount + b]
+    private double[] scores = new double[0];
+
+    private volatile long createdTracks;
+    private volatile long untrackedBlobs;
+
+    @Override
+    public String getName() {
+        return "track";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        int blobCount = frame.blobCount;
+        frame.ensureBlobCapacity(blobCount);
+        if (blobMatched.length < blobCount) {
+            blobMatched = new boolean[frame.blobTracks.length];
+        }
+        for (int b = 0; b < blobCount; b++) {
+            blobMatched[b] = false;
+            frame.blobTracks[b] = -1;
+        }
+        if (scores.length < trackCount * blobCount) {
+            scores = new double[MAX_TRACKS * blobMatched.length];
+        }
+        for (int t = 0; t < trackCount; t++) {
+            trackMatched[t] = false;
+            for (int b = 0; b < blobCount; b++) {
+                scores[t * blobCount + b] = score(t, frame.blobBounds, 4 * b);
+            }
+        }
+
+        // Best pair first, until no pair is close enough.
+        while (true) {
+            int bestTrack = -1;
+            int bestBlob = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int t = 0; t < trackCount; t++) {
+                if (trackMatched[t]) {
+                    continue;
+                }
+                for (int b = 0; b < blobCount; b++) {
+                    if (blobMatched[b]) {
+                        continue;
+                    }
+                    double score = scores[t * blobCount + b];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTrack = t;
+                        bestBlob = b;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                break;
+            }
+
+            trackMatched[bestTrack] = true;
+            blobMatched[bestBlob] = true;
+            frame.blobTracks[bestBlob] = ids[bestTrack];
+            System.arraycopy(frame.blobBounds, 4 * bestBlob, bounds, 4 * bestTrack, 4);
+            missedFrames[bestTrack] = 0;
+        }
+
+        // Forget tracks that have been missing for too long. New tracks are appended after
+        // this, so they are not affected.
+        for (int t = trackCount - 1; t >= 0; t--) {
+            if (!trackMatched[t] && ++missedFrames[t] > MAX_MISSED_FRAMES) {
+                removeTrack(t);
+            }
+        }
+
+        for (int b = 0; b < blobCount; b++) {
+            if (blobMatched[b]) {
+                continue;
+            }
+            if (trackCount == MAX_TRACKS) {
+                untrackedBlobs++;
+                continue;
+            }
+
+            int t = trackCount++;
+            ids[t] = nextId;
+            nextId = nextId == Integer.MAX_VALUE ? 0 : nextId + 1;
+            System.arraycopy(frame.blobBounds, 4 * b, bounds, 4 * t, 4);
+            missedFrames[t] = 0;
+            frame.blobTracks[b] = ids[t];
+            createdTracks++;
+        }
+
+        frame.tracked = true;
+    }
+
+    /**
+     * @return Intersection over union of the boxes of track t and the blob, if they overlap;
+     * otherwise minus the distance of their centers in half cells, or negative infinity if
+     * that is above MAX_DISTANCE.
+     */
+    private double score(int t, int[] blobBounds, int b) {
+        int tx1 = bounds[4 * t];
+        int ty1 = bounds[4 * t + 1];
+        int tx2 = bounds[4 * t + 2];
+        int ty2 = bounds[4 * t + 3];
+        int bx1 = blobBounds[b];
+        int by1 = blobBounds[b + 1];
+        int bx2 = blobBounds[b + 2];
+        int by2 = blobBounds[b + 3];
+
+        int overlapWidth = Math.min(tx2, bx2) - Math.max(tx1, bx1);
+        int overlapHeight = Math.min(ty2, by2) - Math.max(ty1, by1);
+        if (overlapWidth > 0 && overlapHeight > 0) {
+            int intersection = overlapWidth * overlapHeight;
+            int union = (tx2 - tx1) * (ty2 - ty1) + (bx2 - bx1) * (by2 - by1) - intersection;
+            return (double) intersection / union;
+        }
+
+        // Centers times two, to stay in integers
+        int dx = (tx1 + tx2) - (bx1 + bx2);
+        int dy = (ty1 + ty2) - (by1 + by2);
+        int squared = dx * dx + dy * dy;
+        if (squared > 4 * MAX_DISTANCE * MAX_DISTANCE) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return -Math.sqrt(squared);
+    }
+
+    private void removeTrack(int t) {
+        int last = --trackCount;
+        ids[t] = ids[last];
+        System.arraycopy(bounds, 4 * last, bounds, 4 * t, 4);
+        missedFrames[t] = missedFrames[last];
+    }
+
+    /**
+     * @return Number of tracks started so far.
+     */
+    public long getCreatedTracks() {
+        return createdTracks;
+    }
+
+    /**
+     * @return Number of blobs that got no track because the table was full.
+     */
+    public long getUntrackedBlobs() {
+        return untrackedBlobs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "BlobTrackingStage: %d tracks, %d untracked blobs",
+                createdTracks, untrackedBlobs);
+    }
+}
@@ -0,0 +1,252 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobClassifier;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobFeatures;
+import io.interactionlab.palmtouchusecasedemos.classification.ClassificationResult;
+
+/**
+ * Classifies all blobs of a frame in one batch and writes their class indices and
+ * confidences to Frame.blobClasses and Frame.blobConfidences.
+ *
+ * With a FrameSkipController, frames may be left unclassified when classification falls
+ * behind the sensor; their blobs get class -1 and Frame.classificationSkipped is set.
+ *
+ * A frame marked unchanged by an IdleCheckStage gets the classes of the previous frame, unless
+ * that one was skipped.
+ *
+ * In a tracked frame (see BlobTrackingStage), a blob whose track was classified in an earlier
+ * frame with the same bounding box, the same area and a sum of values within 1/SUM_TOLERANCE
+ * gets the class of its track again, up to MAX_REUSES times in a row. Only the other blobs are
+ * passed to the classifier.
+ */
+public class ClassificationStage implements Stage {
+    private static final int MAX_REUSES = 3;
+    private static final int SUM_TOLERANCE = 16;
+
+    private final BlobClassifier blobClassifier;
+    private final FrameSkipController skipController;
+
+    // Result of the previous frame
+    private int[] previousClasses = new int[0];
+    private float[] previousConfidences = new float[0];
+    private int previousCount;
+    private boolean previousClassified;
+
+    // Last classification of every track, unused entries have the ID -1.
+    private final int[] trackIds = new int[BlobTrackingStage.MAX_TRACKS];
+    private final int[] trackBounds = new int[4 * BlobTrackingStage.MAX_TRACKS];
+    private final int[] trackAreas = new int[BlobTrackingStage.MAX_TRACKS];
+    private final int[] trackSums = new int[BlobTrackingStage.MAX_TRACKS];
+    private final int[] trackClasses = new int[BlobTrackingStage.MAX_TRACKS];
+    private final float[] trackConfidences = new float[BlobTrackingStage.MAX_TRACKS];
+    private final int[] trackReuses = new int[BlobTrackingStage.MAX_TRACKS];
+    private final long[] trackSeen = new long[BlobTrackingStage.MAX_TRACKS];
+    private long frameCount;
+
+    // Blobs that are passed to the classifier when others are reused
+    private int[] pendingBlobs = new int[0];
+    private float[] pendingImages = new float[0];
+    private BlobFeatures[] pendingFeatures = new BlobFeatures[0];
+
+    private volatile long classifiedBlobs;
+    private volatile long reusedBlobs;
+
+    public ClassificationStage(BlobClassifier blobClassifier) {
+        this(blobClassifier, null);
+    }
+
+    /**
+     * @param skipController Controller that decides which frames to skip, or null to
+     *                       classify every frame.
+     */
+    public ClassificationStage(BlobClassifier blobClassifier, FrameSkipController skipController) {
+        this.blobClassifier = blobClassifier;
+        this.skipController = skipController;
+        Arrays.fill(trackIds, -1);
+    }
+
+    @Override
+    public String getName() {
+        return "classify";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        if (frame.unchanged && previousClassified && frame.blobCount == previousCount) {
+            System.arraycopy(previousClasses, 0, frame.blobClasses, 0, previousCount);
+            System.arraycopy(previousConfidences, 0, frame.blobConfidences, 0, previousCount);
+            return;
+        }
+
+        long start = System.nanoTime();
+        if (skipController != null && !skipController.shouldClassify(frame, start)) {
+            frame.classificationSkipped = true;
+            for (int i = 0; i < frame.blobCount; i++) {
+                frame.blobClasses[i] = -1;
+                frame.blobConfidences[i] = 0;
+            }
+            previousClassified = false;
+            return;
+        }
+
+        int pending = frame.tracked ? reuseTrackResults(frame) : frame.blobCount;
+        if (pending == frame.blobCount && pending > 0) {
+            ClassificationResult[] results = blobClassifier.classifyBatch(frame.blobImages, frame.blobFeatures, frame.blobCount);
+            for (int i = 0; i < frame.blobCount; i++) {
+                frame.blobClasses[i] = results[i].index;
+                frame.blobConfidences[i] = (float) results[i].confidence;
+            }
+        } else if (pending > 0) {
+            for (int p = 0; p < pending; p++) {
+                System.arraycopy(frame.blobImages, pendingBlobs[p] * BlobExtractor.BLOB_SIZE,
+                        pendingImages, p * BlobExtractor.BLOB_SIZE, BlobExtractor.BLOB_SIZE);
+                pendingFeatures[p] = frame.blobFeatures[pendingBlobs[p]];
+            }
+            ClassificationResult[] results = blobClassifier.classifyBatch(pendingImages, pendingFeatures, pending);
+            for (int p = 0; p < pending; p++) {
+                frame.blobClasses[pendingBlobs[p]] = results[p].index;
+                frame.blobConfidences[pendingBlobs[p]] = (float) results[p].confidence;
+            }
+        }
+        classifiedBlobs += pending;
+        reusedBlobs += frame.blobCount - pending;
+
+        if (skipController != null) {
+            skipController.classified(frame, System.nanoTime() - start);
+        }
+
+        if (frame.tracked) {
+            updateTrackResults(frame, pending);
+        }
+
+        if (previousClasses.length < frame.blobCount) {
+            previousClasses = new int[frame.blobClasses.length];
+            previousConfidences = new float[frame.blobConfidences.length];
+        }
+        System.arraycopy(frame.blobClasses, 0, previousClasses, 0, frame.blobCount);
+        System.arraycopy(frame.blobConfidences, 0, previousConfidences, 0, frame.blobCount);
+        previousCount = frame.blobCount;
+        previousClassified = true;
+    }
+
+    /**
+     * Writes the results of the blobs that can reuse the result of their track to the frame
+     * and collects the others in pendingBlobs.
+     *
+     * @return Number of blobs that have to be classified.
+     */
+    private int reuseTrackResults(Frame frame) {
+        int count = frame.blobCount;
+        if (pendingBlobs.length < count) {
+            pendingBlobs = new int[frame.blobTracks.length];
+            pendingImages = new float[frame.blobTracks.length * BlobExtractor.BLOB_SIZE];
+            pendingFeatures = new BlobFeatures[frame.blobTracks.length];
+        }
+
+        int pending = 0;
+        for (int i = 0; i < count; i++) {
+            int id = frame.blobTracks[i];
+            int e = id >= 0 ? findTrack(id) : -1;
+            if (e >= 0 && trackReuses[e] < MAX_REUSES && sameBlob(frame, i, e)) {
+                frame.blobClasses[i] = trackClasses[e];
+                frame.blobConfidences[i] = trackConfidences[e];
+                continue;
+            }
+            pendingBlobs[pending++] = i;
+        }
+        return pending;
+    }
+
+    private boolean sameBlob(Frame frame, int i, int e) {
+        for (int k = 0; k < 4; k++) {
+            if (frame.blobBounds[4 * i + k] != trackBounds[4 * e + k]) {
+                return false;
+            }
+        }
+        BlobFeatures features = frame.blobFeatures[i];
+        return features.area == trackAreas[e]
+                && Math.abs(features.sum - trackSums[e]) * SUM_TOLERANCE <= trackSums[e];
+    }
+
+    /**
+     * Stores the results of the frame in the entries of its tracks and frees the entries of
+     * tracks that are not in the frame.
+     *
+     * @param pending Number of blobs in pendingBlobs, which were classified.
+     */
+    private void updateTrackResults(Frame frame, int pending) {
+        frameCount++;
+        int p = 0;
+        for (int i = 0; i < frame.blobCount; i++) {
+            boolean classified = p < pending && pendingBlobs[p] == i;
+            if (classified) {
+                p++;
+            }
+
+            int id = frame.blobTracks[i];
+            if (id < 0) {
+                continue;
+            }
+            int e = findTrack(id);
+            if (e < 0) {
+                e = findTrack(-1);
+                if (e < 0) {
+                    continue;
+                }
+                trackIds[e] = id;
+                classified = true;
+            }
+
+            trackSeen[e] = frameCount;
+            if (!classified) {
+                trackReuses[e]++;
+                continue;
+            }
+            System.arraycopy(frame.blobBounds, 4 * i, trackBounds, 4 * e, 4);
+            trackAreas[e] = frame.blobFeatures[i].area;
+            trackSums[e] = frame.blobFeatures[i].sum;
+            trackClasses[e] = frame.blobClasses[i];
+            trackConfidences[e] = frame.blobConfidences[i];
+            trackReuses[e] = 0;
+        }
+
+        for (int e = 0; e < trackIds.length; e++) {
+            if (trackSeen[e] != frameCount) {
+                trackIds[e] = -1;
+            }
+        }
+    }
+
+    private int findTrack(int id) {
+        for (int e = 0; e < trackIds.length; e++) {
+            if (trackIds[e] == id) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Number of blobs passed to the classifier.
+     */
+    public long getClassifiedBlobs() {
+        return classifiedBlobs;
+    }
+
+    /**
+     * @return Number of blobs that got the result of their track.
+     */
+    public long getReusedBlobs() {
+        return reusedBlobs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "ClassificationStage: %d blobs classified, %d reused from their track",
+                classifiedBlobs, reusedBlobs);
+    }
+}
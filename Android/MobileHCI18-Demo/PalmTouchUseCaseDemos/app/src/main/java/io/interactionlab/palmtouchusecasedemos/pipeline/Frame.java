@@ -0,0 +1,163 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobFeatures;
+
+/**
+ * Preallocated slot of the FrameRingBuffer: a capacitive image as flat, row-major matrix
+ * together with scratch space for the blobs found in it. Slots are reused, so nothing in
+ * here may be kept after the slot has been handed back.
+ */
+public class Frame {
+    public static final int ROWS = 27;
+    public static final int COLUMNS = 15;
+    public static final int SIZE = ROWS * COLUMNS;
+    // Largest number of stages a FramePipeline can have
+    public static final int MAX_STAGES = 8;
+
+    // matrix[y * COLUMNS + x]
+    public final int[] matrix = new int[SIZE];
+    // Sensor timestamp in ms, same as CapacitiveImageTS.getTimestamp()
+    public long timestamp;
+    // System.nanoTime() and System.currentTimeMillis() when the frame was received
+    public long receivedNanos;
+    public long receivedMillis;
+    // Number of the frame, counting every frame offered to the ring buffer including dropped ones
+    public long sequence;
+    // Frame the matrix was read from, for code that still needs the libftsp type.
+    public CapacitiveImageTS source;
+
+    // Set by the IdleCheckStage, if the pipeline has one
+    public int maxValue;
+    public long matrixHash;
+    // No value above the touch threshold
+    public boolean empty;
+    // Same matrix as the previous frame
+    public boolean unchanged;
+
+    // Blob scratch space, see ensureBlobCapacity()
+    public int blobCount;
+    // x1, y1, x2, y2 of every blob
+    public int[] blobBounds = new int[0];
+    public float[] blobImages = new float[0];
+    // Track ID of every blob, -1 if it has none, set by the BlobTrackingStage
+    public int[] blobTracks = new int[0];
+    public boolean tracked;
+    public BlobFeatures[] blobFeatures = new BlobFeatures[0];
+    // Class index and confidence of every blob, see ClassificationStage
+    public int[] blobClasses = new int[0];
+    public float[] blobConfidences = new float[0];
+    // Set by the ClassificationStage if the blobs were not classified, see FrameSkipController
+    public boolean classificationSkipped;
+    // Set by the PalmDecisionStage if this frame triggered a palm touch, with the track of the
+    // palm or -1 if the frame is not tracked
+    public boolean palmTouch;
+    public int palmTouchTrack;
+
+    // Time spent in each stage of the FramePipeline
+    public final long[] stageNanos = new long[MAX_STAGES];
+
+    /**
+     * Reads the matrix and the timestamp of the given image without the intermediate strings
+     * and arrays of CapacitiveImageTS.getMatrix(). The image is a line of the form
+     * "seconds,nanoseconds,value0,...,value404"; values that cannot be parsed are 0 like in
+     * getMatrix().
+     */
+    public void set(CapacitiveImageTS capImg, long receivedNanos) {
+        String line = capImg.toString();
+        int length = line.length();
+
+        int pos = 0;
+        long seconds = 0;
+        while (pos < length && line.charAt(pos) != ',') {
+            seconds = seconds * 10 + (line.charAt(pos++) - '0');
+        }
+        pos++;
+
+        // Milliseconds are the first three digits of the nanoseconds.
+        long millis = 0;
+        int digits = 0;
+        while (pos < length && line.charAt(pos) != ',') {
+            if (digits++ < 3) {
+                millis = millis * 10 + (line.charAt(pos) - '0');
+            }
+            pos++;
+        }
+        pos++;
+
+        timestamp = seconds * 1000 + millis;
+        this.receivedNanos = receivedNanos;
+        receivedMillis = System.currentTimeMillis();
+        source = capImg;
+        empty = false;
+        unchanged = false;
+        blobCount = 0;
+        tracked = false;
+        classificationSkipped = false;
+        palmTouch = false;
+        palmTouchTrack = -1;
+
+        for (int i = 0; i < SIZE; i++) {
+            int value = 0;
+            boolean negative = false;
+            boolean valid = pos < length;
+            if (valid && line.charAt(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+
+            int start = pos;
+            while (pos < length && line.charAt(pos) != ',') {
+                char c = line.charAt(pos++);
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                } else if (c != '\r' && c != '\n' && c != ' ') {
+                    valid = false;
+                }
+            }
+            pos++;
+
+            matrix[i] = valid && pos - 1 > start ? (negative ? -value : value) : 0;
+        }
+    }
+
+    /**
+     * @return Time from the capture of the frame, as given by its timestamp, until nowNanos
+     * (a System.nanoTime() value). The timestamp is wall-clock time in ms, so only the part up
+     * to the reception has ms resolution, and if the clocks disagree so that the frame seems
+     * to be received before it was captured, that part is 0.
+     */
+    public long nanosSinceCapture(long nowNanos) {
+        return Math.max(0, receivedMillis - timestamp) * 1000000 + nowNanos - receivedNanos;
+    }
+
+    /**
+     * Grows the blob scratch space to hold at least count blobs. Once it has seen the
+     * largest number of blobs, a slot does not allocate anymore.
+     */
+    public void ensureBlobCapacity(int count) {
+        if (blobFeatures.length >= count) {
+            return;
+        }
+
+        int capacity = Math.max(count, 2 * blobFeatures.length);
+        // The bounds are filled blob by blob while detecting, keep them.
+        int[] bounds = new int[4 * capacity];
+        System.arraycopy(blobBounds, 0, bounds, 0, blobBounds.length);
+        blobBounds = bounds;
+
+        blobImages = new float[capacity * BlobExtractor.BLOB_SIZE];
+        blobTracks = new int[capacity];
+        blobClasses = new int[capacity];
+        blobConfidences = new float[capacity];
+
+        BlobFeatures[] features = new BlobFeatures[capacity];
+        System.arraycopy(blobFeatures, 0, features, 0, blobFeatures.length);
+        for (int i = blobFeatures.length; i < capacity; i++) {
+            features[i] = new BlobFeatures();
+        }
+        blobFeatures = features;
+    }
+}
@@ -0,0 +1,214 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Runs frames from a FrameRingBuffer through a sequence of stages, typically
+ * detect -> extract -> classify -> decide.
+ *
+ * Single-threaded, one thread runs all stages of a frame before it takes the next one.
+ * Threaded, every stage has its own thread and the stages are connected by small blocking
+ * rings, so frame N + 1 can be detected while frame N is classified. Frames are never dropped
+ * or reordered between stages, so both modes produce the same results; only the input ring
+ * drops frames according to its policy.
+ *
+ * The time every stage takes is measured with System.nanoTime(), stored in
+ * Frame.stageNanos and summed up per stage. In addition, LatencyHistograms are kept of
+ * - capture: capture of the frame (its timestamp) until it was put into the input ring,
+ * - queue: time the frame waited in the input ring,
+ * - every stage,
+ * - total: capture of the frame until the last stage is done with it.
+ */
+public class FramePipeline {
+    // Frames that can wait between two stages
+    private static final int STAGE_QUEUE_CAPACITY = 2;
+
+    private final FrameRingBuffer input;
+    private final Stage[] stages;
+
+    // Per stage, each written by the thread that runs the stage only
+    private final long[] frameCounts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+
+    private final LatencyHistogram captureLatency = new LatencyHistogram("capture");
+    private final LatencyHistogram queueLatency = new LatencyHistogram("queue");
+    private final LatencyHistogram[] stageLatencies;
+    private final LatencyHistogram totalLatency = new LatencyHistogram("total");
+
+    private Thread[] threads;
+
+    public FramePipeline(FrameRingBuffer input, Stage... stages) {
+        if (stages.length == 0 || stages.length > Frame.MAX_STAGES) {
+            throw new IllegalArgumentException("A pipeline needs 1 to " + Frame.MAX_STAGES + " stages.");
+        }
+
+        this.input = input;
+        this.stages = stages.clone();
+        frameCounts = new long[stages.length];
+        totalNanos = new long[stages.length];
+        maxNanos = new long[stages.length];
+        stageLatencies = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            stageLatencies[i] = new LatencyHistogram(stages[i].getName());
+        }
+    }
+
+    /**
+     * Starts processing the frames of the input ring.
+     *
+     * @param threaded True to run every stage on its own thread.
+     */
+    public synchronized void start(boolean threaded) {
+        if (threads != null) {
+            throw new IllegalStateException("Pipeline has already been started.");
+        }
+
+        if (!threaded) {
+            threads = new Thread[]{new Thread(new Worker(input, 0, stages.length, null), "FramePipeline")};
+        } else {
+            threads = new Thread[stages.length];
+            FrameRingBuffer in = input;
+            for (int i = 0; i < stages.length; i++) {
+                FrameRingBuffer out = i + 1 < stages.length
+                        ? new FrameRingBuffer(STAGE_QUEUE_CAPACITY, FrameRingBuffer.BLOCK) : null;
+                threads[i] = new Thread(new Worker(in, i, i + 1, out), "FramePipeline-" + stages[i].getName());
+                in = out;
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops all threads and waits up to timeoutMillis for each of them to finish its frame.
+     */
+    public synchronized void stop(long timeoutMillis) {
+        if (threads == null) {
+            return;
+        }
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join(timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public Stage getStage(int index) {
+        return stages[index];
+    }
+
+    public long getFrameCount(int stage) {
+        return frameCounts[stage];
+    }
+
+    public long getTotalNanos(int stage) {
+        return totalNanos[stage];
+    }
+
+    public long getMaxNanos(int stage) {
+        return maxNanos[stage];
+    }
+
+    /**
+     * @return The capture, queue, stage and total latency histograms, in this order.
+     */
+    public LatencyHistogram[] getLatencyHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[stages.length + 3];
+        histograms[0] = captureLatency;
+        histograms[1] = queueLatency;
+        System.arraycopy(stageLatencies, 0, histograms, 2, stages.length);
+        histograms[stages.length + 2] = totalLatency;
+        return histograms;
+    }
+
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FramePipeline:");
+        for (int i = 0; i < stages.length; i++) {
+            long count = frameCounts[i];
+            sb.append(String.format(Locale.US, " %s %.3f ms avg. / %.3f ms max. (%d frames)%s",
+                    stages[i].getName(), count > 0 ? totalNanos[i] / 1e6 / count : 0.0, maxNanos[i] / 1e6, count,
+                    i + 1 < stages.length ? "," : ""));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the stages first ... last - 1 on the frames of in and passes them on to out, if any.
+     */
+    private class Worker implements Runnable {
+        private final FrameRingBuffer in;
+        private final int first;
+        private final int last;
+        private final FrameRingBuffer out;
+
+        Worker(FrameRingBuffer in, int first, int last, FrameRingBuffer out) {
+            this.in = in;
+            this.first = first;
+            this.last = last;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Frame frame = in.take();
+
+                    long start = System.nanoTime();
+                    if (first == 0) {
+                        captureLatency.recordNanos(frame.nanosSinceCapture(frame.receivedNanos));
+                        queueLatency.recordNanos(start - frame.receivedNanos);
+                    }
+
+                    for (int i = first; i < last; i++) {
+                        stages[i].process(frame);
+                        long end = System.nanoTime();
+                        long nanos = end - start;
+                        start = end;
+
+                        stageLatencies[i].recordNanos(nanos);
+                        frame.stageNanos[i] = nanos;
+                        frameCounts[i]++;
+                        totalNanos[i] += nanos;
+                        if (nanos > maxNanos[i]) {
+                            maxNanos[i] = nanos;
+                        }
+                    }
+
+                    if (last == stages.length) {
+                        totalLatency.recordNanos(frame.nanosSinceCapture(start));
+                    }
+
+                    if (out != null) {
+                        Frame free = out.exchange(frame);
+                        if (free == frame) {
+                            // Interrupted while waiting for the next stage
+                            return;
+                        }
+                        in.recycle(free);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer queue of preallocated Frames between the libftsp
+ * listener and the processing thread. Nothing is allocated per frame.
+ *
+ * Producer (one thread):
+ *   Frame frame = ring.claim();
+ *   if (frame != null) { frame.set(capImg, System.nanoTime()); ring.publish(); }
+ *
+ * Consumer (one thread):
+ *   Frame frame = ring.take();   // or poll()
+ *   ... the frame stays valid until the next take() or poll()
+ *
+ * Rings can be chained: a consumer passes its frame to the next ring with exchange() and
+ * returns the free frame it gets back with recycle().
+ *
+ * Every slot has a sequence number, as in Dmitry Vyukov's bounded queue: the slot for
+ * position p is free for the producer if its sequence is p and ready for the consumer if it
+ * is p + 1. The consumer does not process frames inside the ring but swaps the ready frame
+ * with a spare one, so a slot is only ever held for a few instructions. This is what allows
+ * the producer to drop the oldest frame when the ring is full: it takes the slot over with the
+ * same compare-and-set the consumer uses to take it.
+ */
+public class FrameRingBuffer {
+    // What claim() does if all slots hold frames that have not been taken yet.
+    public static final int DROP_OLDEST = 0;
+    public static final int DROP_NEWEST = 1;
+    public static final int BLOCK = 2;
+
+    // Sequence of a slot while its frame is being swapped out.
+    private static final long TAKING = -1;
+    private static final long PARK_NANOS = 100000;
+
+    private final int capacity;
+    private final int mask;
+    private final int overflowPolicy;
+    private final Frame[] frames;
+    private final AtomicLongArray sequences;
+
+    // Next position to read, advanced by the consumer and, when dropping, the producer.
+    private final AtomicLong head = new AtomicLong();
+    // Next position to write, producer only
+    private volatile long tail;
+
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    // Producer only
+    private Frame claimed;
+    private long offered;
+    private volatile long droppedOldest;
+    private volatile long droppedNewest;
+    private volatile long blocked;
+    private volatile int maxDepth;
+
+    // Consumer only
+    private Frame spare;
+    private volatile long consumed;
+    private volatile long starved;
+
+    /**
+     * @param capacity       Number of frames that can be queued, rounded up to a power of two
+     *                       (at least 2).
+     * @param overflowPolicy DROP_OLDEST, DROP_NEWEST or BLOCK.
+     */
+    public FrameRingBuffer(int capacity, int overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        if (overflowPolicy < DROP_OLDEST || overflowPolicy > BLOCK) {
+            throw new IllegalArgumentException("Unknown overflow policy " + overflowPolicy);
+        }
+
+        // With a single slot, "ready for position p" and "free for position p + 1" would
+        // have the same sequence.
+        int size = Integer.highestOneBit(Math.max(capacity, 2));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+
+        frames = new Frame[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            frames[i] = new Frame();
+            sequences.set(i, i);
+        }
+        spare = new Frame();
+    }
+
+    /**
+     * Returns the frame to fill next, which becomes visible to the consumer with publish().
+     * If the ring is full, the overflow policy decides: the oldest queued frame is dropped,
+     * the new frame is dropped (null is returned) or the call waits for the consumer (null is
+     * returned if the thread is interrupted).
+     */
+    public Frame claim() {
+        long position = tail;
+        int index = (int) position & mask;
+        offered++;
+
+        boolean waited = false;
+        while (sequences.get(index) != position) {
+            if (overflowPolicy == DROP_NEWEST) {
+                droppedNewest++;
+                return null;
+            } else if (overflowPolicy == DROP_OLDEST) {
+                // The slot holds the frame from one round earlier, take it over unless the
+                // consumer got there first.
+                long oldest = position - capacity;
+                if (sequences.compareAndSet(index, oldest + 1, TAKING)) {
+                    head.compareAndSet(oldest, oldest + 1);
+                    sequences.set(index, position);
+                    droppedOldest++;
+                }
+            } else {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+
+                if (!waited) {
+                    waited = true;
+                    blocked++;
+                }
+                waitingProducer = Thread.currentThread();
+                if (sequences.get(index) != position) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waitingProducer = null;
+            }
+        }
+
+        claimed = frames[index];
+        claimed.sequence = offered - 1;
+        return claimed;
+    }
+
+    /**
+     * Makes the frame returned by the last claim() available to the consumer.
+     */
+    public void publish() {
+        if (claimed == null) {
+            throw new IllegalStateException("No frame has been claimed.");
+        }
+        claimed = null;
+
+        long position = tail;
+        sequences.set((int) position & mask, position + 1);
+        tail = position + 1;
+
+        int depth = (int) Math.min(position + 1 - head.get(), capacity);
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Queues the given frame itself instead of filling a slot, for a consumer of another ring
+     * that passes its frame on. The frame that was in the slot is returned in exchange and
+     * has to go back to the other ring with recycle(). If the frame is dropped (see claim()),
+     * it is returned itself.
+     */
+    public Frame exchange(Frame frame) {
+        Frame free = claim();
+        if (free == null) {
+            return frame;
+        }
+
+        // The frame keeps the sequence number of the ring it came from.
+        frames[(int) tail & mask] = frame;
+        claimed = frame;
+        publish();
+        return free;
+    }
+
+    /**
+     * Replaces the frame returned by the last poll() or take(), after it was handed on with
+     * exchange(). The given frame is used as spare instead.
+     */
+    public void recycle(Frame frame) {
+        spare = frame;
+    }
+
+    /**
+     * @return The oldest queued frame or null if there is none. The frame may be used until
+     * the next call of poll() or take().
+     */
+    public Frame poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position + 1) {
+                if (!sequences.compareAndSet(index, position + 1, TAKING)) {
+                    // The producer dropped this frame, try the next one.
+                    continue;
+                }
+
+                Frame frame = frames[index];
+                frames[index] = spare;
+                spare = frame;
+
+                head.compareAndSet(position, position + 1);
+                sequences.set(index, position + capacity);
+                consumed++;
+
+                Thread producer = waitingProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+                return frame;
+            } else if (sequence == TAKING) {
+                // The producer is dropping this frame right now.
+                continue;
+            } else if (sequence > position + 1) {
+                // Dropped while this thread was taking the previous frame, so the producer
+                // could not move the head past it.
+                head.compareAndSet(position, position + 1);
+                continue;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Same as poll(), but waits for a frame.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public Frame take() throws InterruptedException {
+        Frame frame = poll();
+        if (frame == null) {
+            starved++;
+        }
+        while (frame == null) {
+            waitingConsumer = Thread.currentThread();
+            frame = poll();
+            if (frame == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    waitingConsumer = null;
+                    throw new InterruptedException();
+                }
+                frame = poll();
+            }
+            waitingConsumer = null;
+        }
+        return frame;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of queued frames.
+     */
+    public int size() {
+        long depth = tail - head.get();
+        return (int) Math.max(0, Math.min(depth, capacity));
+    }
+
+    /**
+     * @return Largest number of queued frames so far.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getConsumed() {
+        return consumed;
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest;
+    }
+
+    public long getDroppedNewest() {
+        return droppedNewest;
+    }
+
+    /**
+     * @return Number of claim() calls that had to wait for a free slot (BLOCK only).
+     */
+    public long getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * @return Number of take() calls that had to wait for a frame.
+     */
+    public long getStarved() {
+        return starved;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameRingBuffer: " + consumed + " frames consumed, " + droppedOldest + " oldest and "
+                + droppedNewest + " newest dropped, " + blocked + " blocked claims, " + starved + " waiting takes, "
+                + "depth " + size() + "/" + capacity + " (max. " + maxDepth + ")";
+    }
+}
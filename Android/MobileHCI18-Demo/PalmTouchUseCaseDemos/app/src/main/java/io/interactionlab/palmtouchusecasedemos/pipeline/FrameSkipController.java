@@ -0,0 +1,118 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Decides which frames the ClassificationStage may skip when classification cannot keep up
+ * with the sensor. Blob detection still runs on every frame, only the model is skipped.
+ *
+ * The controller keeps moving averages of the sensor period, measured between the received
+ * frames, and of the time classification takes. If classification needs more than
+ * UTILIZATION of the period, only every stride-th frame with blobs is classified, with the
+ * stride just large enough to fit. Independently, frames that waited more than LATE_PERIODS
+ * periods, e.g. after a pause of the garbage collector, are skipped until the backlog is
+ * gone. Both stop on their own once classification is fast enough again, and at least every
+ * MAX_STRIDE-th frame is classified in any case.
+ *
+ * Must be used by the thread of the ClassificationStage only, the metrics can be read from
+ * any thread.
+ */
+public class FrameSkipController {
+    // Share of the sensor period classification may take on average
+    private static final double UTILIZATION = 0.8;
+    private static final double LATE_PERIODS = 2;
+    private static final int MAX_STRIDE = 4;
+    // Weight of a new measurement in the moving averages
+    private static final double SMOOTHING = 0.1;
+
+    private double periodNanos;
+    private double classificationNanos;
+    private long lastSequence = -1;
+    private long lastReceivedNanos;
+    // Frames with blobs skipped since the last classified one
+    private int skippedInRow;
+
+    private volatile int stride = 1;
+    private volatile long frameCount;
+    private volatile long skippedFrames;
+    private volatile long lateFrames;
+
+    /**
+     * @param nowNanos System.nanoTime() when the frame reached the classification.
+     * @return False if the classification of the frame should be skipped.
+     */
+    public boolean shouldClassify(Frame frame, long nowNanos) {
+        frameCount++;
+
+        // The sequence numbers count the frames dropped in the ring buffer, too.
+        if (lastSequence >= 0 && frame.sequence > lastSequence && frame.receivedNanos > lastReceivedNanos) {
+            double interval = (double) (frame.receivedNanos - lastReceivedNanos) / (frame.sequence - lastSequence);
+            periodNanos = periodNanos == 0 ? interval : periodNanos + SMOOTHING * (interval - periodNanos);
+        }
+        lastSequence = frame.sequence;
+        lastReceivedNanos = frame.receivedNanos;
+
+        if (frame.blobCount == 0 || periodNanos == 0) {
+            // Nothing to save
+            return true;
+        }
+
+        int needed = (int) Math.ceil(classificationNanos / (UTILIZATION * periodNanos));
+        stride = Math.max(1, Math.min(MAX_STRIDE, needed));
+        boolean late = nowNanos - frame.receivedNanos > LATE_PERIODS * periodNanos;
+
+        if (skippedInRow + 1 < MAX_STRIDE && (skippedInRow + 1 < stride || late)) {
+            skippedInRow++;
+            skippedFrames++;
+            if (late) {
+                lateFrames++;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports the time the classification of a frame took.
+     */
+    public void classified(Frame frame, long nanos) {
+        if (frame.blobCount == 0) {
+            return;
+        }
+
+        classificationNanos = classificationNanos == 0 ? nanos : classificationNanos + SMOOTHING * (nanos - classificationNanos);
+        skippedInRow = 0;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Number of frames whose classification was skipped.
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return Number of skipped frames that were skipped because they were late.
+     */
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * @return Current stride, 1 if every frame is classified.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "FrameSkipController: %d of %d frames skipped (%d late), stride %d, "
+                        + "period %.1f ms, classification %.1f ms",
+                skippedFrames, frameCount, lateFrames, stride, periodNanos / 1e6, classificationNanos / 1e6);
+    }
+}
@@ -0,0 +1,100 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+
+/**
+ * Cheap check in front of the blob detection for the frames that make up most of the
+ * stream: frames without any touch, and frames identical to the previous one.
+ *
+ * In one pass over the matrix the largest value and a hash are computed into Frame.maxValue
+ * and Frame.matrixHash. A frame whose largest value is not above the touch threshold cannot
+ * contain a blob and is marked Frame.empty. A frame with the hash of the previous frame is
+ * compared with it and, if identical, marked Frame.unchanged. The following stages take these
+ * shortcuts:
+ * - BlobDetectionStage: no blobs for an empty frame, the blobs of the previous frame for an
+ *   unchanged one,
+ * - ClassificationStage: the classes of the previous frame for an unchanged one, if it was
+ *   classified.
+ * Everything else runs as before, so the palm decision and the recording see every frame.
+ *
+ * Must be the first stage of the pipeline.
+ */
+public class IdleCheckStage implements Stage {
+    private static final long HASH_MULTIPLIER = 0x100000001b3L;
+
+    private final int[] previous = new int[Frame.SIZE];
+    private boolean hasPrevious;
+    private long previousHash;
+
+    private volatile long frameCount;
+    private volatile long emptyFrames;
+    private volatile long unchangedFrames;
+
+    @Override
+    public String getName() {
+        return "idle";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        int[] matrix = frame.matrix;
+
+        int max = Integer.MIN_VALUE;
+        long hash = 0;
+        for (int i = 0; i < Frame.SIZE; i++) {
+            int v = matrix[i];
+            if (v > max) {
+                max = v;
+            }
+            hash = (hash + v) * HASH_MULTIPLIER;
+        }
+
+        frame.maxValue = max;
+        frame.matrixHash = hash;
+        frame.empty = max <= BlobExtractor.TOUCH_THRESHOLD;
+        // The hash only rules frames out, equal hashes are confirmed on the matrix.
+        frame.unchanged = hasPrevious && hash == previousHash && Arrays.equals(matrix, previous);
+
+        frameCount++;
+        if (frame.empty) {
+            emptyFrames++;
+        } else if (frame.unchanged) {
+            unchangedFrames++;
+        }
+
+        if (!frame.unchanged) {
+            System.arraycopy(matrix, 0, previous, 0, Frame.SIZE);
+            previousHash = hash;
+            hasPrevious = true;
+        }
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Number of frames without any value above the touch threshold.
+     */
+    public long getEmptyFrames() {
+        return emptyFrames;
+    }
+
+    /**
+     * @return Number of frames identical to the previous one, not counting empty frames.
+     */
+    public long getUnchangedFrames() {
+        return unchangedFrames;
+    }
+
+    @Override
+    public String toString() {
+        long count = frameCount;
+        return String.format(Locale.US, "IdleCheckStage: %d frames, %d empty (%.1f%%), %d unchanged (%.1f%%)",
+                count, emptyFrames, count > 0 ? 100.0 * emptyFrames / count : 0.0,
+                unchangedFrames, count > 0 ? 100.0 * unchangedFrames / count : 0.0);
+    }
+}
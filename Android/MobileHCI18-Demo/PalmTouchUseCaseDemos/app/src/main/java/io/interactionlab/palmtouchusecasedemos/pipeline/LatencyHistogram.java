@@ -0,0 +1,176 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of latencies with logarithmic buckets, cheap enough to record every
+ * frame in release builds: record() is a few shifts and one array increment, and nothing is
+ * allocated after construction.
+ *
+ * Values are recorded in microseconds. Below SUB_BUCKETS every microsecond has its own
+ * bucket, above that every power of two is split into SUB_BUCKETS buckets, so a bucket is at
+ * most 1 / SUB_BUCKETS (about 6%) wider than its lower bound. Values up to MAX_MICROS fit,
+ * larger ones are counted in the last bucket. The maximum is tracked exactly.
+ *
+ * Each histogram must be recorded by one thread only. Snapshots can be taken from any thread
+ * at any time; they may miss the values recorded while the snapshot is taken.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31;
+    public static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long totalMicros;
+    private volatile long maxMicros;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        int index = bucketOf(micros);
+        // Single writer, so an ordered store is enough and much cheaper than incrementAndGet.
+        counts.lazySet(index, counts.get(index) + 1);
+        totalMicros += micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+        count++;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        if (micros > MAX_MICROS) {
+            return BUCKETS - 1;
+        }
+
+        // The top SUB_BUCKET_BITS + 1 bits select the bucket.
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return The largest value that falls into the given bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Fills in the given snapshot, so periodic reports can reuse their bucket arrays.
+     */
+    public void snapshot(Snapshot snapshot) {
+        long total = 0;
+        long[] buckets = snapshot.buckets;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            total += buckets[i];
+        }
+
+        snapshot.name = name;
+        snapshot.count = total;
+        snapshot.maxMicros = maxMicros;
+        snapshot.meanMicros = count > 0 ? (double) totalMicros / count : 0;
+        snapshot.p50Micros = snapshot.percentile(0.50);
+        snapshot.p90Micros = snapshot.percentile(0.90);
+        snapshot.p99Micros = snapshot.percentile(0.99);
+    }
+
+    /**
+     * Clears the histogram. Like record(), this must be called on the recording thread.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        count = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * Percentiles of a histogram at one point in time. The percentiles are the upper bounds
+     * of their buckets, capped at the maximum, so they never understate the latency.
+     */
+    public static class Snapshot {
+        private final long[] buckets = new long[BUCKETS];
+
+        public String name;
+        public long count;
+        public double meanMicros;
+        public long p50Micros;
+        public long p90Micros;
+        public long p99Micros;
+        public long maxMicros;
+
+        private long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        /**
+         * Appends the non-empty buckets as "upper bound in us: count" lines, for the dump file.
+         */
+        public void appendBuckets(StringBuilder sb) {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (buckets[i] > 0) {
+                    sb.append("  <= ").append(upperBoundOf(i)).append(" us: ").append(buckets[i]).append('\n');
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s p50 %.1f / p90 %.1f / p99 %.1f / max %.1f ms (%d)",
+                    name, p50Micros / 1e3, p90Micros / 1e3, p99Micros / 1e3, maxMicros / 1e3, count);
+        }
+    }
+}
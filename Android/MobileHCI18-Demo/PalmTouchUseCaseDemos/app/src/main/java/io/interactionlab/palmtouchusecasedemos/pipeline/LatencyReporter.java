@@ -0,0 +1,59 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Summarizes a set of LatencyHistograms, as one line for the periodic log and as a text file
+ * with all buckets. The snapshots are allocated once and reused for every report.
+ */
+public class LatencyReporter {
+    private final LatencyHistogram[] histograms;
+    private final LatencyHistogram.Snapshot[] snapshots;
+    private final StringBuilder sb = new StringBuilder();
+
+    public LatencyReporter(LatencyHistogram... histograms) {
+        this.histograms = histograms.clone();
+        snapshots = new LatencyHistogram.Snapshot[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            snapshots[i] = new LatencyHistogram.Snapshot();
+        }
+    }
+
+    /**
+     * @return p50/p90/p99/max of every histogram on one line, e.g. for Log.i().
+     */
+    public synchronized String summary() {
+        sb.setLength(0);
+        sb.append("Latency:");
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].snapshot(snapshots[i]);
+            sb.append(i == 0 ? " " : ", ").append(snapshots[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the summary and the buckets of every histogram to the given file, replacing it.
+     */
+    public synchronized void dump(File file) throws IOException {
+        sb.setLength(0);
+        sb.append("# ").append(new Date()).append('\n');
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].snapshot(snapshots[i]);
+            sb.append(snapshots[i]).append(String.format(Locale.US, ", mean %.3f ms%n", snapshots[i].meanMicros / 1e3));
+            snapshots[i].appendBuckets(sb);
+        }
+
+        Writer out = new FileWriter(file);
+        try {
+            out.write(sb.toString());
+        } finally {
+            out.close();
+        }
+    }
+}
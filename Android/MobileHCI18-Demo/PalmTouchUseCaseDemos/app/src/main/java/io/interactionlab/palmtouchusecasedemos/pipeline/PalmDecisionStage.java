@@ -0,0 +1,156 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Triggers a palm touch once a palm has been seen in the given number of consecutive frames.
+ * A palm that stays on the screen triggers only once.
+ *
+ * In tracked frames (see BlobTrackingStage) every track has its own counter, so a palm touch
+ * needs the same blob to be classified as palm in consecutive frames: a palm that is lifted
+ * while another palm appears elsewhere does not add up, and a finger next to a resting palm
+ * does not interrupt it. Blobs without a track start from zero in every frame. Frames without
+ * tracking share one counter for all blobs.
+ *
+ * Frames whose classification was skipped (see FrameSkipController) are not counted: they
+ * neither extend nor break a sequence of palm frames, unless they have no blobs at all, in
+ * which case there cannot be a palm and the sequence ends.
+ *
+ * The listener also hears of the first palm frame of a sequence that needs more than one, so
+ * it can prepare the palm touch action while the remaining frames arrive.
+ */
+public class PalmDecisionStage implements Stage {
+    public static final int PALM_CLASS = 1;
+
+    public interface Listener {
+        /**
+         * Called on the thread of the stage.
+         *
+         * @param frame Frame that completed the sequence of palm frames.
+         */
+        void onPalmTouch(Frame frame);
+
+        /**
+         * Called on the thread of the stage, at most once per frame and not for frames that
+         * trigger a palm touch.
+         *
+         * @param frame Frame that started a sequence of palm frames, which may or may not end
+         *              in a palm touch.
+         */
+        void onPalmSuspected(Frame frame);
+    }
+
+    private final int consecutivePalms;
+    private final Listener listener;
+
+    private int consecPalmCounter = 0;
+    // A sequence started in the current frame
+    private boolean suspected;
+
+    // Counters of the tracks in the previous frame and the current one
+    private int[] trackIds = new int[BlobTrackingStage.MAX_TRACKS];
+    private int[] trackCounters = new int[BlobTrackingStage.MAX_TRACKS];
+    private int trackCount;
+    private int[] nextTrackIds = new int[BlobTrackingStage.MAX_TRACKS];
+    private int[] nextTrackCounters = new int[BlobTrackingStage.MAX_TRACKS];
+
+    public PalmDecisionStage(int consecutivePalms, Listener listener) {
+        this.consecutivePalms = consecutivePalms;
+        this.listener = listener;
+    }
+
+    @Override
+    public String getName() {
+        return "decide";
+    }
+
+    @Override
+    public void process(Frame frame) {
+        if (frame.classificationSkipped) {
+            if (frame.blobCount == 0) {
+                consecPalmCounter = 0;
+                trackCount = 0;
+            }
+            return;
+        }
+
+        suspected = false;
+        boolean palmTouch = frame.tracked ? decideTracks(frame) : decideFrame(frame);
+        if (palmTouch) {
+            frame.palmTouch = true;
+            listener.onPalmTouch(frame);
+        } else if (suspected) {
+            listener.onPalmSuspected(frame);
+        }
+    }
+
+    /**
+     * @return True if one of the tracks has completed its sequence of palm frames.
+     */
+    private boolean decideTracks(Frame frame) {
+        if (nextTrackIds.length < frame.blobCount) {
+            nextTrackIds = Arrays.copyOf(nextTrackIds, frame.blobTracks.length);
+            nextTrackCounters = Arrays.copyOf(nextTrackCounters, frame.blobTracks.length);
+        }
+
+        boolean palmTouch = false;
+        int nextCount = 0;
+        for (int i = 0; i < frame.blobCount; i++) {
+            int id = frame.blobTracks[i];
+            int counter = frame.blobClasses[i] == PALM_CLASS ? counterOf(id) + 1 : 0;
+            if (counter == consecutivePalms && !palmTouch) {
+                palmTouch = true;
+                frame.palmTouchTrack = id;
+            } else if (counter == 1) {
+                suspected = true;
+            }
+            if (id >= 0) {
+                nextTrackIds[nextCount] = id;
+                nextTrackCounters[nextCount++] = counter;
+            }
+        }
+
+        // Tracks that are not in this frame are dropped, which ends their sequences.
+        int[] ids = trackIds;
+        int[] counters = trackCounters;
+        trackIds = nextTrackIds;
+        trackCounters = nextTrackCounters;
+        trackCount = nextCount;
+        nextTrackIds = ids;
+        nextTrackCounters = counters;
+        return palmTouch;
+    }
+
+    private int counterOf(int id) {
+        if (id < 0) {
+            return 0;
+        }
+        for (int t = 0; t < trackCount; t++) {
+            if (trackIds[t] == id) {
+                return trackCounters[t];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return True if the frames with palms have completed the sequence.
+     */
+    private boolean decideFrame(Frame frame) {
+        boolean palmAvailable = false;
+        for (int i = 0; i < frame.blobCount; i++) {
+            if (frame.blobClasses[i] == PALM_CLASS) {
+                palmAvailable = true;
+            }
+        }
+
+        if (palmAvailable) {
+            consecPalmCounter++;
+        } else {
+            consecPalmCounter = 0;
+        }
+
+        suspected = consecPalmCounter == 1;
+        return consecPalmCounter == consecutivePalms;
+    }
+}
@@ -0,0 +1,203 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Alternative to the PalmDecisionStage that weighs the confidence of the classifier instead of
+ * counting frames: a very confident palm triggers in its first frame, a borderline one only
+ * after several frames.
+ *
+ * Every frame adds the log-odds of its palm probability, log(p / (1 - p)), to the evidence of
+ * the blob, which never drops below zero (a CUSUM test, i.e. a sequential probability ratio
+ * test that starts over whenever the evidence against a palm wins). Once the evidence reaches
+ * the bound, a palm touch is triggered. A palm that stays on the screen triggers only once:
+ * afterwards the evidence is held at the bound and the next palm touch needs it to drop back
+ * to zero first.
+ *
+ * In tracked frames (see BlobTrackingStage) every track has its own evidence, blobs without a
+ * track start from zero in every frame. Frames without tracking share one evidence for the
+ * most palm-like blob. The state per track is one number and a flag.
+ *
+ * Frames whose classification was skipped (see FrameSkipController) add no evidence, unless
+ * they have no blobs at all, which ends every sequence.
+ *
+ * The listener hears of a suspected palm when evidence builds up from zero without reaching
+ * the bound in the same frame.
+ */
+public class PalmEvidenceStage implements Stage {
+    // Log-odds of 0.99: one frame at 0.99, two at 0.91 or three at 0.83
+    public static final double DEFAULT_BOUND = 4.6;
+    // Probabilities are clamped to MIN_PROBABILITY ... 1 - MIN_PROBABILITY, so a single frame
+    // adds at most about 9.2.
+    private static final double MIN_PROBABILITY = 1e-4;
+
+    private final double bound;
+    private final PalmDecisionStage.Listener listener;
+
+    // Evidence of frames without tracking
+    private double frameEvidence;
+    private boolean frameTriggered;
+
+    // Evidence of the tracks in the previous frame and the current one
+    private int[] trackIds = new int[BlobTrackingStage.MAX_TRACKS];
+    private double[] trackEvidence = new double[BlobTrackingStage.MAX_TRACKS];
+    private boolean[] trackTriggered = new boolean[BlobTrackingStage.MAX_TRACKS];
+    private int trackCount;
+    private int[] nextTrackIds = new int[BlobTrackingStage.MAX_TRACKS];
+    private double[] nextTrackEvidence = new double[BlobTrackingStage.MAX_TRACKS];
+    private boolean[] nextTrackTriggered = new boolean[BlobTrackingStage.MAX_TRACKS];
+
+    // Result of update()
+    private double evidence;
+    private boolean triggered;
+    // Evidence started to build up in the current frame
+    private boolean suspected;
+
+    public PalmEvidenceStage(PalmDecisionStage.Listener listener) {
+        this(DEFAULT_BOUND, listener);
+    }
+
+    /**
+     * @param bound Evidence in log-odds at which a palm touch is triggered.
+     */
+    public PalmEvidenceStage(double bound, PalmDecisionStage.Listener listener) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive.");
+        }
+
+        this.bound = bound;
+        this.listener = listener;
+    }
+
+    @Override
+    public String getName() {
+        return "decide";
+    }
+
+    public double getBound() {
+        return bound;
+    }
+
+    @Override
+    public void process(Frame frame) {
+        if (frame.classificationSkipped) {
+            if (frame.blobCount == 0) {
+                frameEvidence = 0;
+                frameTriggered = false;
+                trackCount = 0;
+            }
+            return;
+        }
+
+        suspected = false;
+        boolean palmTouch = frame.tracked ? decideTracks(frame) : decideFrame(frame);
+        if (palmTouch) {
+            frame.palmTouch = true;
+            listener.onPalmTouch(frame);
+        } else if (suspected) {
+            listener.onPalmSuspected(frame);
+        }
+    }
+
+    private boolean decideTracks(Frame frame) {
+        if (nextTrackIds.length < frame.blobCount) {
+            nextTrackIds = Arrays.copyOf(nextTrackIds, frame.blobTracks.length);
+            nextTrackEvidence = Arrays.copyOf(nextTrackEvidence, frame.blobTracks.length);
+            nextTrackTriggered = Arrays.copyOf(nextTrackTriggered, frame.blobTracks.length);
+        }
+
+        boolean palmTouch = false;
+        int nextCount = 0;
+        for (int i = 0; i < frame.blobCount; i++) {
+            int id = frame.blobTracks[i];
+            int t = indexOf(id);
+            boolean fired = update(t >= 0 ? trackEvidence[t] : 0, t >= 0 && trackTriggered[t],
+                    palmProbability(frame, i));
+            if (fired && !palmTouch) {
+                palmTouch = true;
+                frame.palmTouchTrack = id;
+            }
+            if (id >= 0) {
+                nextTrackIds[nextCount] = id;
+                nextTrackEvidence[nextCount] = evidence;
+                nextTrackTriggered[nextCount++] = triggered;
+            }
+        }
+
+        // Tracks that are not in this frame are dropped, which ends their sequences.
+        int[] ids = trackIds;
+        double[] evidences = trackEvidence;
+        boolean[] triggers = trackTriggered;
+        trackIds = nextTrackIds;
+        trackEvidence = nextTrackEvidence;
+        trackTriggered = nextTrackTriggered;
+        trackCount = nextCount;
+        nextTrackIds = ids;
+        nextTrackEvidence = evidences;
+        nextTrackTriggered = triggers;
+        return palmTouch;
+    }
+
+    private boolean decideFrame(Frame frame) {
+        double p = 0;
+        for (int i = 0; i < frame.blobCount; i++) {
+            p = Math.max(p, palmProbability(frame, i));
+        }
+
+        boolean fired = update(frameEvidence, frameTriggered, frame.blobCount > 0 ? p : 0);
+        frameEvidence = evidence;
+        frameTriggered = triggered;
+        if (fired) {
+            frame.palmTouchTrack = -1;
+        }
+        return fired;
+    }
+
+    /**
+     * Adds the evidence of a frame with the palm probability p to the given state and stores
+     * the new state in evidence and triggered.
+     *
+     * @return True if the bound has been reached with this frame.
+     */
+    private boolean update(double previousEvidence, boolean previouslyTriggered, double p) {
+        p = Math.min(1 - MIN_PROBABILITY, Math.max(MIN_PROBABILITY, p));
+        evidence = Math.max(0, previousEvidence + Math.log(p / (1 - p)));
+        triggered = previouslyTriggered;
+
+        boolean fired = false;
+        if (!triggered && evidence >= bound) {
+            triggered = true;
+            fired = true;
+        }
+        if (triggered) {
+            evidence = Math.min(evidence, bound);
+            triggered = evidence > 0;
+        } else if (previousEvidence == 0 && evidence > 0) {
+            suspected = true;
+        }
+        return fired;
+    }
+
+    private int indexOf(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        for (int t = 0; t < trackCount; t++) {
+            if (trackIds[t] == id) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Probability that blob i is a palm, 0.5 if it was not classified.
+     */
+    private static double palmProbability(Frame frame, int i) {
+        int index = frame.blobClasses[i];
+        if (index < 0) {
+            return 0.5;
+        }
+        return index == PalmDecisionStage.PALM_CLASS ? frame.blobConfidences[i] : 1 - frame.blobConfidences[i];
+    }
+}
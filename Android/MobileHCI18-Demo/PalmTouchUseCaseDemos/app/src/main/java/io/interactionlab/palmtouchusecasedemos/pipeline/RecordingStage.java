@@ -0,0 +1,68 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import java.io.IOException;
+
+import io.interactionlab.palmtouchusecasedemos.recording.SessionRecorder;
+
+/**
+ * Appends every frame with its blobs, classes and palm decision to a SessionRecorder, if
+ * recording has been started. As the last stage of the pipeline, recording runs behind the
+ * decision and does not delay the frame listener or the palm touch action.
+ */
+public class RecordingStage implements Stage {
+    private SessionRecorder recorder;
+    private IOException error;
+
+    @Override
+    public String getName() {
+        return "record";
+    }
+
+    /**
+     * Records all following frames with the given recorder, closing the previous one.
+     */
+    public synchronized void startRecording(SessionRecorder recorder) {
+        stopRecording();
+        this.recorder = recorder;
+    }
+
+    /**
+     * Closes the current recorder, if any.
+     */
+    public synchronized void stopRecording() {
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                error = e;
+            }
+            recorder = null;
+        }
+    }
+
+    public synchronized boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * @return The error that stopped the last recording, or null.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    @Override
+    public synchronized void process(Frame frame) {
+        if (recorder == null) {
+            return;
+        }
+
+        try {
+            recorder.record(frame);
+        } catch (IOException e) {
+            // Most likely the storage is full, give up on this session.
+            error = e;
+            stopRecording();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+/**
+ * One step of the FramePipeline. A stage reads what earlier stages wrote into the Frame and
+ * adds its own results. Each stage is only ever called from one thread at a time, but not
+ * necessarily from the same thread as the other stages.
+ */
+public interface Stage {
+
+    /**
+     * @return Short name for logs.
+     */
+    String getName();
+
+    void process(Frame frame);
+}
@@ -0,0 +1,87 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * Reads the frames of a recorded session in order, across all of its segments. Only one
+ * segment is mapped at a time. Segments that were not closed properly are read up to their
+ * last complete record.
+ */
+public class SessionReader {
+    private final File[] segments;
+
+    private SessionSegment segment;
+    private int segmentIndex = -1;
+    private int recordIndex;
+    private long readCount;
+
+    /**
+     * @param directory Directory the session was recorded into.
+     * @param session   Name of the session, see SessionRecorder.listSessions().
+     */
+    public SessionReader(File directory, String session) throws IOException {
+        this(SessionRecorder.listSegments(directory, session));
+        if (segments.length == 0) {
+            throw new IOException("No segments of " + session + " in " + directory);
+        }
+    }
+
+    public SessionReader(File... segments) {
+        this.segments = segments.clone();
+    }
+
+    /**
+     * Reads the next frame, see SessionSegment.read().
+     *
+     * @return False at the end of the session.
+     */
+    public boolean next(Frame frame) throws IOException {
+        while (segment == null || recordIndex == segment.getRecordCount()) {
+            if (segment != null) {
+                segment.close();
+                segment = null;
+            }
+            if (segmentIndex + 1 >= segments.length) {
+                return false;
+            }
+
+            segment = SessionSegment.open(segments[++segmentIndex]);
+            recordIndex = 0;
+        }
+
+        segment.read(recordIndex++, frame);
+        readCount++;
+        return true;
+    }
+
+    /**
+     * @return Number of frames in the session. Maps every segment once.
+     */
+    public long countFrames() throws IOException {
+        long count = 0;
+        for (File file : segments) {
+            SessionSegment s = SessionSegment.open(file);
+            try {
+                count += s.getRecordCount();
+            } finally {
+                s.close();
+            }
+        }
+        return count;
+    }
+
+    public long getReadCount() {
+        return readCount;
+    }
+
+    public void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+        segmentIndex = segments.length;
+    }
+}
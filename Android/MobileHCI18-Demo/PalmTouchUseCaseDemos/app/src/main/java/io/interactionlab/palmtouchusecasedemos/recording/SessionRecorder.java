@@ -0,0 +1,167 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * Records a session of frames into a directory, as a sequence of SessionSegments named
+ * session-<start time in ms, 13 digits>-<segment index, 6 digits>.ptcs. When a segment is full, the next one is
+ * started, so a long session never needs one big file and a crash costs at most the record
+ * that was being written.
+ *
+ * Segments of an earlier session that were not closed, e.g. because the app was killed,
+ * are recovered when a recorder is created for the same directory.
+ *
+ * Not thread-safe, record() and close() have to be called from the same thread or be
+ * synchronized, see RecordingStage.
+ */
+public class SessionRecorder {
+    public static final String PREFIX = "session-";
+    public static final String SUFFIX = ".ptcs";
+    // About 4 MB or one minute at 60 frames per second
+    public static final int DEFAULT_SEGMENT_CAPACITY = 4096;
+
+    private final File directory;
+    private final int segmentCapacity;
+    private final long sessionStart;
+    private final String sessionName;
+    private final int recoveredSegments;
+
+    private SessionSegment segment;
+    private int segmentCount;
+    private long recordCount;
+
+    public SessionRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public SessionRecorder(File directory, int segmentCapacity) throws IOException {
+        if (segmentCapacity < 1) {
+            throw new IllegalArgumentException("Segment capacity must be positive.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        recoveredSegments = recoverAll(directory);
+
+        sessionStart = System.currentTimeMillis();
+        sessionName = String.format(Locale.US, "%s%013d", PREFIX, sessionStart);
+        roll();
+    }
+
+    /**
+     * Recovers all segments in the directory that were not closed properly.
+     *
+     * @return Number of recovered segments.
+     */
+    public static int recoverAll(File directory) throws IOException {
+        int recovered = 0;
+        for (File file : listSegments(directory, null)) {
+            if (SessionSegment.recover(file)) {
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return The names of all sessions in the directory, oldest first.
+     */
+    public static List<String> listSessions(File directory) {
+        List<String> sessions = new ArrayList<String>();
+        for (File file : listSegments(directory, null)) {
+            String name = file.getName();
+            String session = name.substring(0, name.lastIndexOf('-'));
+            if (!sessions.contains(session)) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * @param session Name of a session as returned by listSessions(), or null for all.
+     * @return The segment files of the session in the directory in order.
+     */
+    public static File[] listSegments(File directory, final String session) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && name.startsWith(session != null ? session + "-" : PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+
+        // Start times and indices are zero-padded, so the names sort chronologically.
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+
+        File file = new File(directory, String.format(Locale.US, "%s-%06d%s", sessionName, segmentCount, SUFFIX));
+        segment = SessionSegment.create(file, segmentCount, segmentCapacity, sessionStart);
+        segmentCount++;
+    }
+
+    public void record(Frame frame) throws IOException {
+        if (segment == null) {
+            throw new IllegalStateException("Recorder has been closed.");
+        }
+
+        if (!segment.append(frame)) {
+            roll();
+            segment.append(frame);
+        }
+        recordCount++;
+    }
+
+    public void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return Number of segments of earlier sessions that were recovered on creation.
+     */
+    public int getRecoveredSegments() {
+        return recoveredSegments;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionRecorder: " + sessionName + ", " + recordCount + " frames in " + segmentCount
+                + " segments, " + recoveredSegments + " segments recovered";
+    }
+}
@@ -0,0 +1,408 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * One file of a recorded session: a header followed by fixed-size records, one per frame.
+ * The file is created with room for a fixed number of records and memory-mapped, so
+ * appending a record is a copy into the mapping and no system call.
+ *
+ * Layout (little endian):
+ *
+ * Header, HEADER_SIZE bytes:
+ * 0   magic "PTCS"
+ * 4   int version
+ * 8   int rows, columns
+ * 16  int record size, max. blobs per record
+ * 24  int segment index within the session
+ * 28  int capacity in records
+ * 32  long session start, wall-clock ms
+ * 40  int number of records (updated after every record)
+ * 44  int 1 if the segment was closed properly
+ * 48  long timestamp of the first and the last record
+ *
+ * Record, RECORD_SIZE bytes:
+ * 0   long frame sequence number
+ * 8   long frame timestamp, ms
+ * 16  long System.nanoTime() when the frame was received
+ * 24  int flags, FLAG_PALM_TOUCH and FLAG_CLASSIFICATION_SKIPPED
+ * 28  int number of blobs in the frame (only MAX_BLOBS are stored)
+ * 32  short[ROWS * COLUMNS] matrix, row-major, clamped to the range of a short
+ * 842 2 bytes padding
+ * 844 per blob: byte x1, y1, x2, y2, class, 3 bytes padding, float confidence
+ * ... int CRC32 of the record index and all bytes of the record before the CRC
+ *
+ * The CRC is written last and the record count in the header after it. If the app dies
+ * while appending, the record count may lag behind or the last record may be torn; open()
+ * recovers the records that are complete (see recover()).
+ */
+public class SessionSegment {
+    public static final int VERSION = 1;
+    public static final int MAX_BLOBS = 8;
+    public static final int FLAG_PALM_TOUCH = 1;
+    public static final int FLAG_CLASSIFICATION_SKIPPED = 2;
+
+    static final int HEADER_SIZE = 64;
+    private static final byte[] MAGIC = {'P', 'T', 'C', 'S'};
+    private static final int COUNT_OFFSET = 40;
+    private static final int CLOSED_OFFSET = 44;
+    private static final int FIRST_TIMESTAMP_OFFSET = 48;
+    private static final int LAST_TIMESTAMP_OFFSET = 56;
+
+    private static final int MATRIX_OFFSET = 32;
+    private static final int BLOBS_OFFSET = MATRIX_OFFSET + 2 * Frame.SIZE + 2;
+    private static final int BLOB_SIZE = 12;
+    private static final int CRC_OFFSET = BLOBS_OFFSET + MAX_BLOBS * BLOB_SIZE;
+    public static final int RECORD_SIZE = CRC_OFFSET + 4;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final boolean writable;
+    private final int segmentIndex;
+    private final int capacity;
+    private final long sessionStart;
+    private final CRC32 crc = new CRC32();
+    // Record without the CRC, as staged for checksumming
+    private final byte[] record = new byte[CRC_OFFSET];
+
+    private int recordCount;
+    private boolean recovered;
+
+    private SessionSegment(File file, RandomAccessFile raf, MappedByteBuffer buffer, boolean writable,
+                           int segmentIndex, int capacity, long sessionStart, int recordCount) {
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.writable = writable;
+        this.segmentIndex = segmentIndex;
+        this.capacity = capacity;
+        this.sessionStart = sessionStart;
+        this.recordCount = recordCount;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a new, empty segment with room for capacity records, replacing the file.
+     */
+    public static SessionSegment create(File file, int segmentIndex, int capacity, long sessionStart) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            SessionSegment segment = new SessionSegment(file, raf, buffer, true, segmentIndex, capacity, sessionStart, 0);
+            buffer.put(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(Frame.ROWS);
+            buffer.putInt(Frame.COLUMNS);
+            buffer.putInt(RECORD_SIZE);
+            buffer.putInt(MAX_BLOBS);
+            buffer.putInt(segmentIndex);
+            buffer.putInt(capacity);
+            buffer.putLong(sessionStart);
+            return segment;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a segment for reading. If it was not closed properly, the complete records at its
+     * end are recovered (in memory only, see recover() to fix the file).
+     *
+     * @throws IOException If the file is not a segment of this version.
+     */
+    public static SessionSegment open(File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * If the segment was not closed properly, recovers the complete records and fixes the
+     * header and the length of the file, so it can be read like any closed segment.
+     *
+     * @return True if the segment had to be recovered.
+     */
+    public static boolean recover(File file) throws IOException {
+        SessionSegment segment = open(file, true);
+        if (!segment.wasRecovered()) {
+            segment.raf.close();
+            return false;
+        }
+
+        segment.close();
+        return true;
+    }
+
+    private static SessionSegment open(File file, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE) {
+                throw new IOException(file + " is truncated.");
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i]) {
+                    throw new IOException(file + " is not a session segment.");
+                }
+            }
+            if (buffer.getInt(4) != VERSION || buffer.getInt(8) != Frame.ROWS || buffer.getInt(12) != Frame.COLUMNS
+                    || buffer.getInt(16) != RECORD_SIZE || buffer.getInt(20) != MAX_BLOBS) {
+                throw new IOException(file + " has an unsupported format.");
+            }
+
+            // A segment that was closed properly is trimmed to its records.
+            int capacity = (int) Math.min(buffer.getInt(28), (length - HEADER_SIZE) / RECORD_SIZE);
+            int count = Math.max(0, Math.min(buffer.getInt(COUNT_OFFSET), capacity));
+            SessionSegment segment = new SessionSegment(file, raf, buffer, writable,
+                    buffer.getInt(24), capacity, buffer.getLong(32), count);
+
+            if (buffer.getInt(CLOSED_OFFSET) != 1) {
+                segment.recoverTail();
+            }
+            return segment;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the last complete record. The header count is only a hint: records after it may
+     * have been written before the app died, and with the page cache flushed out of order
+     * the records before it may be torn.
+     */
+    private void recoverTail() throws IOException {
+        int count = recordCount;
+        while (count > 0 && !isValid(count - 1)) {
+            count--;
+        }
+        while (count < capacity && isValid(count)) {
+            count++;
+        }
+
+        recovered = true;
+        recordCount = count;
+        if (writable) {
+            buffer.putInt(COUNT_OFFSET, count);
+            if (count > 0) {
+                buffer.putLong(FIRST_TIMESTAMP_OFFSET, buffer.getLong(offsetOf(0) + 8));
+                buffer.putLong(LAST_TIMESTAMP_OFFSET, buffer.getLong(offsetOf(count - 1) + 8));
+            }
+        }
+    }
+
+    private static int offsetOf(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private boolean isValid(int index) {
+        int offset = offsetOf(index);
+        buffer.position(offset);
+        buffer.get(record, 0, CRC_OFFSET);
+        return buffer.getInt(offset + CRC_OFFSET) == checksum(index);
+    }
+
+    private int checksum(int index) {
+        crc.reset();
+        crc.update(index);
+        crc.update(index >>> 8);
+        crc.update(index >>> 16);
+        crc.update(index >>> 24);
+        crc.update(record, 0, CRC_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends the frame with its blobs and classes.
+     *
+     * @return False if the segment is full and the frame was not written.
+     */
+    public boolean append(Frame frame) {
+        if (!writable) {
+            throw new IllegalStateException("Segment is read-only.");
+        }
+        if (recordCount == capacity) {
+            return false;
+        }
+
+        // Staged in a byte array, so the CRC can be computed in one go before the record is
+        // copied into the mapping.
+        putLong(0, frame.sequence);
+        putLong(8, frame.timestamp);
+        putLong(16, frame.receivedNanos);
+        putInt(24, (frame.palmTouch ? FLAG_PALM_TOUCH : 0) | (frame.classificationSkipped ? FLAG_CLASSIFICATION_SKIPPED : 0));
+        putInt(28, frame.blobCount);
+
+        int[] matrix = frame.matrix;
+        for (int i = 0; i < Frame.SIZE; i++) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, matrix[i]));
+            record[MATRIX_OFFSET + 2 * i] = (byte) value;
+            record[MATRIX_OFFSET + 2 * i + 1] = (byte) (value >> 8);
+        }
+
+        int blobs = Math.min(frame.blobCount, MAX_BLOBS);
+        for (int b = 0; b < MAX_BLOBS; b++) {
+            int offset = BLOBS_OFFSET + b * BLOB_SIZE;
+            boolean present = b < blobs;
+            for (int i = 0; i < 4; i++) {
+                record[offset + i] = present ? (byte) frame.blobBounds[4 * b + i] : 0;
+            }
+            record[offset + 4] = present ? (byte) frame.blobClasses[b] : 0;
+            putInt(offset + 8, present ? Float.floatToIntBits(frame.blobConfidences[b]) : 0);
+        }
+
+        int offset = offsetOf(recordCount);
+        int checksum = checksum(recordCount);
+        buffer.position(offset);
+        buffer.put(record, 0, CRC_OFFSET);
+        buffer.putInt(offset + CRC_OFFSET, checksum);
+
+        if (recordCount == 0) {
+            buffer.putLong(FIRST_TIMESTAMP_OFFSET, frame.timestamp);
+        }
+        buffer.putLong(LAST_TIMESTAMP_OFFSET, frame.timestamp);
+        recordCount++;
+        buffer.putInt(COUNT_OFFSET, recordCount);
+        return true;
+    }
+
+    private void putInt(int offset, int value) {
+        record[offset] = (byte) value;
+        record[offset + 1] = (byte) (value >> 8);
+        record[offset + 2] = (byte) (value >> 16);
+        record[offset + 3] = (byte) (value >> 24);
+    }
+
+    private void putLong(int offset, long value) {
+        putInt(offset, (int) value);
+        putInt(offset + 4, (int) (value >> 32));
+    }
+
+    /**
+     * Reads a record into the given frame: matrix, timestamp, sequence, receivedNanos,
+     * blobs with their classes and confidences, palmTouch and classificationSkipped. Only
+     * the first MAX_BLOBS blobs are restored, blobCount is the number of restored blobs.
+     */
+    public void read(int index, Frame frame) {
+        if (index < 0 || index >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + recordCount);
+        }
+
+        int offset = offsetOf(index);
+        frame.sequence = buffer.getLong(offset);
+        frame.timestamp = buffer.getLong(offset + 8);
+        frame.receivedNanos = buffer.getLong(offset + 16);
+        frame.receivedMillis = frame.timestamp;
+        frame.source = null;
+        int flags = buffer.getInt(offset + 24);
+        frame.palmTouch = (flags & FLAG_PALM_TOUCH) != 0;
+        frame.classificationSkipped = (flags & FLAG_CLASSIFICATION_SKIPPED) != 0;
+
+        for (int i = 0; i < Frame.SIZE; i++) {
+            frame.matrix[i] = buffer.getShort(offset + MATRIX_OFFSET + 2 * i);
+        }
+
+        int blobs = Math.min(buffer.getInt(offset + 28), MAX_BLOBS);
+        frame.ensureBlobCapacity(blobs);
+        for (int b = 0; b < blobs; b++) {
+            int blob = offset + BLOBS_OFFSET + b * BLOB_SIZE;
+            for (int i = 0; i < 4; i++) {
+                frame.blobBounds[4 * b + i] = buffer.get(blob + i);
+            }
+            frame.blobClasses[b] = buffer.get(blob + 4);
+            frame.blobConfidences[b] = buffer.getFloat(blob + 8);
+        }
+        frame.blobCount = blobs;
+    }
+
+    /**
+     * @return Index of the first record with a timestamp of at least the given one, or the
+     * record count if there is none. Timestamps increase within a segment.
+     */
+    public int indexOf(long timestamp) {
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getLong(offsetOf(middle) + 8) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Marks the segment as closed, trims the file to its records and releases it. The
+     * segment may not be used afterwards.
+     */
+    public void close() throws IOException {
+        try {
+            if (writable) {
+                buffer.putInt(CLOSED_OFFSET, 1);
+                buffer.force();
+                // Nothing behind the last record is accessed anymore, so the mapping survives
+                // the truncation.
+                raf.setLength(offsetOf(recordCount));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public long getSessionStart() {
+        return sessionStart;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public boolean isFull() {
+        return recordCount == capacity;
+    }
+
+    /**
+     * @return True if the segment was not closed properly and its records had to be recovered.
+     */
+    public boolean wasRecovered() {
+        return recovered;
+    }
+
+    public long getFirstTimestamp() {
+        return buffer.getLong(FIRST_TIMESTAMP_OFFSET);
+    }
+
+    public long getLastTimestamp() {
+        return buffer.getLong(LAST_TIMESTAMP_OFFSET);
+    }
+}
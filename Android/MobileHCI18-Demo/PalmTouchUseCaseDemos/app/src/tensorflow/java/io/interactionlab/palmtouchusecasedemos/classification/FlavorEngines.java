@@ -0,0 +1,28 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import android.content.res.AssetManager;
+import android.graphics.Color;
+
+/**
+ * Engines and models of the tensorflow flavor, next to the Java engines every flavor has.
+ */
+class FlavorEngines {
+    static final ModelDescription[] MODELS = new ModelDescription[]{
+            new ModelDescription(
+                    "PalmTouch (TensorFlow)",
+                    "file:///android_asset/palmtouch.pb",
+                    "input_tensor",
+                    "output_tensor",
+                    new long[]{1, 405},
+                    new String[]{"Finger", "Palm"},
+                    new int[]{Color.GREEN, Color.YELLOW},
+                    ModelDescription.ENGINE_TENSORFLOW)
+    };
+
+    static InferenceEngine create(AssetManager assets, ModelDescription modelDescription) {
+        if (modelDescription.engine != ModelDescription.ENGINE_TENSORFLOW) {
+            throw new IllegalArgumentException("Unknown engine " + modelDescription.engine + " of " + modelDescription.modelName);
+        }
+        return new TensorFlowInferenceEngine(assets, modelDescription);
+    }
+}
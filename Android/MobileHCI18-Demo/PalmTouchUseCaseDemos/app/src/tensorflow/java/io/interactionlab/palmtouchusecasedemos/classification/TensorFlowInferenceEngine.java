@@ -0,0 +1,43 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Runs a frozen TensorFlow graph from the assets folder using the TensorFlowInferenceInterface.
+ * Only part of the tensorflow flavor, see build.gradle.
+ */
+public class TensorFlowInferenceEngine implements InferenceEngine {
+    private final TensorFlowInferenceInterface inferenceInterface;
+    private final ModelDescription modelDescription;
+    private final String[] outputNodes;
+
+    public TensorFlowInferenceEngine(AssetManager assets, ModelDescription modelDescription) {
+        this.modelDescription = modelDescription;
+        this.outputNodes = new String[]{modelDescription.outputNode};
+        inferenceInterface = new TensorFlowInferenceInterface(assets, modelDescription.modelPath);
+    }
+
+    @Override
+    public void run(float[] input, int count, float[] output) {
+        // The first input dimension is the batch size.
+        long[] dimensions = modelDescription.inputDimensions.clone();
+        dimensions[0] = count;
+        int inputSize = 1;
+        for (long d : dimensions) {
+            inputSize *= d;
+        }
+
+        inferenceInterface.feed(modelDescription.inputNode, FloatBuffer.wrap(input, 0, inputSize), dimensions);
+        inferenceInterface.run(outputNodes, true);
+        inferenceInterface.fetch(modelDescription.outputNode, FloatBuffer.wrap(output, 0, count * modelDescription.labels.length));
+    }
+
+    @Override
+    public void close() {
+        inferenceInterface.close();
+    }
+}
@@ -0,0 +1,219 @@
+package io.interactionlab.palmtouchusecasedemos;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs ProcessManager against a fake /proc tree in a temporary folder.
+ */
+public class ProcessManagerTest {
+    private static final String PACKAGE_NAME = "io.interactionlab.palmtouchusecasedemos";
+    // PF_RANDOMIZE | PF_FORKNOEXEC, like most app processes
+    private static final long APP_FLAGS = 0x00400040;
+    private static final long KERNEL_THREAD_FLAGS = 0x00208040;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File proc;
+    private ProcessManager processManager;
+
+    @Before
+    public void setUp() throws IOException {
+        proc = folder.newFolder("proc");
+        // Entries that are not processes
+        new File(proc, "self").mkdir();
+        new File(proc, "sys").mkdir();
+        writeFile(new File(proc, "uptime"), "1234.56 789.01\n");
+        processManager = new ProcessManager(PACKAGE_NAME, proc);
+    }
+
+    @Test
+    public void busiestForegroundProcessWins() throws IOException {
+        addProcess(100, "com.example.mail", 0, 50);
+        addProcess(101, "com.example.game", 0, 120);
+        addProcess(102, "com.example.reader", 0, 80);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void onlyForegroundProcessesAreConsidered() throws IOException {
+        addProcess(100, "com.example.game", 0, 10);
+        // System processes have negative values, cached and background apps positive ones.
+        addProcess(200, "com.android.phone", -800, 9000);
+        addProcess(300, "com.example.background", 900, 9000);
+        addProcess(301, "com.example.service", 200, 9000);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void nothingInForegroundReturnsNull() throws IOException {
+        addProcess(200, "com.android.phone", -800, 9000);
+        addProcess(300, "com.example.background", 900, 9000);
+
+        assertNull(processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void ownAndKnownPackagesAreSkipped() throws IOException {
+        addProcess(100, "com.example.game", 0, 10);
+        addProcess(101, PACKAGE_NAME, 0, 9000);
+        addProcess(102, "com.android.systemui", 0, 9000);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void processNamesNeedAPackage() throws IOException {
+        addProcess(1, "/init", 0, 9000);
+        addProcess(100, "com.example.game", 0, 10);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void commWithSpacesAndParentheses() throws IOException {
+        // The comm in field 2 must not shift the fields after it.
+        addProcess(100, "com.example.game", "ame) S 1 2 (x", 0, 300, APP_FLAGS, 1000);
+        addProcess(101, "com.example.mail", "ple.mail", 0, 200, APP_FLAGS, 1000);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void cmdlineArgumentsAreIgnored() throws IOException {
+        addProcess(100, "com.example.game", 0, 10);
+        writeFile(new File(proc, "100/cmdline"), "com.example.game\0--verbose\0");
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void kernelThreadsAreSkipped() throws IOException {
+        // Kernel threads have no cmdline, the flag alone has to be enough.
+        addProcess(2, "com.example.kthread", "kthreadd", 0, 9000, KERNEL_THREAD_FLAGS, 1);
+        addProcess(100, "com.example.game", 0, 10);
+
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+        // Still skipped when the kernel thread is cached.
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void launcherInForegroundReturnsNull() throws IOException {
+        addProcess(100, "com.example.game", 0, 9000);
+        addProcess(101, "com.android.launcher", 0, 10);
+
+        assertNull(processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void endedProcessesAreForgotten() throws IOException {
+        addProcess(100, "com.example.game", 0, 50);
+        addProcess(101, "com.example.mail", 0, 20);
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+
+        deleteProcess(100);
+        assertEquals("com.example.mail", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void processMovedToBackground() throws IOException {
+        addProcess(100, "com.example.game", 0, 50);
+        addProcess(101, "com.example.mail", 0, 20);
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+
+        writeFile(new File(proc, "100/oom_score_adj"), "900\n");
+        assertEquals("com.example.mail", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void namesAreReadOncePerProcess() throws IOException {
+        addProcess(100, "com.example.game", 0, 50);
+        addProcess(101, "com.example.mail", 0, 20);
+        processManager.getVisibleApplication();
+        long nameReads = processManager.getNameReads();
+
+        processManager.getVisibleApplication();
+        assertEquals(nameReads, processManager.getNameReads());
+        assertEquals(2, processManager.getScanCount());
+    }
+
+    @Test
+    public void reusedPidIsReadAgain() throws IOException {
+        addProcess(100, "com.example.game", 0, 50);
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+
+        // The cached name is kept as long as the start time is the same ...
+        writeFile(new File(proc, "100/cmdline"), "com.example.other\0");
+        assertEquals("com.example.game", processManager.getVisibleApplication());
+
+        // ... and read again once another process has the PID.
+        deleteProcess(100);
+        addProcess(100, "com.example.other", "example.other", 0, 50, APP_FLAGS, 5000);
+        assertEquals("com.example.other", processManager.getVisibleApplication());
+    }
+
+    @Test
+    public void missingRootReturnsNull() {
+        ProcessManager missing = new ProcessManager(PACKAGE_NAME, new File(proc, "missing"));
+
+        assertNull(missing.getVisibleApplication());
+    }
+
+    @Test
+    public void parsePid() {
+        assertEquals(1, ProcessManager.parsePid("1"));
+        assertEquals(12345, ProcessManager.parsePid("12345"));
+        assertEquals(-1, ProcessManager.parsePid(""));
+        assertEquals(-1, ProcessManager.parsePid("self"));
+        assertEquals(-1, ProcessManager.parsePid("12a"));
+        assertEquals(-1, ProcessManager.parsePid("1234567890"));
+    }
+
+    private void addProcess(int pid, String name, int adj, long userTime) throws IOException {
+        // The kernel keeps the last 15 characters of the name as comm.
+        String comm = name.length() > 15 ? name.substring(name.length() - 15) : name;
+        addProcess(pid, name, comm, adj, userTime, APP_FLAGS, 1000);
+    }
+
+    private void addProcess(int pid, String name, String comm, int adj, long userTime, long flags,
+                            long startTime) throws IOException {
+        File directory = new File(proc, Integer.toString(pid));
+        assertTrue(directory.mkdir());
+        writeFile(new File(directory, "oom_score_adj"), adj + "\n");
+        // Fields 1 to 23, see proc(5): pid, comm, state, ppid, pgrp, session, tty_nr, tpgid,
+        // flags, minflt, cminflt, majflt, cmajflt, utime, stime, cutime, cstime, priority,
+        // nice, num_threads, itrealvalue, starttime, vsize
+        writeFile(new File(directory, "stat"), pid + " (" + comm + ") S 1 " + pid + " 0 0 -1 "
+                + flags + " 100 0 0 0 " + userTime + " 7 0 0 20 0 12 0 " + startTime + " 1000000\n");
+        writeFile(new File(directory, "cmdline"), name + "\0");
+    }
+
+    private void deleteProcess(int pid) {
+        File directory = new File(proc, Integer.toString(pid));
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
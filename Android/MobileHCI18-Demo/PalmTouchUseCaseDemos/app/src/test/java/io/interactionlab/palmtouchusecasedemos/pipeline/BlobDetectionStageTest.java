@@ -0,0 +1,111 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobBoundingBox;
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the BlobDetectionStage against CapacitiveImageTS.getBlobBoundaries() of libftsp.
+ */
+public class BlobDetectionStageTest {
+    @Test
+    public void emptyFrame() {
+        assertSameAsLibftsp(new int[Frame.SIZE]);
+    }
+
+    @Test
+    public void firstRowAndColumnAreExcluded() {
+        int[] matrix = new int[Frame.SIZE];
+        for (int x = 0; x < Frame.COLUMNS; x++) {
+            matrix[x] = 100;
+        }
+        for (int y = 0; y < Frame.ROWS; y++) {
+            matrix[y * Frame.COLUMNS] = 100;
+        }
+        assertEquals(0, assertSameAsLibftsp(matrix));
+
+        // A blob next to the first column does not grow into it.
+        for (int y = 5; y < 9; y++) {
+            matrix[y * Frame.COLUMNS + 1] = 100;
+            matrix[y * Frame.COLUMNS + 2] = 100;
+        }
+        assertEquals(1, assertSameAsLibftsp(matrix));
+    }
+
+    @Test
+    public void fullScreen() {
+        int[] matrix = new int[Frame.SIZE];
+        for (int i = 0; i < Frame.SIZE; i++) {
+            matrix[i] = 200;
+        }
+        assertEquals(1, assertSameAsLibftsp(matrix));
+    }
+
+    @Test
+    public void shapesThatMergeLate() {
+        // Two arms of a U that only meet in the last row, next to a single cell and a line
+        // that are too small.
+        int[] matrix = new int[Frame.SIZE];
+        for (int y = 3; y < 12; y++) {
+            matrix[y * Frame.COLUMNS + 3] = 100;
+            matrix[y * Frame.COLUMNS + 7] = 100;
+        }
+        for (int x = 3; x <= 7; x++) {
+            matrix[11 * Frame.COLUMNS + x] = 100;
+        }
+        matrix[20 * Frame.COLUMNS + 10] = 100;
+        for (int x = 2; x < 8; x++) {
+            matrix[24 * Frame.COLUMNS + x] = 100;
+        }
+        assertEquals(1, assertSameAsLibftsp(matrix));
+    }
+
+    @Test
+    public void randomFrames() {
+        Random random = new Random(3);
+        BlobDetectionStage detection = new BlobDetectionStage();
+        for (int n = 0; n < 2000; n++) {
+            int density = 1 + random.nextInt(6);
+            int[] matrix = new int[Frame.SIZE];
+            for (int i = 0; i < Frame.SIZE; i++) {
+                matrix[i] = random.nextInt(10) < density ? 31 + random.nextInt(200) : random.nextInt(31);
+            }
+            assertSameAsLibftsp(detection, matrix);
+        }
+    }
+
+    private static int assertSameAsLibftsp(int[] matrix) {
+        return assertSameAsLibftsp(new BlobDetectionStage(), matrix);
+    }
+
+    /**
+     * @return Number of blobs found.
+     */
+    private static int assertSameAsLibftsp(BlobDetectionStage detection, int[] matrix) {
+        StringBuilder line = new StringBuilder("1530000000,000000000");
+        for (int v : matrix) {
+            line.append(',').append(v);
+        }
+        CapacitiveImageTS capImg = new CapacitiveImageTS(line.toString());
+        List<BlobBoundingBox> expected = capImg.getBlobBoundaries();
+
+        Frame frame = new Frame();
+        frame.set(capImg, 0);
+        detection.process(frame);
+
+        assertEquals(expected.size(), frame.blobCount);
+        for (int b = 0; b < expected.size(); b++) {
+            BlobBoundingBox box = expected.get(b);
+            assertEquals(box.x1, frame.blobBounds[4 * b]);
+            assertEquals(box.y1, frame.blobBounds[4 * b + 1]);
+            assertEquals(box.x2, frame.blobBounds[4 * b + 2]);
+            assertEquals(box.y2, frame.blobBounds[4 * b + 3]);
+        }
+        return frame.blobCount;
+    }
+}
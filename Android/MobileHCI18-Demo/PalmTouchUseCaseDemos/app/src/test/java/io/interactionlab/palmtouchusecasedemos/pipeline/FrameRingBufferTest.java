@@ -0,0 +1,262 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the FrameRingBuffer on one thread and with one producer and one consumer thread.
+ * Frames are numbered in matrix[0] by the producer.
+ */
+public class FrameRingBufferTest {
+    private static final int FRAMES = 200000;
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new FrameRingBuffer(1, FrameRingBuffer.BLOCK).getCapacity());
+        assertEquals(4, new FrameRingBuffer(3, FrameRingBuffer.BLOCK).getCapacity());
+        assertEquals(4, new FrameRingBuffer(4, FrameRingBuffer.BLOCK).getCapacity());
+        assertEquals(8, new FrameRingBuffer(5, FrameRingBuffer.BLOCK).getCapacity());
+    }
+
+    @Test
+    public void framesComeOutInOrder() {
+        FrameRingBuffer ring = new FrameRingBuffer(4, FrameRingBuffer.BLOCK);
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 3; i++) {
+            offer(ring, i);
+        }
+        assertEquals(3, ring.size());
+        for (int i = 0; i < 3; i++) {
+            Frame frame = ring.poll();
+            assertEquals(i, frame.matrix[0]);
+            assertEquals(i, frame.sequence);
+        }
+        assertNull(ring.poll());
+        assertEquals(3, ring.getConsumed());
+        assertEquals(3, ring.getMaxDepth());
+    }
+
+    @Test
+    public void dropNewestKeepsTheQueuedFrames() {
+        FrameRingBuffer ring = new FrameRingBuffer(2, FrameRingBuffer.DROP_NEWEST);
+        offer(ring, 0);
+        offer(ring, 1);
+        assertNull(ring.claim());
+        assertNull(ring.claim());
+
+        assertEquals(2, ring.getDroppedNewest());
+        assertEquals(0, ring.poll().matrix[0]);
+        assertEquals(1, ring.poll().matrix[0]);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestFrames() {
+        FrameRingBuffer ring = new FrameRingBuffer(2, FrameRingBuffer.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            offer(ring, i);
+        }
+
+        assertEquals(3, ring.getDroppedOldest());
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.poll().matrix[0]);
+        assertEquals(4, ring.poll().matrix[0]);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void exchangePassesTheFrameOn() {
+        FrameRingBuffer first = new FrameRingBuffer(2, FrameRingBuffer.BLOCK);
+        FrameRingBuffer second = new FrameRingBuffer(2, FrameRingBuffer.BLOCK);
+        offer(first, 7);
+
+        Frame frame = first.poll();
+        first.recycle(second.exchange(frame));
+
+        Frame passed = second.poll();
+        assertSame(frame, passed);
+        assertEquals(7, passed.matrix[0]);
+        // The ring still has frames to fill.
+        offer(first, 8);
+        assertEquals(8, first.poll().matrix[0]);
+    }
+
+    @Test(timeout = 10000)
+    public void blockedClaimIsCountedOnce() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(2, FrameRingBuffer.BLOCK);
+        offer(ring, 0);
+        offer(ring, 1);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offer(ring, 2);
+            }
+        });
+        producer.start();
+        // Long enough for the producer to park many times.
+        Thread.sleep(50);
+        assertEquals(0, ring.poll().matrix[0]);
+        producer.join();
+
+        assertEquals(1, ring.getBlocked());
+        assertEquals(1, ring.poll().matrix[0]);
+        assertEquals(2, ring.poll().matrix[0]);
+    }
+
+    @Test(timeout = 10000)
+    public void waitingTakeIsCountedOnce() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(2, FrameRingBuffer.BLOCK);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                offer(ring, 0);
+            }
+        });
+        producer.start();
+
+        assertEquals(0, ring.take().matrix[0]);
+        producer.join();
+        assertEquals(1, ring.getStarved());
+    }
+
+    @Test(timeout = 10000, expected = InterruptedException.class)
+    public void takeCanBeInterrupted() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(2, FrameRingBuffer.BLOCK);
+        final Thread consumer = Thread.currentThread();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // Interrupt anyway
+                }
+                consumer.interrupt();
+            }
+        }).start();
+
+        ring.take();
+    }
+
+    @Test(timeout = 60000)
+    public void blockLosesNothing() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(4, FrameRingBuffer.BLOCK);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    offer(ring, i);
+                }
+            }
+        });
+        producer.start();
+
+        // Let the producer run into the full ring once for sure.
+        while (ring.size() < ring.getCapacity()) {
+            Thread.yield();
+        }
+        Thread.sleep(10);
+
+        for (int i = 0; i < FRAMES; i++) {
+            Frame frame = ring.take();
+            assertEquals(i, frame.matrix[0]);
+            assertEquals(i, frame.sequence);
+        }
+        producer.join();
+
+        assertNull(ring.poll());
+        assertEquals(FRAMES, ring.getConsumed());
+        assertEquals(0, ring.getDroppedOldest());
+        assertEquals(0, ring.getDroppedNewest());
+        assertTrue(ring.getBlocked() >= 1);
+        assertTrue(ring.getBlocked() <= FRAMES - ring.getCapacity());
+    }
+
+    @Test(timeout = 60000)
+    public void dropOldestAccountsForEveryFrame() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(4, FrameRingBuffer.DROP_OLDEST);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    offer(ring, i);
+                }
+            }
+        });
+        producer.start();
+
+        // The last frame is never dropped, nothing comes after it.
+        int last = -1;
+        while (last < FRAMES - 1) {
+            int value = ring.take().matrix[0];
+            assertTrue("Frame " + value + " after " + last, value > last);
+            last = value;
+        }
+        producer.join();
+
+        assertNull(ring.poll());
+        assertEquals(FRAMES, ring.getConsumed() + ring.getDroppedOldest());
+        assertEquals(0, ring.getDroppedNewest());
+        assertEquals(0, ring.getBlocked());
+    }
+
+    @Test(timeout = 60000)
+    public void dropNewestAccountsForEveryFrame() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(4, FrameRingBuffer.DROP_NEWEST);
+        final long[] dropped = new long[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    offer(ring, i);
+                }
+                dropped[0] = ring.getDroppedNewest();
+
+                // The end marker has to get through.
+                while (!offer(ring, -1)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        long consumed = 0;
+        int last = -1;
+        while (true) {
+            int value = ring.take().matrix[0];
+            if (value == -1) {
+                break;
+            }
+            assertTrue("Frame " + value + " after " + last, value > last);
+            last = value;
+            consumed++;
+        }
+        producer.join();
+
+        assertEquals(FRAMES, consumed + dropped[0]);
+        assertEquals(0, ring.getDroppedOldest());
+    }
+
+    /**
+     * Queues frame number i.
+     *
+     * @return False if it was dropped.
+     */
+    private static boolean offer(FrameRingBuffer ring, int i) {
+        Frame frame = ring.claim();
+        if (frame == null) {
+            return false;
+        }
+        frame.matrix[0] = i;
+        ring.publish();
+        return true;
+    }
+}
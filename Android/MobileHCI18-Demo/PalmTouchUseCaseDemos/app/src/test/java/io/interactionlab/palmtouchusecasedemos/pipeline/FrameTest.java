@@ -0,0 +1,116 @@
+package io.interactionlab.palmtouchusecasedemos.pipeline;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Frame.set() against the parsing of CapacitiveImageTS it replaces.
+ */
+public class FrameTest {
+    @Test
+    public void timestampAndMatrixAreParsed() {
+        StringBuilder line = new StringBuilder("1530000000,123456789");
+        for (int i = 0; i < Frame.SIZE; i++) {
+            line.append(',').append(i % 2 == 0 ? i : -i);
+        }
+
+        Frame frame = new Frame();
+        CapacitiveImageTS capImg = new CapacitiveImageTS(line.toString());
+        frame.set(capImg, 42);
+
+        assertEquals(1530000000123L, frame.timestamp);
+        assertEquals(42, frame.receivedNanos);
+        assertSame(capImg, frame.source);
+        for (int i = 0; i < Frame.SIZE; i++) {
+            assertEquals(i % 2 == 0 ? i : -i, frame.matrix[i]);
+        }
+    }
+
+    @Test
+    public void sameResultAsCapacitiveImageTS() {
+        Random random = new Random(7);
+        Frame frame = new Frame();
+        for (int n = 0; n < 200; n++) {
+            StringBuilder line = new StringBuilder();
+            line.append(1500000000 + random.nextInt(100000000)).append(',');
+            line.append(String.format("%09d", random.nextInt(1000000000)));
+            for (int i = 0; i < Frame.SIZE; i++) {
+                line.append(',');
+                int kind = random.nextInt(20);
+                if (kind == 0) {
+                    line.append("x1");
+                } else if (kind == 1) {
+                    // Empty value
+                } else if (kind == 2) {
+                    line.append('-');
+                } else if (kind == 3) {
+                    line.append("12-3");
+                } else {
+                    line.append(random.nextInt(4000) - 1000);
+                }
+            }
+
+            CapacitiveImageTS capImg = new CapacitiveImageTS(line.toString());
+            frame.set(capImg, 0);
+
+            assertEquals(capImg.getTimestamp(), frame.timestamp);
+            assertArrayEquals(capImg.getFlattenedMatrix(), frame.matrix);
+        }
+    }
+
+    @Test
+    public void missingValuesAreZero() {
+        Frame frame = new Frame();
+        frame.matrix[Frame.SIZE - 1] = 5;
+        frame.set(new CapacitiveImageTS("1530000000,000000000,1,2,3"), 0);
+
+        assertEquals(1530000000000L, frame.timestamp);
+        assertEquals(1, frame.matrix[0]);
+        assertEquals(2, frame.matrix[1]);
+        assertEquals(3, frame.matrix[2]);
+        for (int i = 3; i < Frame.SIZE; i++) {
+            assertEquals(0, frame.matrix[i]);
+        }
+    }
+
+    @Test
+    public void lineEndsAreIgnored() {
+        StringBuilder line = new StringBuilder("1530000000,500000000");
+        for (int i = 0; i < Frame.SIZE; i++) {
+            line.append(",7");
+        }
+        line.append("\r\n");
+
+        Frame frame = new Frame();
+        frame.set(new CapacitiveImageTS(line.toString()), 0);
+
+        assertEquals(1530000000500L, frame.timestamp);
+        assertEquals(7, frame.matrix[Frame.SIZE - 1]);
+    }
+
+    @Test
+    public void stateOfThePreviousFrameIsReset() {
+        Frame frame = new Frame();
+        frame.empty = true;
+        frame.unchanged = true;
+        frame.blobCount = 3;
+        frame.tracked = true;
+        frame.classificationSkipped = true;
+        frame.palmTouch = true;
+        frame.palmTouchTrack = 4;
+
+        frame.set(new CapacitiveImageTS("1530000000,000000000,1"), 0);
+
+        assertFalse(frame.empty);
+        assertFalse(frame.unchanged);
+        assertEquals(0, frame.blobCount);
+        assertFalse(frame.tracked);
+        assertFalse(frame.classificationSkipped);
+        assertFalse(frame.palmTouch);
+        assertEquals(-1, frame.palmTouchTrack);
+    }
+}
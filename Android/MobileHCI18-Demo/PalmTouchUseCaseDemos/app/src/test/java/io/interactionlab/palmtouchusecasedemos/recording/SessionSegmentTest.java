@@ -0,0 +1,332 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes segments, simulates a crash by corrupting or truncating their tail and checks what
+ * open() and recover() make of them. A crash is simulated by not closing the segment, which
+ * leaves the closed flag unset like a killed app would.
+ */
+public class SessionSegmentTest {
+    private static final int CAPACITY = 16;
+    private static final long SESSION_START = 1530000000000L;
+    // See the layout in SessionSegment
+    private static final int COUNT_OFFSET = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closedSegmentIsReadBack() throws IOException {
+        File file = writeSegment(5, true);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertFalse(segment.wasRecovered());
+        assertEquals(5, segment.getRecordCount());
+        assertEquals(SESSION_START, segment.getSessionStart());
+        assertEquals(timestampOf(0), segment.getFirstTimestamp());
+        assertEquals(timestampOf(4), segment.getLastTimestamp());
+        // Trimmed to its records on close
+        assertEquals(fileLength(5), file.length());
+
+        Frame frame = new Frame();
+        for (int i = 0; i < 5; i++) {
+            segment.read(i, frame);
+            assertFrame(i, frame);
+        }
+        segment.close();
+    }
+
+    @Test
+    public void unclosedSegmentKeepsAllRecords() throws IOException {
+        File file = writeSegment(5, false);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(5, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void countLaggingBehindIsCaughtUp() throws IOException {
+        File file = writeSegment(5, false);
+        setCount(file, 2);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(5, segment.getRecordCount());
+        Frame frame = new Frame();
+        segment.read(4, frame);
+        assertFrame(4, frame);
+        segment.close();
+    }
+
+    @Test
+    public void countOfZeroIsCaughtUp() throws IOException {
+        File file = writeSegment(3, false);
+        setCount(file, 0);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertEquals(3, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void tornLastRecordIsDropped() throws IOException {
+        File file = writeSegment(5, false);
+        corrupt(file, 4, 100);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(4, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void truncatedTailIsDropped() throws IOException {
+        // The file ends in the middle of record 3, the count still says 5.
+        File file = writeSegment(5, false);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(offsetOf(3) + 100);
+        } finally {
+            raf.close();
+        }
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(3, segment.getRecordCount());
+        segment.close();
+
+        assertTrue(SessionSegment.recover(file));
+        assertEquals(fileLength(3), file.length());
+    }
+
+    @Test
+    public void recordsAfterTheCountNeedTheirIndex() throws IOException {
+        // A valid record copied to the wrong place, e.g. stale data of another segment, does
+        // not count: the CRC covers the index.
+        File file = writeSegment(5, false);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] record = new byte[SessionSegment.RECORD_SIZE];
+            raf.seek(offsetOf(0));
+            raf.readFully(record);
+            raf.seek(offsetOf(5));
+            raf.write(record);
+        } finally {
+            raf.close();
+        }
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertEquals(5, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void emptyUnclosedSegment() throws IOException {
+        File file = writeSegment(0, false);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(0, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void fullUnclosedSegment() throws IOException {
+        File file = writeSegment(CAPACITY, false);
+        setCount(file, CAPACITY - 3);
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertEquals(CAPACITY, segment.getRecordCount());
+        assertTrue(segment.isFull());
+        segment.close();
+    }
+
+    @Test
+    public void openDoesNotChangeTheFile() throws IOException {
+        File file = writeSegment(5, false);
+        setCount(file, 2);
+
+        SessionSegment.open(file).close();
+        SessionSegment segment = SessionSegment.open(file);
+        assertTrue(segment.wasRecovered());
+        assertEquals(fileLength(CAPACITY), file.length());
+        segment.close();
+    }
+
+    @Test
+    public void recoverFixesTheFile() throws IOException {
+        File file = writeSegment(5, false);
+        setCount(file, 2);
+        corrupt(file, 4, 200);
+
+        assertTrue(SessionSegment.recover(file));
+        assertEquals(fileLength(4), file.length());
+
+        SessionSegment segment = SessionSegment.open(file);
+        assertFalse(segment.wasRecovered());
+        assertEquals(4, segment.getRecordCount());
+        assertEquals(timestampOf(0), segment.getFirstTimestamp());
+        assertEquals(timestampOf(3), segment.getLastTimestamp());
+        Frame frame = new Frame();
+        segment.read(3, frame);
+        assertFrame(3, frame);
+        segment.close();
+
+        // Nothing left to do
+        assertFalse(SessionSegment.recover(file));
+    }
+
+    @Test
+    public void recoverLeavesClosedSegmentsAlone() throws IOException {
+        File file = writeSegment(5, true);
+        long length = file.length();
+
+        assertFalse(SessionSegment.recover(file));
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void recoverAllRecoversUnclosedSegmentsOnly() throws IOException {
+        File directory = folder.newFolder("sessions");
+        writeSegment(new File(directory, "session-1530000000000-000000.ptcs"), 3, true);
+        writeSegment(new File(directory, "session-1530000000000-000001.ptcs"), 3, false);
+        writeSegment(new File(directory, "session-1530000001000-000000.ptcs"), 0, false);
+
+        assertEquals(2, SessionRecorder.recoverAll(directory));
+        assertEquals(0, SessionRecorder.recoverAll(directory));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedHeaderIsRejected() throws IOException {
+        File file = writeSegment(5, true);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(SessionSegment.HEADER_SIZE - 1);
+        } finally {
+            raf.close();
+        }
+
+        SessionSegment.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        File file = writeSegment(5, true);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[] {'P', 'K', 3, 4});
+        } finally {
+            raf.close();
+        }
+
+        SessionSegment.open(file);
+    }
+
+    private File writeSegment(int records, boolean close) throws IOException {
+        return writeSegment(folder.newFile("segment.ptcs"), records, close);
+    }
+
+    private static File writeSegment(File file, int records, boolean close) throws IOException {
+        SessionSegment segment = SessionSegment.create(file, 0, CAPACITY, SESSION_START);
+        Frame frame = new Frame();
+        for (int i = 0; i < records; i++) {
+            fillFrame(i, frame);
+            assertTrue(segment.append(frame));
+        }
+        if (close) {
+            segment.close();
+        }
+        return file;
+    }
+
+    private static void fillFrame(int i, Frame frame) {
+        frame.sequence = 100 + i;
+        frame.timestamp = timestampOf(i);
+        frame.receivedNanos = 1000000L * i;
+        for (int j = 0; j < Frame.SIZE; j++) {
+            frame.matrix[j] = (j * (i + 1)) % 300 - 20;
+        }
+        frame.ensureBlobCapacity(2);
+        frame.blobCount = 2;
+        for (int b = 0; b < 2; b++) {
+            frame.blobBounds[4 * b] = b;
+            frame.blobBounds[4 * b + 1] = i % Frame.ROWS;
+            frame.blobBounds[4 * b + 2] = b + 3;
+            frame.blobBounds[4 * b + 3] = i % Frame.ROWS + 2;
+            frame.blobClasses[b] = (i + b) % 2;
+            frame.blobConfidences[b] = 0.5f + i / 100f;
+        }
+        frame.palmTouch = i % 3 == 0;
+        frame.classificationSkipped = i % 4 == 1;
+    }
+
+    private static void assertFrame(int i, Frame frame) {
+        Frame expected = new Frame();
+        fillFrame(i, expected);
+        assertEquals(expected.sequence, frame.sequence);
+        assertEquals(expected.timestamp, frame.timestamp);
+        assertEquals(expected.receivedNanos, frame.receivedNanos);
+        assertArrayEquals(expected.matrix, frame.matrix);
+        assertEquals(expected.blobCount, frame.blobCount);
+        for (int b = 0; b < expected.blobCount; b++) {
+            for (int k = 0; k < 4; k++) {
+                assertEquals(expected.blobBounds[4 * b + k], frame.blobBounds[4 * b + k]);
+            }
+            assertEquals(expected.blobClasses[b], frame.blobClasses[b]);
+            assertEquals(expected.blobConfidences[b], frame.blobConfidences[b], 0f);
+        }
+        assertEquals(expected.palmTouch, frame.palmTouch);
+        assertEquals(expected.classificationSkipped, frame.classificationSkipped);
+    }
+
+    private static long timestampOf(int i) {
+        return SESSION_START + 16L * i;
+    }
+
+    private static long offsetOf(int index) {
+        return SessionSegment.HEADER_SIZE + (long) index * SessionSegment.RECORD_SIZE;
+    }
+
+    private static long fileLength(int records) {
+        return offsetOf(records);
+    }
+
+    private static void setCount(File file, int count) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(COUNT_OFFSET);
+            // Little endian like the rest of the header
+            raf.write(new byte[] {(byte) count, (byte) (count >> 8), (byte) (count >> 16), (byte) (count >> 24)});
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Flips the bits of one byte of a record.
+     */
+    private static void corrupt(File file, int index, int offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offsetOf(index) + offset);
+            int value = raf.read();
+            raf.seek(offsetOf(index) + offset);
+            raf.write(~value);
+        } finally {
+            raf.close();
+        }
+    }
+}
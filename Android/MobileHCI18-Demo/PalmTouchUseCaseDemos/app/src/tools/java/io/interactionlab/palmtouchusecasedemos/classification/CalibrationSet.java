@@ -0,0 +1,97 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Labeled blob images written by Model/export_calibration_set.py.
+ *
+ * Every CALIBRATION_STRIDE-th blob is used to calibrate the int8 model (see
+ * WeightFileConverter), the others to evaluate it (see QuantizationReport), so the int8
+ * model is never evaluated on the blobs its activation ranges were taken from.
+ */
+public class CalibrationSet {
+    public static final int CALIBRATION_STRIDE = 10;
+
+    private final int count;
+    private final int size;
+    private final byte[] labels;
+    private final float[] images;
+
+    private CalibrationSet(int count, int size, byte[] labels, float[] images) {
+        this.count = count;
+        this.size = size;
+        this.labels = labels;
+        this.images = images;
+    }
+
+    /**
+     * @param size Number of values per blob image the model expects.
+     */
+    public static CalibrationSet read(File file, int size) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.get() != 'P' || buffer.get() != 'T' || buffer.get() != 'C' || buffer.get() != 'S') {
+            throw new IOException(file + " is not a calibration set.");
+        }
+        int count = buffer.getInt();
+        int fileSize = buffer.getInt();
+        if (fileSize != size) {
+            throw new IOException("Blob images have " + fileSize + " values, the model expects " + size + ".");
+        }
+        byte[] labels = new byte[count];
+        buffer.get(labels);
+        float[] images = new float[count * size];
+        buffer.asFloatBuffer().get(images);
+        return new CalibrationSet(count, size, labels, images);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return 0 for finger, 1 for palm.
+     */
+    public int getLabel(int blob) {
+        return labels[blob];
+    }
+
+    /**
+     * @return All blob images stored one after another.
+     */
+    public float[] getImages() {
+        return images;
+    }
+
+    public boolean isCalibrationBlob(int blob) {
+        return blob % CALIBRATION_STRIDE == 0;
+    }
+
+    public int getCalibrationCount() {
+        return (count + CALIBRATION_STRIDE - 1) / CALIBRATION_STRIDE;
+    }
+
+    /**
+     * @return The images of the calibration blobs stored one after another.
+     */
+    public float[] getCalibrationImages() {
+        float[] calibrationImages = new float[getCalibrationCount() * size];
+        int calibrationCount = 0;
+        for (int i = 0; i < count; i += CALIBRATION_STRIDE) {
+            System.arraycopy(images, i * size, calibrationImages, calibrationCount * size, size);
+            calibrationCount++;
+        }
+        return calibrationImages;
+    }
+}
@@ -0,0 +1,102 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Compares the int8 model with the float model of a WeightFile. Runs on a desktop JVM (see
+ * runTool in app/build.gradle):
+ *
+ * java QuantizationReport palmtouch.ptw p21_calibration.bin
+ *
+ * The int8 model uses the activation ranges stored in the file by WeightFileConverter. The
+ * comparison skips the calibration blobs of the CalibrationSet, so the int8 model is not
+ * evaluated on the blobs its ranges were taken from.
+ */
+public class QuantizationReport {
+    private static final int LATENCY_RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: QuantizationReport <palmtouch.ptw> <calibration set>");
+            System.exit(1);
+        }
+
+        WeightFile weights = WeightFile.map(new File(args[0]));
+        CnnInferenceEngine floatEngine = CnnInferenceEngine.fromWeightFile(weights);
+        QuantizedCnnInferenceEngine int8Engine = QuantizedCnnInferenceEngine.fromWeightFile(weights);
+        float[] ranges = weights.getActivationRanges();
+
+        CalibrationSet set = CalibrationSet.read(new File(args[1]), floatEngine.getInputSize());
+        int count = set.getCount();
+        float[] images = set.getImages();
+        float[] calibrationSet = set.getCalibrationImages();
+        int calibrationCount = set.getCalibrationCount();
+
+        // Accuracy on the blobs that were not used for calibration
+        int classes = floatEngine.getNumClasses();
+        float[] floatOutput = new float[count * classes];
+        float[] int8Output = new float[count * classes];
+        floatEngine.run(images, count, floatOutput);
+        int8Engine.run(images, count, int8Output);
+
+        int testCount = 0;
+        int floatCorrect = 0;
+        int int8Correct = 0;
+        int agreement = 0;
+        float maxDelta = 0;
+        for (int i = 0; i < count; i++) {
+            if (set.isCalibrationBlob(i)) {
+                continue;
+            }
+
+            testCount++;
+            int floatClass = argmax(floatOutput, i * classes, classes);
+            int int8Class = argmax(int8Output, i * classes, classes);
+            floatCorrect += floatClass == set.getLabel(i) ? 1 : 0;
+            int8Correct += int8Class == set.getLabel(i) ? 1 : 0;
+            agreement += floatClass == int8Class ? 1 : 0;
+            for (int c = 0; c < classes; c++) {
+                maxDelta = Math.max(maxDelta, Math.abs(floatOutput[i * classes + c] - int8Output[i * classes + c]));
+            }
+        }
+
+        // Latency on the calibration blobs, the first run warms up the JIT.
+        double floatMicros = Double.MAX_VALUE;
+        double int8Micros = Double.MAX_VALUE;
+        for (int run = 0; run <= LATENCY_RUNS; run++) {
+            long start = System.nanoTime();
+            floatEngine.run(calibrationSet, calibrationCount, floatOutput);
+            long middle = System.nanoTime();
+            int8Engine.run(calibrationSet, calibrationCount, int8Output);
+            long end = System.nanoTime();
+            if (run > 0) {
+                floatMicros = Math.min(floatMicros, (middle - start) / 1000.0 / calibrationCount);
+                int8Micros = Math.min(int8Micros, (end - middle) / 1000.0 / calibrationCount);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "Blobs: %d (%d used for calibration, %d for the comparison)",
+                count, calibrationCount, testCount));
+        System.out.println(String.format(Locale.US, "Activation ranges: %.4f, %.4f, %.4f, %.4f",
+                ranges[0], ranges[1], ranges[2], ranges[3]));
+        System.out.println(String.format(Locale.US, "Accuracy float: %.4f%%, int8: %.4f%%, delta: %+.4f%%",
+                100.0 * floatCorrect / testCount, 100.0 * int8Correct / testCount,
+                100.0 * (int8Correct - floatCorrect) / testCount));
+        System.out.println(String.format(Locale.US, "Same class: %.4f%%, max. probability delta: %.4f",
+                100.0 * agreement / testCount, maxDelta));
+        System.out.println(String.format(Locale.US, "Latency float: %.1f us/blob, int8: %.1f us/blob, speedup: %.2fx",
+                floatMicros, int8Micros, floatMicros / int8Micros));
+    }
+
+    private static int argmax(float[] values, int offset, int length) {
+        int idx = 0;
+        for (int i = 1; i < length; i++) {
+            if (values[offset + i] > values[offset + idx]) {
+                idx = i;
+            }
+        }
+        return idx;
+    }
+}
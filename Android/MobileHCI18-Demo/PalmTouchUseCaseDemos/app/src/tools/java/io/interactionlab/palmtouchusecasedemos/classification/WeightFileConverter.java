@@ -0,0 +1,100 @@
+package io.interactionlab.palmtouchusecasedemos.classification;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Converts a frozen graph into a WeightFile. Runs on a desktop JVM (see runTool in
+ * app/build.gradle):
+ *
+ * java WeightFileConverter palmtouch.pb p21_calibration.bin palmtouch.ptw
+ *
+ * The activation ranges of the int8 engine are calibrated on the calibration blobs of the
+ * CalibrationSet and stored with the weights. The result goes into the assets. After
+ * writing, the file is mapped again and compared with the graph, and both are run on the
+ * same input to make sure the conversion is lossless.
+ */
+public class WeightFileConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: WeightFileConverter <palmtouch.pb> <calibration set> <palmtouch.ptw>");
+            System.exit(1);
+        }
+
+        InputStream in = new FileInputStream(args[0]);
+        GraphDefReader graph;
+        try {
+            graph = new GraphDefReader(in);
+        } finally {
+            in.close();
+        }
+
+        // [-1, height, width, 1]
+        int[] inputShape = graph.getIntTensor("Reshape/shape");
+
+        int tensorCount = WeightFile.TENSOR_NAMES.length;
+        float[][] tensors = new float[tensorCount][];
+        int[][] shapes = new int[tensorCount][];
+        // All but the activation ranges come from the graph.
+        for (int t = 0; t < tensorCount - 1; t++) {
+            tensors[t] = graph.getFloatTensor(WeightFile.TENSOR_NAMES[t]);
+            shapes[t] = graph.getShape(WeightFile.TENSOR_NAMES[t]);
+        }
+
+        CnnInferenceEngine fromGraph = new CnnInferenceEngine(inputShape[1], inputShape[2],
+                new float[][]{tensors[0], tensors[2], tensors[4], tensors[6]},
+                new int[][]{shapes[0], shapes[2], shapes[4], shapes[6]},
+                new float[][]{tensors[1], tensors[3], tensors[5], tensors[7]});
+
+        CalibrationSet calibrationSet = CalibrationSet.read(new File(args[1]), fromGraph.getInputSize());
+        tensors[tensorCount - 1] = QuantizedCnnInferenceEngine.calibrate(fromGraph,
+                calibrationSet.getCalibrationImages(), calibrationSet.getCalibrationCount());
+        shapes[tensorCount - 1] = new int[]{tensors[tensorCount - 1].length};
+
+        File outFile = new File(args[2]);
+        OutputStream out = new FileOutputStream(outFile);
+        try {
+            WeightFile.write(out, inputShape[1], inputShape[2], inputShape[3], tensors, shapes);
+        } finally {
+            out.close();
+        }
+
+        // Verify the written file.
+        WeightFile file = WeightFile.map(outFile);
+        for (int t = 0; t < tensorCount; t++) {
+            float[] values = new float[tensors[t].length];
+            file.getTensor(WeightFile.TENSOR_NAMES[t]).get(values);
+            if (!Arrays.equals(values, tensors[t]) || !Arrays.equals(file.getShape(WeightFile.TENSOR_NAMES[t]), shapes[t])) {
+                throw new IOException("Tensor " + WeightFile.TENSOR_NAMES[t] + " differs after conversion.");
+            }
+        }
+
+        CnnInferenceEngine fromFile = CnnInferenceEngine.fromWeightFile(file);
+
+        float[] input = new float[fromGraph.getInputSize()];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (i * 7919 % 101) / 100f;
+        }
+        float[] expected = new float[fromGraph.getNumClasses()];
+        float[] actual = new float[fromFile.getNumClasses()];
+        fromGraph.run(input, 1, expected);
+        fromFile.run(input, 1, actual);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IOException("Outputs differ after conversion: " + Arrays.toString(expected)
+                    + " vs. " + Arrays.toString(actual));
+        }
+
+        System.out.println("Wrote " + outFile + " (" + outFile.length() + " bytes, "
+                + inputShape[1] + "x" + inputShape[2] + "x" + inputShape[3] + " input)");
+        float[] ranges = tensors[tensorCount - 1];
+        System.out.println(String.format(Locale.US, "Activation ranges from %d blobs: %.4f, %.4f, %.4f, %.4f",
+                calibrationSet.getCalibrationCount(), ranges[0], ranges[1], ranges[2], ranges[3]));
+    }
+}
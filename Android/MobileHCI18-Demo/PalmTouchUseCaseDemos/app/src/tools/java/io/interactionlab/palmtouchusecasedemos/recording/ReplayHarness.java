@@ -0,0 +1,376 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.hcilab.libftsp.listeners.LocalCapImgListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobClassifier;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+import io.interactionlab.palmtouchusecasedemos.classification.ClassificationCache;
+import io.interactionlab.palmtouchusecasedemos.classification.CnnInferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.DemoSettings;
+import io.interactionlab.palmtouchusecasedemos.classification.FeatureGate;
+import io.interactionlab.palmtouchusecasedemos.classification.InferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.ModelDescription;
+import io.interactionlab.palmtouchusecasedemos.classification.QuantizedCnnInferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.WeightFile;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobDetectionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobExtractionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobTrackingStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.ClassificationStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FramePipeline;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FrameRingBuffer;
+import io.interactionlab.palmtouchusecasedemos.pipeline.IdleCheckStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyHistogram;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyReporter;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmDecisionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmEvidenceStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.Stage;
+
+/**
+ * Replays recorded sessions (see SessionRecorder) through the same pipeline as the
+ * PalmTouchService. Runs on a desktop JVM with the app classes and libftsp.jar (see runTool
+ * in app/build.gradle):
+ *
+ * java ReplayHarness [options] <session directory> <palmtouch.ptw>
+ *
+ * --session <name>  Replay only this session, default all sessions in the directory.
+ * --realtime        Deliver the frames with their original timing instead of unthrottled.
+ * --threaded        Run every stage on its own thread, as on the device.
+ * --model <n>       Index of the model in DemoSettings.models, 0 (Java, default) or 1 (int8).
+ * --model-only      Classify every blob with the model, without the ClassificationCache.
+ * --feature-gate    Ask the FeatureGate before the cache and the model. It is off in
+ *                   PalmTouchService.
+ * --decision <rule> Decide palm touches with "evidence" (PalmEvidenceStage, default, as
+ *                   in PalmTouchService) or "counter" (PalmDecisionStage).
+ * --bound <x>       Bound of the PalmEvidenceStage in log-odds, default
+ *                   PalmEvidenceStage.DEFAULT_BOUND.
+ * --compare         Replay every session with both rules.
+ *
+ * Between the replay source and the pipeline frames are never dropped, so every run over the
+ * same session makes the same decisions, whatever the speed of the machine. For every
+ * session the frames/s, the latency of every stage and the palm touches are printed, with
+ * the frame index of each palm touch, and compared with the palm touches in the recording.
+ *
+ * The decisions are also rated per track (see BlobTrackingStage): the time from the first
+ * frame of a palm until it triggered, and how many triggers fell on fingers. As recordings
+ * carry no ground truth, a track counts as palm if the classifier took it for a palm in
+ * most of its frames.
+ */
+public class ReplayHarness {
+    // Frames of the counter rule, as in the PalmTouchService before the PalmEvidenceStage
+    private static final int CONSECUTIVE_PALMS = 2;
+    // Same as in PalmTouchService
+    private static final int FRAME_QUEUE_CAPACITY = 4;
+
+    private static final int DECISION_COUNTER = 0;
+    private static final int DECISION_EVIDENCE = 1;
+    private static final String[] DECISION_NAMES = {"counter", "evidence"};
+
+    // Per track: first frame, its timestamp, frames, palm frames, triggers, first trigger frame
+    // and its timestamp
+    private static final int TRACK_FIRST = 0;
+    private static final int TRACK_FIRST_TIMESTAMP = 1;
+    private static final int TRACK_FRAMES = 2;
+    private static final int TRACK_PALM_FRAMES = 3;
+    private static final int TRACK_TRIGGERS = 4;
+    private static final int TRACK_TRIGGER = 5;
+    private static final int TRACK_TRIGGER_TIMESTAMP = 6;
+
+    public static void main(String[] args) throws Exception {
+        String session = null;
+        boolean realtime = false;
+        boolean threaded = false;
+        boolean modelOnly = false;
+        boolean featureGate = false;
+        boolean compare = false;
+        int decision = DECISION_EVIDENCE;
+        double bound = PalmEvidenceStage.DEFAULT_BOUND;
+        int model = 0;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--session") && i + 1 < args.length) {
+                session = args[++i];
+            } else if (args[i].equals("--realtime")) {
+                realtime = true;
+            } else if (args[i].equals("--threaded")) {
+                threaded = true;
+            } else if (args[i].equals("--model") && i + 1 < args.length) {
+                model = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--model-only")) {
+                modelOnly = true;
+            } else if (args[i].equals("--feature-gate")) {
+                featureGate = true;
+            } else if (args[i].equals("--decision") && i + 1 < args.length) {
+                decision = Arrays.asList(DECISION_NAMES).indexOf(args[++i]);
+                if (decision < 0) {
+                    files.clear();
+                    break;
+                }
+            } else if (args[i].equals("--bound") && i + 1 < args.length) {
+                bound = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--compare")) {
+                compare = true;
+            } else {
+                files.add(args[i]);
+            }
+        }
+
+        if (files.size() != 2 || model < 0 || model >= DemoSettings.models.length
+                || DemoSettings.models[model].engine == ModelDescription.ENGINE_TENSORFLOW || bound <= 0) {
+            System.err.println("Usage: ReplayHarness [--session <name>] [--realtime] [--threaded] "
+                    + "[--model 0|1] [--model-only] [--feature-gate] [--decision counter|evidence] [--bound <x>] [--compare] "
+                    + "<session directory> <palmtouch.ptw>");
+            System.exit(1);
+        }
+
+        File directory = new File(files.get(0));
+        ModelDescription modelDescription = DemoSettings.models[model];
+        WeightFile weights = WeightFile.map(new File(files.get(1)));
+        weights.checkInputDimensions(modelDescription.inputDimensions);
+
+        List<String> sessions = session != null ? Arrays.asList(session) : SessionRecorder.listSessions(directory);
+        if (sessions.isEmpty()) {
+            System.err.println("No sessions in " + directory);
+            System.exit(1);
+        }
+
+        int recovered = SessionRecorder.recoverAll(directory);
+        if (recovered > 0) {
+            System.out.println(recovered + " segments recovered");
+        }
+
+        System.out.println(String.format(Locale.US, "%s, %s, %s, %s, bound %.2f", modelDescription.modelName,
+                modelOnly ? "model only" : featureGate ? "with gate and cache" : "with cache", threaded ? "threaded" : "single thread",
+                realtime ? "original timing" : "unthrottled", bound));
+        int[] decisions = compare ? new int[]{DECISION_COUNTER, DECISION_EVIDENCE} : new int[]{decision};
+        for (String name : sessions) {
+            for (int d : decisions) {
+                replay(directory, name, weights, modelDescription, modelOnly, featureGate, realtime, threaded, d, bound);
+            }
+        }
+    }
+
+    private static void replay(File directory, String session, WeightFile weights, ModelDescription modelDescription,
+                               boolean modelOnly, boolean featureGate, boolean realtime, boolean threaded,
+                               int decision, double bound) throws IOException, InterruptedException {
+        InferenceEngine engine = modelDescription.engine == ModelDescription.ENGINE_JAVA_INT8
+                ? QuantizedCnnInferenceEngine.fromWeightFile(weights) : CnnInferenceEngine.fromWeightFile(weights);
+        BlobClassifier blobClassifier = new BlobClassifier(engine, modelDescription);
+        if (!modelOnly) {
+            if (featureGate) {
+                blobClassifier.setFeatureGate(new FeatureGate());
+            }
+            blobClassifier.setClassificationCache(new ClassificationCache());
+        }
+
+        try {
+            replay(directory, session, blobClassifier, realtime, threaded, decision, bound);
+        } finally {
+            blobClassifier.close();
+        }
+    }
+
+    private static void replay(File directory, String session, BlobClassifier blobClassifier, boolean realtime,
+                               boolean threaded, int decision, double bound) throws IOException, InterruptedException {
+        List<Long> recordedTouches = new ArrayList<Long>();
+        SessionReader reader = new SessionReader(directory, session);
+        Frame recorded = new Frame();
+        for (long index = 0; reader.next(recorded); index++) {
+            if (recorded.palmTouch) {
+                recordedTouches.add(index);
+            }
+        }
+        reader.close();
+        final long frameCount = reader.getReadCount();
+
+        final List<Long> palmTouches = new ArrayList<Long>();
+        final List<Long> palmTouchTimestamps = new ArrayList<Long>();
+        final long[] processed = new long[1];
+        final Map<Integer, long[]> tracks = new LinkedHashMap<Integer, long[]>();
+        Stage trace = new Stage() {
+            @Override
+            public String getName() {
+                return "trace";
+            }
+
+            @Override
+            public void process(Frame frame) {
+                synchronized (processed) {
+                    // No frame is dropped, so the sequence number is the index in the session.
+                    if (frame.palmTouch) {
+                        palmTouches.add(frame.sequence);
+                        palmTouchTimestamps.add(frame.timestamp);
+                    }
+                    if (frame.tracked && !frame.classificationSkipped) {
+                        addToTracks(frame, tracks);
+                    }
+                    processed[0]++;
+                    processed.notifyAll();
+                }
+            }
+        };
+
+        final FrameRingBuffer frameRing = new FrameRingBuffer(FRAME_QUEUE_CAPACITY, FrameRingBuffer.BLOCK);
+        IdleCheckStage idleCheck = new IdleCheckStage();
+        BlobTrackingStage tracking = new BlobTrackingStage();
+        ClassificationStage classification = new ClassificationStage(blobClassifier);
+        PalmDecisionStage.Listener listener = new PalmDecisionStage.Listener() {
+            @Override
+            public void onPalmTouch(Frame frame) {
+                // Recorded in trace
+            }
+
+            @Override
+            public void onPalmSuspected(Frame frame) {
+                // Nothing to prepare
+            }
+        };
+        FramePipeline framePipeline = new FramePipeline(frameRing,
+                idleCheck,
+                new BlobDetectionStage(),
+                tracking,
+                new BlobExtractionStage(new BlobExtractor(0, 268, 268)),
+                classification,
+                decision == DECISION_EVIDENCE
+                        ? new PalmEvidenceStage(bound, listener)
+                        : new PalmDecisionStage(CONSECUTIVE_PALMS, listener),
+                trace);
+
+        ReplaySource source = new ReplaySource(new SessionReader(directory, session), realtime);
+        source.setLocalCapImgListener(new LocalCapImgListener() {
+            @Override
+            public void onLocalCapImg(CapacitiveImageTS capImg) {
+                Frame frame = frameRing.claim();
+                if (frame != null) {
+                    frame.set(capImg, System.nanoTime());
+                    frameRing.publish();
+                }
+            }
+        });
+
+        framePipeline.start(threaded);
+        long start = System.nanoTime();
+        source.startHandler();
+        source.join();
+        synchronized (processed) {
+            while (processed[0] < source.getDeliveredFrames()) {
+                processed.wait();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        framePipeline.stop(1000);
+
+        if (source.getError() != null) {
+            throw source.getError();
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%s, %s: %d frames in %.3f s, %.1f frames/s",
+                session, DECISION_NAMES[decision], frameCount, nanos / 1e9, frameCount / (nanos / 1e9)));
+        System.out.println(framePipeline);
+        System.out.println(idleCheck);
+        System.out.println(tracking);
+        System.out.println(classification);
+
+        // The capture and total latencies refer to the time of recording, leave them out.
+        LatencyHistogram[] histograms = framePipeline.getLatencyHistograms();
+        System.out.println(new LatencyReporter(Arrays.copyOfRange(histograms, 1, histograms.length - 1)).summary());
+
+        System.out.println(String.format(Locale.US, "%d palm touches, %d in the recording, %s",
+                palmTouches.size(), recordedTouches.size(),
+                palmTouches.equals(recordedTouches) ? "identical" : "DIFFERENT"));
+        for (int i = 0; i < palmTouches.size(); i++) {
+            System.out.println("  palm touch at frame " + palmTouches.get(i) + ", timestamp " + palmTouchTimestamps.get(i));
+        }
+        if (!palmTouches.equals(recordedTouches)) {
+            System.out.println("  recorded at frames " + recordedTouches);
+        }
+        printDecisionReport(tracks);
+    }
+
+    private static void addToTracks(Frame frame, Map<Integer, long[]> tracks) {
+        for (int i = 0; i < frame.blobCount; i++) {
+            int id = frame.blobTracks[i];
+            if (id < 0) {
+                continue;
+            }
+
+            long[] track = tracks.get(id);
+            if (track == null) {
+                track = new long[]{frame.sequence, frame.timestamp, 0, 0, 0, -1, 0};
+                tracks.put(id, track);
+            }
+            track[TRACK_FRAMES]++;
+            if (frame.blobClasses[i] == PalmDecisionStage.PALM_CLASS) {
+                track[TRACK_PALM_FRAMES]++;
+            }
+        }
+
+        if (frame.palmTouch && frame.palmTouchTrack >= 0) {
+            long[] track = tracks.get(frame.palmTouchTrack);
+            if (track[TRACK_TRIGGERS]++ == 0) {
+                track[TRACK_TRIGGER] = frame.sequence;
+                track[TRACK_TRIGGER_TIMESTAMP] = frame.timestamp;
+            }
+        }
+    }
+
+    /**
+     * Prints the time to trigger of the tracks that were mostly classified as palm and the
+     * triggers on the other tracks.
+     */
+    private static void printDecisionReport(Map<Integer, long[]> tracks) {
+        List<Long> frames = new ArrayList<Long>();
+        List<Long> millis = new ArrayList<Long>();
+        int palmTracks = 0;
+        int triggeredPalmTracks = 0;
+        int triggers = 0;
+        int fingerTriggers = 0;
+        for (long[] track : tracks.values()) {
+            boolean palm = 2 * track[TRACK_PALM_FRAMES] > track[TRACK_FRAMES];
+            triggers += track[TRACK_TRIGGERS];
+            if (palm) {
+                palmTracks++;
+            } else {
+                fingerTriggers += track[TRACK_TRIGGERS];
+            }
+            if (palm && track[TRACK_TRIGGERS] > 0) {
+                triggeredPalmTracks++;
+                frames.add(track[TRACK_TRIGGER] - track[TRACK_FIRST] + 1);
+                millis.add(track[TRACK_TRIGGER_TIMESTAMP] - track[TRACK_FIRST_TIMESTAMP]);
+            }
+        }
+        Collections.sort(frames);
+        Collections.sort(millis);
+
+        System.out.println(String.format(Locale.US, "  time to trigger of palms: median %s frames / %s ms, mean %.2f frames / %.1f ms",
+                median(frames), median(millis), mean(frames), mean(millis)));
+        System.out.println(String.format(Locale.US, "  %d of %d tracks mostly palm triggered, %d of %d triggers "
+                        + "on tracks mostly finger (%.1f%%)",
+                triggeredPalmTracks, palmTracks, fingerTriggers, triggers,
+                triggers > 0 ? 100.0 * fingerTriggers / triggers : 0.0));
+    }
+
+    private static String median(List<Long> sorted) {
+        return sorted.isEmpty() ? "-" : String.valueOf(sorted.get(sorted.size() / 2));
+    }
+
+    private static double mean(List<Long> values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return values.isEmpty() ? 0 : (double) sum / values.size();
+    }
+}
@@ -0,0 +1,116 @@
+package io.interactionlab.palmtouchusecasedemos.recording;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.hcilab.libftsp.listeners.LocalCapImgListener;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * Stands in for the LocalDeviceHandler of libftsp: reads the frames of a recorded session
+ * and delivers them to a LocalCapImgListener on its own thread, as CapacitiveImageTS in the
+ * same text format as the kernel, so the listener code runs unchanged.
+ *
+ * The frames are delivered either with their original timing, as they were received when
+ * recording, or as fast as the listener takes them.
+ */
+public class ReplaySource {
+    private static final String TAG = ReplaySource.class.getSimpleName();
+
+    private final SessionReader reader;
+    private final boolean originalTiming;
+    private final Frame frame = new Frame();
+    private final StringBuilder line = new StringBuilder();
+    private final Thread thread;
+
+    private LocalCapImgListener listener;
+    private volatile long deliveredFrames;
+    private volatile IOException error;
+
+    /**
+     * @param originalTiming True to keep the intervals between the frames of the recording,
+     *                       false to deliver them as fast as possible.
+     */
+    public ReplaySource(SessionReader reader, boolean originalTiming) {
+        this.reader = reader;
+        this.originalTiming = originalTiming;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, TAG);
+    }
+
+    public void setLocalCapImgListener(LocalCapImgListener listener) {
+        this.listener = listener;
+    }
+
+    public void startHandler() {
+        thread.start();
+    }
+
+    public void stopHandler() {
+        thread.interrupt();
+    }
+
+    /**
+     * Waits until all frames have been delivered or the replay was stopped.
+     */
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    /**
+     * @return The error that ended the replay early, or null.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    private void replay() {
+        long startNanos = System.nanoTime();
+        long firstReceivedNanos = 0;
+
+        try {
+            while (!Thread.currentThread().isInterrupted() && reader.next(frame)) {
+                if (originalTiming) {
+                    if (deliveredFrames == 0) {
+                        firstReceivedNanos = frame.receivedNanos;
+                    }
+
+                    long due = startNanos + frame.receivedNanos - firstReceivedNanos;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+
+                listener.onLocalCapImg(new CapacitiveImageTS(toLine(frame)));
+                deliveredFrames++;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * @return The frame as "seconds,nanoseconds,value0,...,value404", like the kernel writes it.
+     */
+    private String toLine(Frame frame) {
+        line.setLength(0);
+        line.append(frame.timestamp / 1000).append(',')
+                .append(String.format(Locale.US, "%09d", frame.timestamp % 1000 * 1000000));
+        for (int i = 0; i < Frame.SIZE; i++) {
+            line.append(',').append(frame.matrix[i]);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,299 @@
+package io.interactionlab.palmtouchusecasedemos.simulation;
+
+import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobBoundingBox;
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.hcilab.libftsp.listeners.LocalCapImgListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import io.interactionlab.palmtouchusecasedemos.classification.BlobClassifier;
+import io.interactionlab.palmtouchusecasedemos.classification.BlobExtractor;
+import io.interactionlab.palmtouchusecasedemos.classification.ClassificationCache;
+import io.interactionlab.palmtouchusecasedemos.classification.CnnInferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.DemoSettings;
+import io.interactionlab.palmtouchusecasedemos.classification.InferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.ModelDescription;
+import io.interactionlab.palmtouchusecasedemos.classification.QuantizedCnnInferenceEngine;
+import io.interactionlab.palmtouchusecasedemos.classification.WeightFile;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobDetectionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobExtractionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.BlobTrackingStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.ClassificationStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FramePipeline;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FrameRingBuffer;
+import io.interactionlab.palmtouchusecasedemos.pipeline.FrameSkipController;
+import io.interactionlab.palmtouchusecasedemos.pipeline.IdleCheckStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyHistogram;
+import io.interactionlab.palmtouchusecasedemos.pipeline.LatencyReporter;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmDecisionStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.PalmEvidenceStage;
+import io.interactionlab.palmtouchusecasedemos.pipeline.Stage;
+
+/**
+ * Runs synthetic frames (see SyntheticFrameGenerator) through the pipeline of the
+ * PalmTouchService on a desktop JVM with the app classes and libftsp.jar (see runTool in
+ * app/build.gradle):
+ *
+ * java StressHarness [options] <palmtouch.ptw>
+ *
+ * --scenario <name>  One of SyntheticFrameGenerator.SCENARIO_NAMES, default all.
+ * --frames <n>       Frames per scenario, default 5000.
+ * --rate <hz>        Frames per second, default 0 for as fast as possible.
+ * --seed <n>         Seed of the generator, default 1.
+ * --threaded         Run every stage on its own thread, as on the device.
+ * --model <n>        Index of the model in DemoSettings.models, 0 (Java, default) or 1 (int8).
+ * --adaptive         Let a FrameSkipController skip classifications, as on the device.
+ * --idle-check       Put an IdleCheckStage in front of the detection, as on the device.
+ * --track            Track the blobs and decide per track, as on the device.
+ * --check-libftsp    Also run the recursive blob detection of libftsp on every frame, compare
+ *                    it with the BlobDetectionStage and report stack overflows.
+ *
+ * Unthrottled, no frame is dropped and the frames/s are the throughput of the pipeline. At
+ * a fixed rate the input ring drops the oldest frames like on the device, and the dropped
+ * frames show whether the pipeline keeps up. For every stage the rate at which it saturates,
+ * one second divided by its average time per frame, is printed.
+ */
+public class StressHarness {
+    // Same as in PalmTouchService
+    private static final int FRAME_QUEUE_CAPACITY = 4;
+
+    public static void main(String[] args) throws Exception {
+        int scenario = -1;
+        long frames = 5000;
+        double rate = 0;
+        long seed = 1;
+        boolean threaded = false;
+        boolean checkLibftsp = false;
+        boolean adaptive = false;
+        boolean idleCheck = false;
+        boolean track = false;
+        int model = 0;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--scenario") && i + 1 < args.length) {
+                scenario = SyntheticFrameGenerator.scenarioOf(args[++i]);
+                if (scenario < 0) {
+                    files.clear();
+                    break;
+                }
+            } else if (args[i].equals("--frames") && i + 1 < args.length) {
+                frames = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--rate") && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--threaded")) {
+                threaded = true;
+            } else if (args[i].equals("--model") && i + 1 < args.length) {
+                model = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--adaptive")) {
+                adaptive = true;
+            } else if (args[i].equals("--idle-check")) {
+                idleCheck = true;
+            } else if (args[i].equals("--track")) {
+                track = true;
+            } else if (args[i].equals("--check-libftsp")) {
+                checkLibftsp = true;
+            } else {
+                files.add(args[i]);
+            }
+        }
+
+        if (files.size() != 1 || model < 0 || model >= DemoSettings.models.length
+                || DemoSettings.models[model].engine == ModelDescription.ENGINE_TENSORFLOW) {
+            System.err.println("Usage: StressHarness [--scenario " + Arrays.toString(SyntheticFrameGenerator.SCENARIO_NAMES)
+                    + "] [--frames <n>] [--rate <hz>] [--seed <n>] [--threaded] [--model 0|1] [--adaptive] [--idle-check] [--track] [--check-libftsp] <palmtouch.ptw>");
+            System.exit(1);
+        }
+
+        ModelDescription modelDescription = DemoSettings.models[model];
+        WeightFile weights = WeightFile.map(new File(files.get(0)));
+        weights.checkInputDimensions(modelDescription.inputDimensions);
+
+        System.out.println(String.format(Locale.US, "%s, %d frames per scenario, %s, %s%s%s%s, seed %d",
+                modelDescription.modelName, frames, rate > 0 ? rate + " frames/s" : "unthrottled",
+                threaded ? "threaded" : "single thread", adaptive ? ", adaptive" : "",
+                idleCheck ? ", idle check" : "", track ? ", tracking" : "", seed));
+        int first = scenario >= 0 ? scenario : 0;
+        int last = scenario >= 0 ? scenario : SyntheticFrameGenerator.MIXED;
+        for (int s = first; s <= last; s++) {
+            System.out.println();
+            System.out.println(SyntheticFrameGenerator.SCENARIO_NAMES[s] + ":");
+            if (checkLibftsp) {
+                checkDetection(new SyntheticFrameGenerator(s, seed), frames);
+            }
+
+            InferenceEngine engine = modelDescription.engine == ModelDescription.ENGINE_JAVA_INT8
+                    ? QuantizedCnnInferenceEngine.fromWeightFile(weights) : CnnInferenceEngine.fromWeightFile(weights);
+            BlobClassifier blobClassifier = new BlobClassifier(engine, modelDescription);
+            blobClassifier.setClassificationCache(new ClassificationCache());
+            try {
+                run(new SyntheticFrameGenerator(s, seed), frames, rate, threaded, blobClassifier,
+                        adaptive ? new FrameSkipController() : null, idleCheck ? new IdleCheckStage() : null,
+                        track ? new BlobTrackingStage() : null);
+            } finally {
+                blobClassifier.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the blob detection of libftsp and of the BlobDetectionStage on the same frames.
+     */
+    private static void checkDetection(SyntheticFrameGenerator generator, long frames) {
+        BlobDetectionStage detection = new BlobDetectionStage();
+        Frame frame = new Frame();
+        int[] matrix = new int[Frame.SIZE];
+        long libftspNanos = 0;
+        long stageNanos = 0;
+        long mismatches = 0;
+        long overflows = 0;
+
+        for (long i = 0; i < frames; i++) {
+            CapacitiveImageTS capImg = new CapacitiveImageTS(generator.nextLine(i * 1000000L, matrix));
+
+            long start = System.nanoTime();
+            List<BlobBoundingBox> expected;
+            try {
+                expected = capImg.getBlobBoundaries();
+            } catch (StackOverflowError e) {
+                overflows++;
+                continue;
+            }
+            long middle = System.nanoTime();
+            frame.set(capImg, middle);
+            detection.process(frame);
+            long end = System.nanoTime();
+            libftspNanos += middle - start;
+            stageNanos += end - middle;
+
+            boolean same = expected.size() == frame.blobCount;
+            for (int b = 0; same && b < expected.size(); b++) {
+                BlobBoundingBox box = expected.get(b);
+                same = box.x1 == frame.blobBounds[4 * b] && box.y1 == frame.blobBounds[4 * b + 1]
+                        && box.x2 == frame.blobBounds[4 * b + 2] && box.y2 == frame.blobBounds[4 * b + 3];
+            }
+            if (!same) {
+                mismatches++;
+            }
+        }
+
+        System.out.println(String.format(Locale.US,
+                "  detection: libftsp %.1f us/frame, %d stack overflows; BlobDetectionStage %.1f us/frame, %d frames differ",
+                libftspNanos / 1e3 / Math.max(1, frames - overflows), overflows,
+                stageNanos / 1e3 / Math.max(1, frames - overflows), mismatches));
+    }
+
+    private static void run(SyntheticFrameGenerator generator, long frames, double rate, boolean threaded,
+                            BlobClassifier blobClassifier, FrameSkipController skipController,
+                            IdleCheckStage idleCheck, BlobTrackingStage tracking) throws InterruptedException {
+        // The device drops the oldest frames, unthrottled nothing may be dropped.
+        final FrameRingBuffer frameRing = new FrameRingBuffer(FRAME_QUEUE_CAPACITY,
+                rate > 0 ? FrameRingBuffer.DROP_OLDEST : FrameRingBuffer.BLOCK);
+
+        final long[] counts = new long[3]; // processed frames, blobs, palm touches
+        Stage count = new Stage() {
+            @Override
+            public String getName() {
+                return "count";
+            }
+
+            @Override
+            public void process(Frame frame) {
+                synchronized (counts) {
+                    counts[0]++;
+                    counts[1] += frame.blobCount;
+                    counts[2] += frame.palmTouch ? 1 : 0;
+                    counts.notifyAll();
+                }
+            }
+        };
+
+        List<Stage> stages = new ArrayList<Stage>();
+        if (idleCheck != null) {
+            stages.add(idleCheck);
+        }
+        stages.add(new BlobDetectionStage());
+        if (tracking != null) {
+            stages.add(tracking);
+        }
+        stages.add(new BlobExtractionStage(new BlobExtractor(0, 268, 268)));
+        ClassificationStage classification = new ClassificationStage(blobClassifier, skipController);
+        stages.add(classification);
+        stages.add(new PalmEvidenceStage(new PalmDecisionStage.Listener() {
+            @Override
+            public void onPalmTouch(Frame frame) {
+                // Counted in count
+            }
+
+            @Override
+            public void onPalmSuspected(Frame frame) {
+                // Nothing to prepare
+            }
+        }));
+        stages.add(count);
+        FramePipeline framePipeline = new FramePipeline(frameRing, stages.toArray(new Stage[stages.size()]));
+
+        SyntheticFrameSource source = new SyntheticFrameSource(generator, rate, frames);
+        source.setLocalCapImgListener(new LocalCapImgListener() {
+            @Override
+            public void onLocalCapImg(CapacitiveImageTS capImg) {
+                Frame frame = frameRing.claim();
+                if (frame != null) {
+                    frame.set(capImg, System.nanoTime());
+                    frameRing.publish();
+                }
+            }
+        });
+
+        framePipeline.start(threaded);
+        long start = System.nanoTime();
+        source.startHandler();
+        source.join();
+        long processed;
+        synchronized (counts) {
+            while (counts[0] + frameRing.getDroppedOldest() < source.getDeliveredFrames()) {
+                // Dropped frames do not notify.
+                counts.wait(10);
+            }
+            processed = counts[0];
+        }
+        long nanos = System.nanoTime() - start;
+        framePipeline.stop(1000);
+
+        System.out.println(String.format(Locale.US,
+                "  %d frames delivered at %.1f frames/s (max. lag %.1f ms), %d processed at %.1f frames/s, "
+                        + "%d dropped, %.2f blobs/frame, %d palm touches",
+                source.getDeliveredFrames(), source.getDeliveredRate(), source.getMaxLagNanos() / 1e6,
+                processed, processed / (nanos / 1e9), frameRing.getDroppedOldest(),
+                (double) counts[1] / Math.max(1, processed), counts[2]));
+
+        StringBuilder saturation = new StringBuilder("  saturation:");
+        for (int i = 0; i < framePipeline.getStageCount() - 1; i++) {
+            long stageFrames = framePipeline.getFrameCount(i);
+            double avgNanos = stageFrames > 0 ? (double) framePipeline.getTotalNanos(i) / stageFrames : 0;
+            saturation.append(String.format(Locale.US, " %s %.0f frames/s", framePipeline.getStage(i).getName(),
+                    avgNanos > 0 ? 1e9 / avgNanos : Double.POSITIVE_INFINITY));
+        }
+        System.out.println(saturation);
+        if (idleCheck != null) {
+            System.out.println("  " + idleCheck);
+        }
+        if (tracking != null) {
+            System.out.println("  " + tracking);
+            System.out.println("  " + classification);
+        }
+        if (skipController != null) {
+            System.out.println("  " + skipController);
+        }
+
+        // The capture latency is meaningless for generated timestamps, leave it out.
+        LatencyHistogram[] histograms = framePipeline.getLatencyHistograms();
+        System.out.println("  " + new LatencyReporter(Arrays.copyOfRange(histograms, 1, histograms.length - 2)).summary());
+    }
+}
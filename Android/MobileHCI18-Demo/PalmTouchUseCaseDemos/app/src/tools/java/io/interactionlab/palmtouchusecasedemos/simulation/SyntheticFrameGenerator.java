@@ -0,0 +1,272 @@
+package io.interactionlab.palmtouchusecasedemos.simulation;
+
+import java.util.Locale;
+import java.util.Random;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * Generates capacitive images for load and stress tests. The frames depend only on the
+ * scenario, the seed and the number of frames generated before, so a run can be repeated
+ * exactly.
+ *
+ * Touches are Gaussian blobs that live for a number of frames and drift across the screen:
+ * fingers are small and round, palms large, elongated and rotated. Every frame gets a noise
+ * floor on top.
+ *
+ * Scenarios:
+ * FINGER       one finger at a time, with idle frames in between
+ * PALM         one palm at a time, with idle frames in between
+ * MULTI_TOUCH  two to five fingers, sometimes with a palm
+ * NOISE        no touches, but a noise floor around THRESHOLD, so many pixels flicker
+ *              across the blob threshold
+ * FULL_SCREEN  a contact covering the whole screen, the largest possible blob and the
+ *              deepest recursion for a recursive flood fill
+ * MANY_BLOBS   a grid of the smallest blobs that are not discarded, the largest number of
+ *              blobs to classify per frame
+ * MIXED        switches between the scenarios above every few dozen frames, mostly the
+ *              realistic ones
+ */
+public class SyntheticFrameGenerator {
+    public static final int FINGER = 0;
+    public static final int PALM = 1;
+    public static final int MULTI_TOUCH = 2;
+    public static final int NOISE = 3;
+    public static final int FULL_SCREEN = 4;
+    public static final int MANY_BLOBS = 5;
+    public static final int MIXED = 6;
+    public static final String[] SCENARIO_NAMES = {
+            "finger", "palm", "multi-touch", "noise", "full-screen", "many-blobs", "mixed"};
+
+    // Pixels above this value belong to a blob, see BlobDetectionStage.
+    public static final int THRESHOLD = 30;
+
+    private static final int MAX_TOUCHES = 8;
+    private static final double NOISE_SIGMA = 3;
+    private static final double NOISE_FLOOR_MEAN = THRESHOLD - 3;
+    private static final double NOISE_FLOOR_SIGMA = 4;
+    private static final int FULL_SCREEN_LEVEL = 200;
+    private static final int MIXED_PHASE_FRAMES = 60;
+
+    private final int scenario;
+    private final Random random;
+    // Gaussian noise, so the touches do not depend on the noise and vice versa
+    private final Random noise;
+    private final double[] image = new double[Frame.SIZE];
+
+    // Active touches
+    private int touchCount;
+    private final double[] centerX = new double[MAX_TOUCHES];
+    private final double[] centerY = new double[MAX_TOUCHES];
+    private final double[] velocityX = new double[MAX_TOUCHES];
+    private final double[] velocityY = new double[MAX_TOUCHES];
+    private final double[] sigmaMajor = new double[MAX_TOUCHES];
+    private final double[] sigmaMinor = new double[MAX_TOUCHES];
+    private final double[] angle = new double[MAX_TOUCHES];
+    private final double[] amplitude = new double[MAX_TOUCHES];
+    private final int[] remainingFrames = new int[MAX_TOUCHES];
+
+    private int phase;
+    private int phaseFrames;
+    private long frameCount;
+    private final StringBuilder line = new StringBuilder();
+
+    public SyntheticFrameGenerator(int scenario, long seed) {
+        if (scenario < FINGER || scenario > MIXED) {
+            throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+
+        this.scenario = scenario;
+        this.random = new Random(seed);
+        this.noise = new Random(seed * 31 + 17);
+        this.phase = scenario;
+    }
+
+    /**
+     * @return The scenario with the given name (see SCENARIO_NAMES), or -1.
+     */
+    public static int scenarioOf(String name) {
+        for (int i = 0; i < SCENARIO_NAMES.length; i++) {
+            if (SCENARIO_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getScenario() {
+        return scenario;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Generates the next frame into matrix, row-major like Frame.matrix.
+     */
+    public void next(int[] matrix) {
+        if (scenario == MIXED && phaseFrames-- <= 0) {
+            // Mostly realistic input, now and then something nasty.
+            int pick = random.nextInt(20);
+            phase = pick < 6 ? FINGER : pick < 11 ? PALM : pick < 16 ? MULTI_TOUCH : pick < 18 ? NOISE
+                    : pick < 19 ? MANY_BLOBS : FULL_SCREEN;
+            phaseFrames = MIXED_PHASE_FRAMES / 2 + random.nextInt(MIXED_PHASE_FRAMES);
+            touchCount = 0;
+        }
+
+        switch (phase) {
+            case NOISE:
+                fill(NOISE_FLOOR_MEAN, NOISE_FLOOR_SIGMA);
+                break;
+            case FULL_SCREEN:
+                fill(FULL_SCREEN_LEVEL, NOISE_SIGMA);
+                break;
+            case MANY_BLOBS:
+                fill(0, NOISE_SIGMA);
+                drawBlobGrid();
+                break;
+            default:
+                fill(0, NOISE_SIGMA);
+                updateTouches();
+                for (int t = 0; t < touchCount; t++) {
+                    drawTouch(t);
+                }
+                break;
+        }
+
+        for (int i = 0; i < Frame.SIZE; i++) {
+            matrix[i] = (int) Math.round(image[i]);
+        }
+        frameCount++;
+    }
+
+    /**
+     * Generates the next frame as a line in the format of the kernel and CapacitiveImageTS,
+     * "seconds,nanoseconds,value0,...,value404".
+     */
+    public String nextLine(long timestampNanos, int[] matrix) {
+        next(matrix);
+
+        line.setLength(0);
+        line.append(timestampNanos / 1000000000L).append(',')
+                .append(String.format(Locale.US, "%09d", timestampNanos % 1000000000L));
+        for (int i = 0; i < Frame.SIZE; i++) {
+            line.append(',').append(matrix[i]);
+        }
+        return line.toString();
+    }
+
+    private void fill(double mean, double sigma) {
+        for (int i = 0; i < Frame.SIZE; i++) {
+            image[i] = mean + noise.nextGaussian() * sigma;
+        }
+    }
+
+    private void updateTouches() {
+        // Move the touches and remove the expired ones.
+        for (int t = touchCount - 1; t >= 0; t--) {
+            if (--remainingFrames[t] <= 0) {
+                removeTouch(t);
+            } else {
+                centerX[t] += velocityX[t];
+                centerY[t] += velocityY[t];
+            }
+        }
+
+        switch (phase) {
+            case FINGER:
+            case PALM:
+                // Idle frames between the touches
+                if (touchCount == 0 && random.nextInt(4) == 0) {
+                    addTouch(phase == PALM);
+                }
+                break;
+            case MULTI_TOUCH:
+                int fingers = 2 + random.nextInt(4);
+                while (touchCount < fingers) {
+                    addTouch(random.nextInt(10) == 0);
+                }
+                break;
+        }
+    }
+
+    private void addTouch(boolean palm) {
+        if (touchCount == MAX_TOUCHES) {
+            return;
+        }
+
+        int t = touchCount++;
+        centerX[t] = random.nextDouble() * Frame.COLUMNS;
+        centerY[t] = random.nextDouble() * Frame.ROWS;
+        velocityX[t] = (random.nextDouble() - 0.5) * 0.4;
+        velocityY[t] = (random.nextDouble() - 0.5) * 0.8;
+        if (palm) {
+            sigmaMajor[t] = 3 + random.nextDouble() * 2;
+            sigmaMinor[t] = 1.5 + random.nextDouble();
+            angle[t] = random.nextDouble() * Math.PI;
+            amplitude[t] = 100 + random.nextInt(200);
+            remainingFrames[t] = 15 + random.nextInt(60);
+        } else {
+            sigmaMajor[t] = 0.6 + random.nextDouble() * 0.5;
+            sigmaMinor[t] = sigmaMajor[t] * (0.8 + random.nextDouble() * 0.2);
+            angle[t] = random.nextDouble() * Math.PI;
+            amplitude[t] = 80 + random.nextInt(170);
+            remainingFrames[t] = 5 + random.nextInt(40);
+        }
+    }
+
+    private void removeTouch(int t) {
+        int last = --touchCount;
+        centerX[t] = centerX[last];
+        centerY[t] = centerY[last];
+        velocityX[t] = velocityX[last];
+        velocityY[t] = velocityY[last];
+        sigmaMajor[t] = sigmaMajor[last];
+        sigmaMinor[t] = sigmaMinor[last];
+        angle[t] = angle[last];
+        amplitude[t] = amplitude[last];
+        remainingFrames[t] = remainingFrames[last];
+    }
+
+    /**
+     * Adds the rotated, anisotropic Gaussian of touch t, within 3 sigma of its center.
+     */
+    private void drawTouch(int t) {
+        double cos = Math.cos(angle[t]);
+        double sin = Math.sin(angle[t]);
+        double major = 2 * sigmaMajor[t] * sigmaMajor[t];
+        double minor = 2 * sigmaMinor[t] * sigmaMinor[t];
+        int radius = (int) Math.ceil(3 * sigmaMajor[t]);
+
+        int x0 = Math.max(0, (int) centerX[t] - radius);
+        int x1 = Math.min(Frame.COLUMNS - 1, (int) centerX[t] + radius);
+        int y0 = Math.max(0, (int) centerY[t] - radius);
+        int y1 = Math.min(Frame.ROWS - 1, (int) centerY[t] + radius);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                double dx = x - centerX[t];
+                double dy = y - centerY[t];
+                double u = dx * cos + dy * sin;
+                double v = -dx * sin + dy * cos;
+                image[y * Frame.COLUMNS + x] += amplitude[t] * Math.exp(-(u * u / major + v * v / minor));
+            }
+        }
+    }
+
+    /**
+     * Blocks of 3x2 pixels with one pixel of space: the smallest blobs whose bounding box is
+     * large enough to be kept.
+     */
+    private void drawBlobGrid() {
+        for (int y = 1; y + 1 < Frame.ROWS; y += 3) {
+            for (int x = 1; x + 2 < Frame.COLUMNS; x += 4) {
+                for (int dy = 0; dy < 2; dy++) {
+                    for (int dx = 0; dx < 3; dx++) {
+                        image[(y + dy) * Frame.COLUMNS + x + dx] += 80 + 10 * noise.nextGaussian();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.interactionlab.palmtouchusecasedemos.simulation;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.hcilab.libftsp.listeners.LocalCapImgListener;
+
+import java.util.concurrent.locks.LockSupport;
+
+import io.interactionlab.palmtouchusecasedemos.pipeline.Frame;
+
+/**
+ * Stands in for the LocalDeviceHandler of libftsp like the ReplaySource, but delivers frames
+ * of a SyntheticFrameGenerator at a fixed rate, or as fast as the listener takes them.
+ *
+ * Frames are scheduled at absolute times, so a listener that is late once does not lower the
+ * rate; if the source itself cannot keep up, the frames are delivered back to back and the
+ * lag is reported by getMaxLagNanos().
+ */
+public class SyntheticFrameSource {
+    private static final String TAG = SyntheticFrameSource.class.getSimpleName();
+
+    private final SyntheticFrameGenerator generator;
+    private final double rate;
+    private final long frameLimit;
+    private final int[] matrix = new int[Frame.SIZE];
+    private final Thread thread;
+
+    private LocalCapImgListener listener;
+    private volatile long deliveredFrames;
+    private volatile long maxLagNanos;
+    private volatile long elapsedNanos;
+
+    /**
+     * @param rate       Frames per second, 0 for as fast as possible.
+     * @param frameLimit Number of frames to deliver.
+     */
+    public SyntheticFrameSource(SyntheticFrameGenerator generator, double rate, long frameLimit) {
+        this.generator = generator;
+        this.rate = rate;
+        this.frameLimit = frameLimit;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate();
+            }
+        }, TAG);
+    }
+
+    public void setLocalCapImgListener(LocalCapImgListener listener) {
+        this.listener = listener;
+    }
+
+    public void startHandler() {
+        thread.start();
+    }
+
+    public void stopHandler() {
+        thread.interrupt();
+    }
+
+    /**
+     * Waits until all frames have been delivered or the source was stopped.
+     */
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    /**
+     * @return How far the source fell behind its schedule at most.
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    /**
+     * @return Frames per second actually delivered.
+     */
+    public double getDeliveredRate() {
+        return elapsedNanos > 0 ? deliveredFrames / (elapsedNanos / 1e9) : 0;
+    }
+
+    private void generate() {
+        long periodNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        long startNanos = System.nanoTime();
+        // The timestamps look like wall-clock time, as on the device.
+        long startTimestamp = System.currentTimeMillis() * 1000000L;
+
+        for (long i = 0; i < frameLimit && !Thread.currentThread().isInterrupted(); i++) {
+            long due = startNanos + i * periodNanos;
+            if (periodNanos > 0) {
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(this, wait);
+                }
+
+                long lag = System.nanoTime() - due;
+                if (lag > maxLagNanos) {
+                    maxLagNanos = lag;
+                }
+            }
+
+            long timestamp = startTimestamp + (periodNanos > 0 ? i * periodNanos : System.nanoTime() - startNanos);
+            listener.onLocalCapImg(new CapacitiveImageTS(generator.nextLine(timestamp, matrix)));
+            deliveredFrames++;
+        }
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+}
@@ -1,9 +1,15 @@
 package io.interactionlab.trainingdemo;
 
 import android.content.Context;
+import android.util.Log;
 
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import io.interactionlab.trainingdemo.demo.ModelDescription;
 
 /**
@@ -11,43 +17,162 @@ import io.interactionlab.trainingdemo.demo.ModelDescription;
  */
 
 public class BlobClassifier {
-    private static TensorFlowInferenceInterface inferenceInterface;
+    private static final String TAG = BlobClassifier.class.getSimpleName();
+
     private Context context;
-    private ModelDescription modelDescription;
+    private volatile ModelSession session;
+    private float[] outputs = new float[0];
+
+    // Background loading, see setModelAsync().
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    // Guards the swap of the session against close().
+    private final Object lock = new Object();
+    private boolean closed;
+    private volatile long startupNanos = -1;
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private boolean firstClassificationReported;
 
     public BlobClassifier(Context context) {
         // Loading model from assets folder.
         this.context = context;
     }
 
-    public void setModel(ModelDescription modelDescription) {
-        this.modelDescription = modelDescription;
-        inferenceInterface = new TensorFlowInferenceInterface(context.getAssets(), modelDescription.modelPath);
+    /**
+     * Loads the given model on a background thread and runs one blob through it, so that the
+     * first frame does not pay for initializing the graph. Until then isReady() returns false.
+     * The load time, the warm-up time and the time to the first classification are logged.
+     * Does nothing after close().
+     *
+     * @param onReady Called on the background thread once the model is in use, may be null.
+     */
+    public void setModelAsync(final ModelDescription modelDescription, final Runnable onReady) {
+        final long requested = System.nanoTime();
+        if (startupNanos < 0) {
+            startupNanos = requested;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ModelSession next = new ModelSession(new TensorFlowInferenceInterface(context.getAssets(), modelDescription.modelPath), modelDescription);
+                    long loaded = System.nanoTime();
+                    next.run(new float[(int) modelDescription.inputDimensions[1]], 1, new float[modelDescription.labels.length]);
+                    long warmedUp = System.nanoTime();
+
+                    ModelSession previous;
+                    synchronized (lock) {
+                        if (closed) {
+                            next.close();
+                            return;
+                        }
+                        previous = session;
+                        session = next;
+                    }
+                    if (previous != null) {
+                        previous.close();
+                    }
+                    Log.i(TAG, String.format(Locale.US, "%s: load %.1f ms, warm-up %.1f ms",
+                            modelDescription.modelName, (loaded - requested) / 1e6, (warmedUp - loaded) / 1e6));
+
+                    if (onReady != null) {
+                        onReady.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return True once a model is in place, see setModelAsync().
+     */
+    public boolean isReady() {
+        return session != null;
+    }
+
+    /**
+     * Counts a frame that was dropped because the classifier was not ready yet.
+     */
+    public void frameDropped() {
+        droppedFrames.incrementAndGet();
     }
 
+    private void reportFirstClassification() {
+        if (!firstClassificationReported && startupNanos >= 0) {
+            firstClassificationReported = true;
+            Log.i(TAG, String.format(Locale.US, "First classification %.1f ms after loading started, %d frames dropped",
+                    (System.nanoTime() - startupNanos) / 1e6, droppedFrames.get()));
+        }
+    }
+
+    /**
+     * Releases the model. A model that is still loading is released once it is loaded. The
+     * classifier must not be used afterwards.
+     */
+    public void close() {
+        ModelSession previous;
+        synchronized (lock) {
+            closed = true;
+            previous = session;
+            session = null;
+        }
+        loader.shutdownNow();
+        if (previous != null) {
+            previous.close();
+        }
+    }
 
     public ClassificationResult classify(float[] pixels) {
-        // Node Names
-        String inputName = modelDescription.inputNode;
-        String outputName = modelDescription.outputNode;
+        return classifyBatch(pixels, 1)[0];
+    }
 
+    /**
+     * Classifies several blob images with a single run of the graph. The images are stored
+     * one after another in pixels, i.e. image i starts at i * 405 for the PalmTouch model.
+     *
+     * @param count Number of images in pixels.
+     * @return One result per image.
+     */
+    public ClassificationResult[] classifyBatch(float[] pixels, int count) {
+        ClassificationResult[] results = new ClassificationResult[count];
+        if (count == 0) {
+            return results;
+        }
 
-        // Define output nodes
-        String[] outputNodes = new String[]{outputName};
-        float[] outputs = new float[modelDescription.labels.length];
+        // Feed images into the model and fetch the results. A session is only closed after it
+        // has been replaced, in that case the run is repeated with the new one.
+        ModelSession current;
+        int numLabels;
+        do {
+            current = session;
+            if (current == null) {
+                throw new IllegalStateException("No model has been set.");
+            }
 
-        // Feed image into the model and fetch the results.
-        inferenceInterface.feed(inputName, pixels, modelDescription.inputDimensions);
-        inferenceInterface.run(outputNodes, true);
-        inferenceInterface.fetch(outputName, outputs);
+            numLabels = current.getModelDescription().labels.length;
+            if (outputs.length < count * numLabels) {
+                outputs = new float[count * numLabels];
+            }
+        } while (!current.run(pixels, count, outputs));
 
+        for (int i = 0; i < count; i++) {
+            results[i] = toClassificationResult(current.getModelDescription(), outputs, i * numLabels);
+        }
+
+        reportFirstClassification();
+        return results;
+    }
 
+    private ClassificationResult toClassificationResult(ModelDescription modelDescription, float[] outputs, int offset) {
         // Convert one-hot encoded result to an int (= detected class)
         float maxConf = Float.MIN_VALUE;
         int idx = -1;
-        for (int i = 0; i < outputs.length; i++) {
-            if (outputs[i] > maxConf) {
-                maxConf = outputs[i];
+        for (int i = 0; i < modelDescription.labels.length; i++) {
+            if (outputs[offset + i] > maxConf) {
+                maxConf = outputs[offset + i];
                 idx = i;
             }
         }
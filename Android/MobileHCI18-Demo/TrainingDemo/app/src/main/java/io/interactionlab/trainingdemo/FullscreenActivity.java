@@ -17,7 +17,6 @@ import org.hcilab.libftsp.capacitivematrix.blobdetection.BlobDetector;
 import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
 import org.hcilab.libftsp.listeners.LocalCapImgListener;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import io.interactionlab.trainingdemo.demo.DemoSettings;
@@ -76,6 +75,10 @@ public class FullscreenActivity extends AppCompatActivity {
     private BlobClassifier blobClassifier;
     private ModelDescription currentModel;
 
+    // Size of a flattened 27x15 blob image
+    private static final int BLOB_SIZE = 405;
+    private float[] blobImages = new float[BLOB_SIZE];
+
     private int consecPalmCounter;
     private final static int CONSECUTIVE_PALMS = 2;
 
@@ -83,10 +86,7 @@ public class FullscreenActivity extends AppCompatActivity {
 
     boolean visState = false;
 
-    private void setModel(ModelDescription modelDescription) {
-        currentModel = modelDescription;
-        blobClassifier.setModel(currentModel);
-    }
+    private LocalDeviceHandler localDeviceHandler;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -97,25 +97,33 @@ public class FullscreenActivity extends AppCompatActivity {
         movableWindow = (RelativeLayout) findViewById(R.id.movableScreen);
         blobClassifier = new BlobClassifier(this);
 
-        LocalDeviceHandler localDeviceHandler = new LocalDeviceHandler();
+        localDeviceHandler = new LocalDeviceHandler();
         localDeviceHandler.setLocalCapImgListener(new LocalCapImgListener() {
             @Override
             public void onLocalCapImg(final CapacitiveImageTS capImg) { // called approximately every 50ms
+                if (!blobClassifier.isReady()) {
+                    // Still loading, the frame would be stale by the time the model is ready.
+                    blobClassifier.frameDropped();
+                    return;
+                }
+
                 final List<BlobBoundingBox> blobBoundingBoxes = capImg.getBlobBoundaries();
 
-                List<float[]> flattenedBlobs = new ArrayList<float[]>();
                 int[][] matrix = capImg.getMatrix();
 
-                for (BlobBoundingBox bbb : blobBoundingBoxes) {
-                    flattenedBlobs.add(
-                            MatrixUtils.flattenClipAndNormalizeMatrixFloat(
-                                    BlobDetector.getBlobContentIn27x15(matrix, bbb), 0, 268, 268));
+                int blobCount = blobBoundingBoxes.size();
+                if (blobImages.length < blobCount * BLOB_SIZE) {
+                    blobImages = new float[blobCount * BLOB_SIZE];
                 }
 
-                boolean palmFound = false;
-                for (int i = 0; i < flattenedBlobs.size(); i++) {
-                    ClassificationResult cr = blobClassifier.classify(flattenedBlobs.get(i));
+                for (int i = 0; i < blobCount; i++) {
+                    float[] blobImage = MatrixUtils.flattenClipAndNormalizeMatrixFloat(
+                            BlobDetector.getBlobContentIn27x15(matrix, blobBoundingBoxes.get(i)), 0, 268, 268);
+                    System.arraycopy(blobImage, 0, blobImages, i * BLOB_SIZE, BLOB_SIZE);
+                }
 
+                boolean palmFound = false;
+                for (ClassificationResult cr : blobClassifier.classifyBatch(blobImages, blobCount)) {
                     if (cr.index == 1) {
                         palmFound = true;
                     }
@@ -124,11 +132,31 @@ public class FullscreenActivity extends AppCompatActivity {
                 handlePalmDetection(palmFound);
             }
         });
-        localDeviceHandler.startHandler();
 
         imageView.setImageResource(R.mipmap.icon_closed);
 
-        setModel(DemoSettings.models[0]);
+        // Load and warm up the model in the background, frames are only processed afterwards.
+        currentModel = DemoSettings.models[0];
+        blobClassifier.setModelAsync(currentModel, new Runnable() {
+            @Override
+            public void run() {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed()) {
+                            localDeviceHandler.startHandler();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        localDeviceHandler.stopHandler();
+        blobClassifier.close();
     }
 
 
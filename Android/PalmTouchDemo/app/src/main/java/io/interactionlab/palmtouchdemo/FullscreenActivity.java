@@ -13,11 +13,10 @@ import org.hcilab.libftsp.LocalDeviceHandler;
 import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
 import org.hcilab.libftsp.listeners.LocalCapImgListener;
 
-import java.util.ArrayList;
 import java.util.List;
 
+import io.interactionlab.palmtouchdemo.processing.FrameProcessor;
 import io.interactionlab.palmtouchdemo.processing.blobdetection.BlobBoundingBox;
-import io.interactionlab.palmtouchdemo.processing.blobdetection.BlobDetectionUtils;
 import io.interactionlab.palmtouchdemo.processing.palmdetection.PalmClassifier;
 
 
@@ -67,6 +66,31 @@ public class FullscreenActivity extends AppCompatActivity {
     private DrawView drawView;
 
     PalmClassifier palmClassifier;
+    private FrameProcessor frameProcessor;
+    private LocalDeviceHandler localDeviceHandler;
+
+    // Latest result of the frameProcessor, guarded by resultLock
+    private final Object resultLock = new Object();
+    private CapacitiveImageTS resultCapImg;
+    private List<BlobBoundingBox> resultBlobs;
+    private List<String> resultLabels;
+    private boolean drawPending;
+
+    private final Runnable drawResult = new Runnable() {
+        @Override
+        public void run() {
+            CapacitiveImageTS capImg;
+            List<BlobBoundingBox> bbbl;
+            List<String> labels;
+            synchronized (resultLock) {
+                capImg = resultCapImg;
+                bbbl = resultBlobs;
+                labels = resultLabels;
+                drawPending = false;
+            }
+            drawView.updateView(capImg, bbbl, labels);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -76,34 +100,31 @@ public class FullscreenActivity extends AppCompatActivity {
         movableWindow = (RelativeLayout) findViewById(R.id.movableScreen);
         palmClassifier = new PalmClassifier("palmtouch.pb", this);
 
-        LocalDeviceHandler localDeviceHandler = new LocalDeviceHandler();
+        // Blob detection and classification run on their own thread, the UI thread only draws.
+        frameProcessor = new FrameProcessor(palmClassifier, new FrameProcessor.ResultListener() {
+            @Override
+            public void onResult(CapacitiveImageTS capImg, List<BlobBoundingBox> bbbl, List<String> labels) {
+                // Only the latest result is drawn. If a draw is already posted, it picks this
+                // result up, so the UI thread never queues up more than one draw.
+                synchronized (resultLock) {
+                    resultCapImg = capImg;
+                    resultBlobs = bbbl;
+                    resultLabels = labels;
+                    if (drawPending) {
+                        return;
+                    }
+                    drawPending = true;
+                }
+                runOnUiThread(drawResult);
+            }
+        });
+        frameProcessor.start();
+
+        localDeviceHandler = new LocalDeviceHandler();
         localDeviceHandler.setLocalCapImgListener(new LocalCapImgListener() {
             @Override
             public void onLocalCapImg(final CapacitiveImageTS capImg) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        final List<BlobBoundingBox> bbbl = BlobDetectionUtils.getBlobs(capImg);
-                        int detection = -1;
-                        final List<String> labels = new ArrayList<String>();
-                        for (int i = 0; i < bbbl.size(); i++) {
-                            int[][] blobContent = BlobDetectionUtils.getBlobContent(bbbl.get(i), capImg);
-
-                            float[] arr = new float[405];
-                            int index = 0;
-                            for (int[] row : blobContent) {
-                                for (int val : row) {
-                                    arr[index++] = (float) val;
-                                }
-                            }
-
-                            detection = palmClassifier.classify(arr);
-                            final String predString = detection == -1 ? "No Touch Input" : (detection == 0 ? "Finger" : "Palm");
-                            labels.add(predString);
-                        }
-                        drawView.updateView(capImg, bbbl, labels);
-                    }
-                });
+                frameProcessor.submit(capImg);
             }
         });
         localDeviceHandler.startHandler();
@@ -121,6 +142,13 @@ public class FullscreenActivity extends AppCompatActivity {
     }
 
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        localDeviceHandler.stopHandler();
+        frameProcessor.stop();
+    }
+
     @Override
     protected void onPostCreate(Bundle savedInstanceState) {
         super.onPostCreate(savedInstanceState);
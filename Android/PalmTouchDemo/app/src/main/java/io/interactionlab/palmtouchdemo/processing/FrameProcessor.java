@@ -0,0 +1,134 @@
+package io.interactionlab.palmtouchdemo.processing;
+
+import android.util.Log;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.interactionlab.palmtouchdemo.processing.blobdetection.BlobBoundingBox;
+import io.interactionlab.palmtouchdemo.processing.blobdetection.BlobDetectionUtils;
+import io.interactionlab.palmtouchdemo.processing.palmdetection.PalmClassifier;
+
+/**
+ * Runs blob detection and classification on a dedicated thread.
+ *
+ * Only the latest submitted frame is kept: if a new frame arrives while the previous one is
+ * still waiting, the previous one is dropped, so the results never lag behind the finger by
+ * more than one frame. Finished results are handed to the ResultListener on the processing
+ * thread.
+ */
+public class FrameProcessor {
+    private static final String TAG = FrameProcessor.class.getSimpleName();
+
+    public interface ResultListener {
+        /**
+         * Called on the processing thread. The lists are not modified afterwards.
+         */
+        void onResult(CapacitiveImageTS capImg, List<BlobBoundingBox> bbbl, List<String> labels);
+    }
+
+    private final PalmClassifier palmClassifier;
+    private final ResultListener listener;
+    private final Thread thread;
+
+    // Guarded by this
+    private CapacitiveImageTS pendingFrame;
+    private boolean stopped;
+    private long submittedFrames;
+    private long droppedFrames;
+
+    // Only used on the processing thread
+    private float[] blobImages = new float[405];
+
+    public FrameProcessor(PalmClassifier palmClassifier, ResultListener listener) {
+        this.palmClassifier = palmClassifier;
+        this.listener = listener;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processFrames();
+            }
+        }, TAG);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the processing thread. A frame that is being processed is finished, but its
+     * result is not delivered anymore.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        pendingFrame = null;
+        notifyAll();
+        Log.i(TAG, submittedFrames + " frames submitted, " + droppedFrames + " dropped");
+    }
+
+    /**
+     * Queues the frame for processing, replacing a frame that has not been picked up yet.
+     * Never blocks.
+     */
+    public synchronized void submit(CapacitiveImageTS capImg) {
+        if (stopped) {
+            return;
+        }
+
+        if (pendingFrame != null) {
+            droppedFrames++;
+        }
+        pendingFrame = capImg;
+        submittedFrames++;
+        notifyAll();
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private synchronized CapacitiveImageTS takeFrame() throws InterruptedException {
+        while (pendingFrame == null && !stopped) {
+            wait();
+        }
+
+        CapacitiveImageTS capImg = pendingFrame;
+        pendingFrame = null;
+        return capImg;
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private void processFrames() {
+        try {
+            CapacitiveImageTS capImg;
+            while ((capImg = takeFrame()) != null) {
+                final List<BlobBoundingBox> bbbl = BlobDetectionUtils.getBlobs(capImg);
+                int[][] matrix = capImg.getMatrix();
+                if (blobImages.length < bbbl.size() * 405) {
+                    blobImages = new float[bbbl.size() * 405];
+                }
+
+                for (int i = 0; i < bbbl.size(); i++) {
+                    BlobDetectionUtils.getBlobContent(bbbl.get(i), matrix, blobImages, i * 405);
+                }
+
+                final List<String> labels = new ArrayList<String>();
+                for (int detection : palmClassifier.classifyBatch(blobImages, bbbl.size())) {
+                    final String predString = detection == -1 ? "No Touch Input" : (detection == 0 ? "Finger" : "Palm");
+                    labels.add(predString);
+                }
+
+                if (!isStopped()) {
+                    listener.onResult(capImg, bbbl, labels);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+}
@@ -15,44 +15,26 @@ import java.util.List;
  */
 public class BlobDetectionUtils {
 
-    public static List<BlobBoundingBox> getBlobs(CapacitiveImageTS capImg) {
+    private static final BlobMask mask = new BlobMask(15, 27);
+
+    public static synchronized List<BlobBoundingBox> getBlobs(CapacitiveImageTS capImg) {
         int[][] matrix = capImg.getMatrix();
 
-        ArrayList<BlobBoundingBox> blobs = new ArrayList<BlobBoundingBox>();
-        for (int y = 0; y < matrix.length; y++) {
-            for (int x = 0; x < matrix[0].length; x++) {
-                // blob detection
-                List<BlobCoordinates> found = new ArrayList<BlobCoordinates>();
-                blobDetection(matrix, x, y, found);
-
-                if (found.size() > 0) {
-                    int x_min = Integer.MAX_VALUE, x_max = Integer.MIN_VALUE;
-                    int y_min = Integer.MAX_VALUE, y_max = Integer.MIN_VALUE;
-                    for (BlobCoordinates b : found) {
-                        // mins
-                        if (b.x1 < x_min) {
-                            x_min = b.x1;
-                        }
-
-                        if (b.y1 < y_min) {
-                            y_min = b.y1;
-                        }
-
-                        // maxs
-                        if (b.x1 > x_max) {
-                            x_max = b.x1;
-                        }
-
-                        if (b.y1 > y_max) {
-                            y_max = b.y1;
-                        }
-                    }
-
-                    BlobBoundingBox bbb = new BlobBoundingBox(x_min - 1, y_min - 1, x_max + 1, y_max + 1);
-                    if (!blobs.contains(bbb) && ((x_max - x_min) * (y_max - y_min)) > 1) {
-                        blobs.add(bbb);
-                    }
-                }
+        mask.build(matrix);
+        if (mask.isEmpty()) {
+            return new ArrayList<BlobBoundingBox>(0);
+        }
+
+        int blobCount = mask.detect();
+
+        ArrayList<BlobBoundingBox> blobs = new ArrayList<BlobBoundingBox>(blobCount);
+        for (int i = 0; i < blobCount; i++) {
+            int x_min = mask.getMinX(i), x_max = mask.getMaxX(i);
+            int y_min = mask.getMinY(i), y_max = mask.getMaxY(i);
+
+            BlobBoundingBox bbb = mask.getBoundingBox(i);
+            if (!blobs.contains(bbb) && ((x_max - x_min) * (y_max - y_min)) > 1) {
+                blobs.add(bbb);
             }
         }
 
@@ -72,15 +54,26 @@ public class BlobDetectionUtils {
         return blob;
     }
 
-    private static void blobDetection(int[][] matrix, int x, int y, List<BlobCoordinates> found) {
-        final int THRESHOLD = 30;
+    /**
+     * Writes the content of the blob as flattened 27x15 image to dst[offset] ... dst[offset + 404].
+     * Same as getBlobContent followed by flattening, but without the intermediate copies. Parts
+     * of the bounding box that do not fit into 27x15 or lie outside of the matrix are ignored.
+     */
+    public static void getBlobContent(BlobBoundingBox bbb, int[][] matrix, float[] dst, int offset) {
+        for (int i = offset; i < offset + 405; i++) {
+            dst[i] = 0;
+        }
 
-        if (x > 0 && x < matrix[0].length && y > 0 && y < matrix.length && matrix[y][x] > THRESHOLD && !found.contains(new BlobCoordinates(x, y))) {
-            found.add(new BlobCoordinates(x, y));
-            blobDetection(matrix, x + 1, y, found); // right
-            blobDetection(matrix, x - 1, y, found); // left
-            blobDetection(matrix, x, y + 1, found); // top
-            blobDetection(matrix, x, y - 1, found); // down
+        int yStart = Math.max(bbb.y1, 0);
+        int yEnd = Math.min(Math.min(bbb.y2, bbb.y1 + 27), matrix.length);
+        for (int y = yStart; y < yEnd; y++) {
+            int[] row = matrix[y];
+            int xStart = Math.max(bbb.x1, 0);
+            int xEnd = Math.min(Math.min(bbb.x2, bbb.x1 + 15), row.length);
+            int i = offset + (y - bbb.y1) * 15 + (xStart - bbb.x1);
+            for (int x = xStart; x < xEnd; x++) {
+                dst[i++] = row[x];
+            }
         }
     }
 }
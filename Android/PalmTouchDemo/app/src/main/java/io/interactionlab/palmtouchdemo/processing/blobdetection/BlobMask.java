@@ -0,0 +1,230 @@
+package io.interactionlab.palmtouchdemo.processing.blobdetection;
+
+/**
+ * Bit-packed occupancy mask of the capacitive matrix with a run-based blob detection.
+ *
+ * build() thresholds the matrix into one int per row (bit x set if cell x is active).
+ * detect() extracts the runs of consecutive active cells of each row with bit tricks and
+ * merges runs of neighbouring rows that overlap (4-connectivity) in a union-find forest.
+ * Empty frames are answered by build() alone and single blobs only touch a handful of runs.
+ *
+ * Like the original flood fill (and the preprocessing notebook the model was trained
+ * with), cells in the first row and the first column are never part of a blob. An instance
+ * is not thread-safe.
+ */
+public class BlobMask {
+    public static final int THRESHOLD = 30;
+
+    private final int width;
+    private final int height;
+
+    private final int[] rows;
+    private int activeCells;
+
+    // Runs in scan order; runStart[y] is the index of the first run of row y.
+    private final int[] runBits;
+    private final int[] runRow;
+    private final int[] runParent;
+    private final int[] runStart;
+    private int runCount;
+
+    private final int[] blobOfRoot;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+    private final int[] pixelCount;
+    private int blobCount;
+
+    public BlobMask(int width, int height) {
+        if (width > 31) {
+            throw new IllegalArgumentException("Rows wider than 31 cells do not fit into the mask.");
+        }
+
+        this.width = width;
+        this.height = height;
+
+        rows = new int[height];
+
+        // A row of width w holds at most (w + 1) / 2 runs.
+        int maxRuns = height * ((width + 1) / 2);
+        runBits = new int[maxRuns];
+        runRow = new int[maxRuns];
+        runParent = new int[maxRuns];
+        runStart = new int[height + 1];
+
+        blobOfRoot = new int[maxRuns];
+        minX = new int[maxRuns];
+        minY = new int[maxRuns];
+        maxX = new int[maxRuns];
+        maxY = new int[maxRuns];
+        pixelCount = new int[maxRuns];
+    }
+
+    /**
+     * Thresholds the matrix into the row masks.
+     *
+     * @return Number of active cells.
+     */
+    public int build(int[][] matrix) {
+        activeCells = 0;
+        rows[0] = 0;
+        for (int y = 1; y < height; y++) {
+            int[] row = matrix[y];
+            int bits = 0;
+            for (int x = 1; x < width; x++) {
+                if (row[x] > THRESHOLD) {
+                    bits |= 1 << x;
+                }
+            }
+            rows[y] = bits;
+            activeCells += Integer.bitCount(bits);
+        }
+
+        blobCount = 0;
+        return activeCells;
+    }
+
+    /**
+     * @return True if no cell of the last built frame is above the threshold.
+     */
+    public boolean isEmpty() {
+        return activeCells == 0;
+    }
+
+    public int getActiveCellCount() {
+        return activeCells;
+    }
+
+    /**
+     * @return Bitmask of the active cells in row y (bit x = column x).
+     */
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+    /**
+     * Finds the connected components of the last built mask. Blobs are numbered in the
+     * order in which their first cell appears in a row-major scan, as in the original flood fill.
+     *
+     * @return Number of blobs found.
+     */
+    public int detect() {
+        blobCount = 0;
+        runCount = 0;
+        if (activeCells == 0) {
+            return 0;
+        }
+
+        // Extract the runs of each row and merge them with overlapping runs of the row above.
+        for (int y = 0; y < height; y++) {
+            runStart[y] = runCount;
+
+            int bits = rows[y];
+            while (bits != 0) {
+                int lowest = bits & -bits;
+                int run = bits & ~(bits + lowest);
+                bits &= ~run;
+
+                int r = runCount++;
+                runBits[r] = run;
+                runRow[r] = y;
+                runParent[r] = r;
+
+                if (y > 0) {
+                    for (int p = runStart[y - 1]; p < runStart[y]; p++) {
+                        if ((runBits[p] & run) != 0) {
+                            union(p, r);
+                        }
+                    }
+                }
+            }
+        }
+        runStart[height] = runCount;
+
+        for (int r = 0; r < runCount; r++) {
+            blobOfRoot[r] = -1;
+        }
+
+        // Collect bounding boxes and pixel counts per component.
+        for (int r = 0; r < runCount; r++) {
+            int root = find(r);
+            int run = runBits[r];
+            int x1 = Integer.numberOfTrailingZeros(run);
+            int x2 = 31 - Integer.numberOfLeadingZeros(run);
+            int y = runRow[r];
+
+            int b = blobOfRoot[root];
+            if (b < 0) {
+                b = blobCount++;
+                blobOfRoot[root] = b;
+                minX[b] = x1;
+                maxX[b] = x2;
+                minY[b] = y;
+                maxY[b] = y;
+                pixelCount[b] = 0;
+            }
+
+            if (x1 < minX[b]) {
+                minX[b] = x1;
+            }
+            if (x2 > maxX[b]) {
+                maxX[b] = x2;
+            }
+            maxY[b] = y;
+            pixelCount[b] += Integer.bitCount(run);
+        }
+
+        return blobCount;
+    }
+
+    private int find(int r) {
+        while (runParent[r] != r) {
+            runParent[r] = runParent[runParent[r]];
+            r = runParent[r];
+        }
+        return r;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra < rb) {
+            runParent[rb] = ra;
+        } else if (rb < ra) {
+            runParent[ra] = rb;
+        }
+    }
+
+    public int getBlobCount() {
+        return blobCount;
+    }
+
+    public int getMinX(int blob) {
+        return minX[blob];
+    }
+
+    public int getMinY(int blob) {
+        return minY[blob];
+    }
+
+    public int getMaxX(int blob) {
+        return maxX[blob];
+    }
+
+    public int getMaxY(int blob) {
+        return maxY[blob];
+    }
+
+    public int getPixelCount(int blob) {
+        return pixelCount[blob];
+    }
+
+    /**
+     * @return Bounding box as used by the classifier, i.e. with a margin of one cell
+     * to the top and left (see BlobDetectionUtils.getBlobContent).
+     */
+    public BlobBoundingBox getBoundingBox(int blob) {
+        return new BlobBoundingBox(minX[blob] - 1, minY[blob] - 1, maxX[blob] + 1, maxY[blob] + 1);
+    }
+}
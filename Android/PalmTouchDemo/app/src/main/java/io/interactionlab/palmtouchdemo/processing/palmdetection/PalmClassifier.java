@@ -2,8 +2,11 @@ package io.interactionlab.palmtouchdemo.processing.palmdetection;
 
 import android.content.Context;
 
+import org.tensorflow.Shape;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 
+import java.nio.FloatBuffer;
+
 /**
  * Created by Huy on 22/12/2017.
  */
@@ -16,38 +19,70 @@ import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
  * this example: https://github.com/miyosuda/TensorFlowAndroidMNIST/
  */
 public class PalmClassifier {
+    // Node Names
+    private static final String INPUT_NAME = "input_tensor";
+    private static final String OUTPUT_NAME = "output_tensor";
+
     private static TensorFlowInferenceInterface inferenceInterface;
+    // Width of the output, i.e. finger and palm for the PalmTouch model
+    private final int numClasses;
+    private float[] outputs = new float[0];
 
     public PalmClassifier(String modelPath, Context context) {
         // Loading model from assets folder.
         inferenceInterface = new TensorFlowInferenceInterface(context.getAssets(), modelPath);
+
+        // The output has the shape [batch size, classes].
+        Shape shape = inferenceInterface.graphOperation(OUTPUT_NAME).output(0).shape();
+        if (shape.numDimensions() != 2 || shape.size(1) < 1) {
+            throw new IllegalStateException("Output " + OUTPUT_NAME + " of " + modelPath + " has the shape " + shape
+                    + ", expected [batch size, classes].");
+        }
+        numClasses = (int) shape.size(1);
     }
 
 
     public int classify(float[] pixels) {
-        // Node Names
-        String inputName = "input_tensor";
-        String outputName = "output_tensor";
+        return classifyBatch(pixels, 1)[0];
+    }
+
+    /**
+     * Classifies several blob images with a single run of the graph. The images are stored
+     * one after another in pixels, i.e. image i starts at i * 405.
+     *
+     * @param count Number of images in pixels.
+     * @return Detected class per image.
+     */
+    public int[] classifyBatch(float[] pixels, int count) {
+        int[] classes = new int[count];
+        if (count == 0) {
+            return classes;
+        }
 
         // Define output nodes
-        String[] outputNodes = new String[]{outputName};
-        float[] outputs = new float[10];
+        String[] outputNodes = new String[]{OUTPUT_NAME};
+        if (outputs.length < count * numClasses) {
+            outputs = new float[count * numClasses];
+        }
 
-        // Feed image into the model and fetch the results.
-        inferenceInterface.feed(inputName, pixels, 1, 405);
+        // Feed images into the model and fetch the results.
+        inferenceInterface.feed(INPUT_NAME, FloatBuffer.wrap(pixels, 0, count * 405), count, 405);
         inferenceInterface.run(outputNodes, false);
-        inferenceInterface.fetch(outputName, outputs);
-
-        // Convert one-hot encoded result to an int (= detected class)
-        float max = Float.MIN_VALUE;
-        int idx = -1;
-        for (int i = 0; i < outputs.length; i++) {
-            if (outputs[i] > max) {
-                max = outputs[i];
-                idx = i;
+        inferenceInterface.fetch(OUTPUT_NAME, FloatBuffer.wrap(outputs, 0, count * numClasses));
+
+        for (int n = 0; n < count; n++) {
+            // Convert one-hot encoded result to an int (= detected class)
+            float max = Float.MIN_VALUE;
+            int idx = -1;
+            for (int i = 0; i < numClasses; i++) {
+                if (outputs[n * numClasses + i] > max) {
+                    max = outputs[n * numClasses + i];
+                    idx = i;
+                }
             }
+            classes[n] = idx;
         }
 
-        return idx;
+        return classes;
     }
 }
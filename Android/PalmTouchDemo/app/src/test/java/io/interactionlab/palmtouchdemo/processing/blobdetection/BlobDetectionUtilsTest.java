@@ -0,0 +1,154 @@
+package io.interactionlab.palmtouchdemo.processing.blobdetection;
+
+import org.hcilab.libftsp.capacitivematrix.capmatrix.CapacitiveImageTS;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares getBlobs() with the original implementation, a flood fill started from every cell
+ * whose results were filtered by size and deduplicated.
+ */
+public class BlobDetectionUtilsTest {
+    private static final int WIDTH = 15;
+    private static final int HEIGHT = 27;
+
+    @Test
+    public void emptyFrame() {
+        assertTrue(BlobDetectionUtils.getBlobs(image(new int[HEIGHT][WIDTH])).isEmpty());
+    }
+
+    @Test
+    public void smallBlobsAreFilteredBySize() {
+        // Kept only if (x_max - x_min) * (y_max - y_min) > 1.
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        // Single cell: 0
+        matrix[2][2] = 100;
+        // Line of five cells: 0
+        fill(matrix, 5, 2, 9, 2);
+        // 2x2 square: 1
+        fill(matrix, 2, 5, 3, 6);
+        // L of three cells, same box: 1
+        fill(matrix, 6, 5, 7, 5);
+        matrix[6][6] = 100;
+        // 3x2 rectangle: 2
+        fill(matrix, 10, 5, 12, 6);
+        // 2x3 rectangle: 2
+        fill(matrix, 2, 10, 3, 12);
+
+        List<BlobBoundingBox> blobs = BlobDetectionUtils.getBlobs(image(matrix));
+        assertEquals(originalGetBlobs(image(matrix)), blobs);
+        assertEquals(2, blobs.size());
+        assertEquals(new BlobBoundingBox(9, 4, 13, 7), blobs.get(0));
+        assertEquals(new BlobBoundingBox(1, 9, 4, 13), blobs.get(1));
+    }
+
+    @Test
+    public void everyBlobIsReportedOnce() {
+        // The original implementation found every blob once per cell and deduplicated the
+        // bounding boxes. Distinct blobs cannot have the same box: one would have to cross
+        // the box from left to right and the other from top to bottom without touching.
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        fill(matrix, 1, 1, 14, 26);
+
+        List<BlobBoundingBox> blobs = BlobDetectionUtils.getBlobs(image(matrix));
+        assertEquals(originalGetBlobs(image(matrix)), blobs);
+        assertEquals(1, blobs.size());
+        assertEquals(new BlobBoundingBox(0, 0, 15, 27), blobs.get(0));
+    }
+
+    @Test
+    public void firstRowAndColumnAreExcluded() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        fill(matrix, 0, 0, 14, 0);
+        fill(matrix, 0, 0, 0, 26);
+
+        assertTrue(BlobDetectionUtils.getBlobs(image(matrix)).isEmpty());
+        assertTrue(originalGetBlobs(image(matrix)).isEmpty());
+    }
+
+    @Test
+    public void randomFrames() {
+        Random random = new Random(7);
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        for (int n = 0; n < 300; n++) {
+            double density = random.nextDouble() * 0.7;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    matrix[y][x] = random.nextDouble() < density ? 31 + random.nextInt(200) : random.nextInt(31);
+                }
+            }
+
+            CapacitiveImageTS capImg = image(matrix);
+            List<BlobBoundingBox> blobs = BlobDetectionUtils.getBlobs(capImg);
+            assertEquals(originalGetBlobs(capImg), blobs);
+            assertEquals(blobs.size(), new HashSet<BlobBoundingBox>(blobs).size());
+        }
+    }
+
+    private static void fill(int[][] matrix, int x1, int y1, int x2, int y2) {
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++) {
+                matrix[y][x] = 100;
+            }
+        }
+    }
+
+    private static CapacitiveImageTS image(int[][] matrix) {
+        StringBuilder line = new StringBuilder("1530000000,000000000");
+        for (int[] row : matrix) {
+            for (int value : row) {
+                line.append(',').append(value);
+            }
+        }
+        return new CapacitiveImageTS(line.toString());
+    }
+
+    private static List<BlobBoundingBox> originalGetBlobs(CapacitiveImageTS capImg) {
+        int[][] matrix = capImg.getMatrix();
+
+        ArrayList<BlobBoundingBox> blobs = new ArrayList<BlobBoundingBox>();
+        for (int y = 0; y < matrix.length; y++) {
+            for (int x = 0; x < matrix[0].length; x++) {
+                // blob detection
+                List<BlobCoordinates> found = new ArrayList<BlobCoordinates>();
+                blobDetection(matrix, x, y, found);
+
+                if (found.size() > 0) {
+                    int x_min = Integer.MAX_VALUE, x_max = Integer.MIN_VALUE;
+                    int y_min = Integer.MAX_VALUE, y_max = Integer.MIN_VALUE;
+                    for (BlobCoordinates b : found) {
+                        x_min = Math.min(x_min, b.x1);
+                        y_min = Math.min(y_min, b.y1);
+                        x_max = Math.max(x_max, b.x1);
+                        y_max = Math.max(y_max, b.y1);
+                    }
+
+                    BlobBoundingBox bbb = new BlobBoundingBox(x_min - 1, y_min - 1, x_max + 1, y_max + 1);
+                    if (!blobs.contains(bbb) && ((x_max - x_min) * (y_max - y_min)) > 1) {
+                        blobs.add(bbb);
+                    }
+                }
+            }
+        }
+
+        return blobs;
+    }
+
+    private static void blobDetection(int[][] matrix, int x, int y, List<BlobCoordinates> found) {
+        final int THRESHOLD = 30;
+
+        if (x > 0 && x < matrix[0].length && y > 0 && y < matrix.length && matrix[y][x] > THRESHOLD && !found.contains(new BlobCoordinates(x, y))) {
+            found.add(new BlobCoordinates(x, y));
+            blobDetection(matrix, x + 1, y, found); // right
+            blobDetection(matrix, x - 1, y, found); // left
+            blobDetection(matrix, x, y + 1, found); // top
+            blobDetection(matrix, x, y - 1, found); // down
+        }
+    }
+}
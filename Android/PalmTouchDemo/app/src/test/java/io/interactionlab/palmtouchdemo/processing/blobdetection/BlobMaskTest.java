@@ -0,0 +1,195 @@
+package io.interactionlab.palmtouchdemo.processing.blobdetection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares BlobMask with the recursive flood fill it replaces: the same components, in the
+ * same order, with the same bounding boxes and sizes.
+ */
+public class BlobMaskTest {
+    private static final int WIDTH = 15;
+    private static final int HEIGHT = 27;
+
+    private final BlobMask mask = new BlobMask(WIDTH, HEIGHT);
+
+    @Test
+    public void emptyFrame() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+
+        assertEquals(0, mask.build(matrix));
+        assertTrue(mask.isEmpty());
+        assertEquals(0, mask.detect());
+    }
+
+    @Test
+    public void firstRowAndColumnAreExcluded() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        for (int x = 0; x < WIDTH; x++) {
+            matrix[0][x] = 255;
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            matrix[y][0] = 255;
+        }
+
+        assertEquals(0, mask.build(matrix));
+        assertEquals(0, mask.detect());
+
+        // A blob next to them starts in row and column 1.
+        matrix[1][1] = 255;
+        matrix[1][2] = 255;
+        matrix[2][1] = 255;
+        assertSameAsFloodFill(matrix);
+        assertEquals(1, mask.getMinX(0));
+        assertEquals(1, mask.getMinY(0));
+    }
+
+    @Test
+    public void thresholdIsExclusive() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        matrix[5][5] = BlobMask.THRESHOLD;
+        matrix[5][6] = BlobMask.THRESHOLD + 1;
+
+        assertEquals(1, mask.build(matrix));
+        assertEquals(1, mask.detect());
+        assertEquals(6, mask.getMinX(0));
+    }
+
+    @Test
+    public void singleCells() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        matrix[1][1] = 100;
+        matrix[3][7] = 100;
+        matrix[26][14] = 100;
+        // Diagonal neighbours are separate blobs.
+        matrix[10][3] = 100;
+        matrix[11][4] = 100;
+
+        assertSameAsFloodFill(matrix);
+        assertEquals(5, mask.getBlobCount());
+    }
+
+    @Test
+    public void fullScreen() {
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                matrix[y][x] = 200;
+            }
+        }
+
+        assertSameAsFloodFill(matrix);
+        assertEquals(1, mask.getBlobCount());
+        assertEquals((HEIGHT - 1) * (WIDTH - 1), mask.getPixelCount(0));
+        assertEquals(new BlobBoundingBox(0, 0, WIDTH, HEIGHT), mask.getBoundingBox(0));
+    }
+
+    @Test
+    public void shapesThatMergeLate() {
+        // Runs that are only joined in a later row: a U, a spiral and a comb.
+        String[] rows = {
+                "...............",
+                ".#...#..#######",
+                ".#...#..#.....#",
+                ".#...#..#.###.#",
+                ".#####..#.#.#.#",
+                "........#.#...#",
+                "........#.#####",
+                "...............",
+                ".#.#.#.#.#.#.#.",
+                ".#.#.#.#.#.#.#.",
+                ".#############.",
+        };
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                matrix[y][x] = rows[y].charAt(x) == '#' ? 100 : 0;
+            }
+        }
+
+        assertSameAsFloodFill(matrix);
+        assertEquals(3, mask.getBlobCount());
+    }
+
+    @Test
+    public void randomFrames() {
+        Random random = new Random(42);
+        int[][] matrix = new int[HEIGHT][WIDTH];
+        for (int n = 0; n < 2000; n++) {
+            double density = random.nextDouble();
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    matrix[y][x] = random.nextDouble() < density ? 31 + random.nextInt(200) : random.nextInt(31);
+                }
+            }
+
+            assertSameAsFloodFill(matrix);
+        }
+    }
+
+    private void assertSameAsFloodFill(int[][] matrix) {
+        List<List<BlobCoordinates>> expected = floodFill(matrix);
+
+        mask.build(matrix);
+        assertEquals(expected.size(), mask.detect());
+        for (int b = 0; b < expected.size(); b++) {
+            List<BlobCoordinates> found = expected.get(b);
+            int xMin = Integer.MAX_VALUE, xMax = Integer.MIN_VALUE;
+            int yMin = Integer.MAX_VALUE, yMax = Integer.MIN_VALUE;
+            for (BlobCoordinates c : found) {
+                xMin = Math.min(xMin, c.x1);
+                xMax = Math.max(xMax, c.x1);
+                yMin = Math.min(yMin, c.y1);
+                yMax = Math.max(yMax, c.y1);
+            }
+
+            assertEquals(xMin, mask.getMinX(b));
+            assertEquals(xMax, mask.getMaxX(b));
+            assertEquals(yMin, mask.getMinY(b));
+            assertEquals(yMax, mask.getMaxY(b));
+            assertEquals(found.size(), mask.getPixelCount(b));
+            assertEquals(new BlobBoundingBox(xMin - 1, yMin - 1, xMax + 1, yMax + 1), mask.getBoundingBox(b));
+        }
+    }
+
+    /**
+     * Components of the original implementation, started from every cell in scan order.
+     */
+    private static List<List<BlobCoordinates>> floodFill(int[][] matrix) {
+        List<List<BlobCoordinates>> components = new ArrayList<List<BlobCoordinates>>();
+        boolean[][] assigned = new boolean[matrix.length][matrix[0].length];
+        for (int y = 0; y < matrix.length; y++) {
+            for (int x = 0; x < matrix[0].length; x++) {
+                if (assigned[y][x]) {
+                    continue;
+                }
+                List<BlobCoordinates> found = new ArrayList<BlobCoordinates>();
+                blobDetection(matrix, x, y, found);
+                if (found.size() > 0) {
+                    for (BlobCoordinates c : found) {
+                        assigned[c.y1][c.x1] = true;
+                    }
+                    components.add(found);
+                }
+            }
+        }
+        return components;
+    }
+
+    private static void blobDetection(int[][] matrix, int x, int y, List<BlobCoordinates> found) {
+        final int THRESHOLD = 30;
+
+        if (x > 0 && x < matrix[0].length && y > 0 && y < matrix.length && matrix[y][x] > THRESHOLD && !found.contains(new BlobCoordinates(x, y))) {
+            found.add(new BlobCoordinates(x, y));
+            blobDetection(matrix, x + 1, y, found); // right
+            blobDetection(matrix, x - 1, y, found); // left
+            blobDetection(matrix, x, y + 1, found); // top
+            blobDetection(matrix, x, y - 1, found); // down
+        }
+    }
+}
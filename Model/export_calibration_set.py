@@ -0,0 +1,54 @@
+"""
+Exports the blob images of one participant as a calibration set for the int8 model
+(see CalibrationSet, WeightFileConverter and QuantizationReport in PalmTouchUseCaseDemos).
+
+Blobs are selected and labeled as in read_data_sets() of TensorFlow_CNN-PalmTouch.ipynb
+(0 = finger, 1 = palm) and normalized as on the device, i.e. clipped to [0, 268] and
+divided by 268.
+
+File layout (little endian):
+    4 bytes   magic "PTCS"
+    int32     number of blobs n
+    int32     values per blob (405)
+    n bytes   labels
+    n * 405   float32 blob images (27 rows x 15 columns)
+
+Usage: python export_calibration_set.py [Dataset/p21_blobimages.pkl] [p21_calibration.bin]
+"""
+import struct
+import sys
+
+import numpy as np
+import pandas as pd
+
+OH_TASKS = ["TAP", "DRAG", "SCROLL"]
+TH_TASKS = ["PINCH", "ROTATE"]
+PALM_TASK = ["PALM"]
+
+CLIP_MAX = 268.0
+
+source = sys.argv[1] if len(sys.argv) > 1 else "./Dataset/p21_blobimages.pkl"
+target = sys.argv[2] if len(sys.argv) > 2 else "./p21_calibration.bin"
+
+df = pd.read_pickle(source, compression="gzip")
+
+finger = df[((df.Blobcount == 1) & (df.Task.isin(OH_TASKS))) | ((df.Blobcount == 2) & (df.Task.isin(TH_TASKS)))].BlobImages
+palm = df[(df.Blobcount == 1) & (df.Task.isin(PALM_TASK))].BlobImages
+
+images = []
+for blobs in finger:
+    images.extend(blobs)
+amount_finger_blobs = len(images)
+for blobs in palm:
+    images.extend(blobs)
+amount_palm_blobs = len(images) - amount_finger_blobs
+
+labels = np.append(np.zeros(amount_finger_blobs, dtype=np.int8), np.ones(amount_palm_blobs, dtype=np.int8))
+images = np.clip(np.array(images, dtype=np.float32), 0, CLIP_MAX) / CLIP_MAX
+
+with open(target, "wb") as f:
+    f.write(struct.pack("<4sii", b"PTCS", len(images), 27 * 15))
+    f.write(labels.tobytes())
+    f.write(images.astype("<f4").reshape(len(images), -1).tobytes())
+
+print("Exported %d finger and %d palm blobs to %s." % (amount_finger_blobs, amount_palm_blobs, target))